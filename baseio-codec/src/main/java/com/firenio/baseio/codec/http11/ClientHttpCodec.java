@@ -44,17 +44,6 @@ public class ClientHttpCodec extends HttpCodec {
         return new ClientHttpFrame();
     }
 
-    @Override
-    int decodeRemainBody(Channel ch, ByteBuf src, HttpFrame frame) {
-        ClientHttpFrame f = (ClientHttpFrame) frame;
-        if (f.isChunked()) {
-            //TODO chunked support
-            return decode_state_complate;
-        } else {
-            return super.decodeRemainBody(ch, src, f);
-        }
-    }
-
     @Override
     public ByteBuf encode(Channel ch, Frame frame) throws IOException {
         ClientHttpFrame f = (ClientHttpFrame) frame;
@@ -151,6 +140,9 @@ public class ClientHttpCodec extends HttpCodec {
 
     int onHeaderReadComplete(HttpFrame frame) throws IOException {
         ClientHttpFrame f = (ClientHttpFrame) frame;
+        if (f.isChunked()) {
+            return decode_state_chunk_size;
+        }
         int contentLength = 0;
         String clength = f.getResponse(Content_Length);
         if (!Util.isNullOrBlank(clength)) {
@@ -158,15 +150,9 @@ public class ClientHttpCodec extends HttpCodec {
             f.setContentLength(contentLength);
         }
         if (contentLength < 1) {
-            if (f.isChunked()) {
-                return decode_state_body;
-            } else {
-                return decode_state_complate;
-            }
+            return decode_state_complate;
         } else {
-            if (contentLength > getBodyLimit()) {
-                throw OVER_LIMIT;
-            }
+            checkBodyLimit(contentLength);
             return decode_state_body;
         }
     }
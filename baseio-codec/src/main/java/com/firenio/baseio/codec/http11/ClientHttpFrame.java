@@ -17,6 +17,7 @@ package com.firenio.baseio.codec.http11;
 
 import java.io.IOException;
 
+import com.firenio.baseio.buffer.ByteBuf;
 import com.firenio.baseio.collection.IntMap;
 import com.firenio.baseio.common.Util;
 import com.firenio.baseio.component.Channel;
@@ -56,11 +57,17 @@ public class ClientHttpFrame extends HttpFrame {
     }
 
     @Override
-    void setReadHeader(String name, String value) {
-        HttpHeader header = getHeader(name);
-        if (header != null) {
-            client_response_headers.put(header.getId(), value);
+    String getReadHeader(HttpHeader name) {
+        return client_response_headers.get(name.getId());
+    }
+
+    @Override
+    void setReadHeader(HttpHeader header, ByteBuf src, int absPos, int len) {
+        char[] value = new char[len];
+        for (int i = 0; i < len; i++) {
+            value[i] = (char) (src.absByte(absPos + i) & 0xff);
         }
+        client_response_headers.put(header.getId(), new String(value));
     }
 
     @Override
@@ -15,6 +15,9 @@
  */
 package com.firenio.baseio.codec.http11;
 
+import java.io.File;
+import java.nio.channels.FileChannel;
+
 import com.firenio.baseio.buffer.ByteBuf;
 
 /**
@@ -23,6 +26,15 @@ import com.firenio.baseio.buffer.ByteBuf;
  */
 public class HttpAttachment {
 
+    // the decode state of the chunked, streaming or spilling body
+    byte[]            body;
+    HttpFrame         bodyFrame;
+    int               bodyRemain;
+    long              bodySize;
+    int               bodyState;
+    FileChannel       spillChannel;
+    File              spillFile;
+
     private HttpFrame uncompleteFrame;
     
     private String websocketFrameName;
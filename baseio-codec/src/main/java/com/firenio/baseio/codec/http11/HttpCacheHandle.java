@@ -0,0 +1,363 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.codec.http11;
+
+import static com.firenio.baseio.codec.http11.HttpHeader.Accept_Encoding;
+import static com.firenio.baseio.codec.http11.HttpHeader.Host;
+import static com.firenio.baseio.codec.http11.HttpHeader.If_Modified_Since;
+import static com.firenio.baseio.codec.http11.HttpHeader.If_None_Match;
+import static com.firenio.baseio.codec.http11.HttpHeader.Range;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.common.DateUtil;
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.FastThreadLocal;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.IoEventHandle;
+
+/**
+ * cache the encoded responses (status line, headers and body) of the GET
+ * requests, the response is cached if the handler marked it by
+ * {@link HttpFrame#setCacheable(File)}, a hit is written by the duplicates of
+ * the cached buffers without the next handle and the encoding.
+ * <p>
+ * the entries are keyed by the url, the raw query, the Host and the negotiated
+ * Accept-Encoding, each thread which runs the handle (the event loop or the
+ * executor) has its own entries, so there is no lock. the head (status line and headers) and the
+ * body are kept in separate buffers, the Date header (if any) is patched in a
+ * new copy of the head once a second, the duplicates already written are not
+ * changed. the entry is evicted if expired (ttl) or the file modified, the
+ * least recently used entries are evicted if over the size limit.
+ *
+ * @author wangkai
+ *
+ */
+public class HttpCacheHandle extends IoEventHandle {
+
+    private volatile int        generation;
+    private final int           local_index = FastThreadLocal.nextIndexedVariablesIndex();
+    private final long          maxSize;
+    private final IoEventHandle next;
+    private final long          ttl;
+
+    /**
+     * @param maxSize the max bytes of the entries of each event loop
+     * @param ttl the time to live (ms) of the entries, 0 for never expire
+     */
+    public HttpCacheHandle(IoEventHandle next, long maxSize, long ttl) {
+        this.next = next;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public void accept(Channel ch, Frame frame) throws Exception {
+        if (frame instanceof HttpFrame) {
+            HttpFrame f = (HttpFrame) frame;
+            // the conditional and range requests go to the next handle
+            if (f.isGet() && !isConditional(f)) {
+                Store store = getStore();
+                Key key = store.lookup(f);
+                Entry e = store.get(ch, key);
+                if (e != null) {
+                    HttpAttachment att = (HttpAttachment) ch.getAttachment();
+                    if (att != null) {
+                        // do not append the following responses before this
+                        att.setLastWriteBuf(ByteBuf.empty());
+                    }
+                    if (e.body == null) {
+                        ch.writeAndFlush(e.head.duplicate());
+                    } else {
+                        ch.write(e.head.duplicate());
+                        ch.writeAndFlush(e.body.duplicate());
+                    }
+                    ch.release(f);
+                    return;
+                }
+                // the query may be decoded in place by the handler, keep the key
+                f.setCacheHandle(this, key.copy());
+            }
+        }
+        next.accept(ch, frame);
+    }
+
+    @Override
+    public void exceptionCaught(Channel ch, Frame frame, Exception ex) {
+        next.exceptionCaught(ch, frame, ex);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public IoEventHandle getNext() {
+        return next;
+    }
+
+    private Store getStore() {
+        FastThreadLocal l = FastThreadLocal.get();
+        Store store = (Store) l.getIndexedVariable(local_index);
+        if (store == null) {
+            store = new Store();
+            l.setIndexedVariable(local_index, store);
+        }
+        if (store.generation != generation) {
+            store.clear();
+            store.generation = generation;
+        }
+        return store;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * drop all the entries, the entries of each event loop are dropped on its
+     * next access
+     */
+    public void invalidateAll() {
+        generation++;
+    }
+
+    private static boolean isConditional(HttpFrame f) {
+        return f.getRequestHeader(If_Modified_Since) != null
+                || f.getRequestHeader(If_None_Match) != null || f.getRequestHeader(Range) != null;
+    }
+
+    /**
+     * called by the codec in the thread which writes the response, the head and
+     * the body in [absPos, absLimit) of the bufs are copied to the cache, the
+     * positions of the bufs are not changed
+     *
+     * @param body the body, null if the body follows the head in the head buf
+     * @param headLen the length of the head (status line and headers)
+     * @param dateIndex the index of the date value in the head, -1 if no date
+     */
+    void put(Channel ch, HttpFrame f, ByteBuf head, int headLen, ByteBuf body, int dateIndex) {
+        int bodyLen = body == null ? head.remaining() - headLen : body.remaining();
+        if (headLen + bodyLen > maxSize) {
+            return;
+        }
+        Entry e = new Entry();
+        e.head = copy(ch, head, head.absPos(), headLen);
+        if (bodyLen > 0) {
+            if (body == null) {
+                e.body = copy(ch, head, head.absPos() + headLen, bodyLen);
+            } else {
+                e.body = copyBody(ch, body, bodyLen);
+            }
+        }
+        e.dateIndex = dateIndex;
+        e.expire = ttl > 0 ? Util.now() + ttl : Long.MAX_VALUE;
+        e.file = f.getCacheFile();
+        e.lastModified = e.file == null ? 0 : e.file.lastModified();
+        e.nextCheck = nextSecond(Util.now());
+        getStore().put(f.getCacheKey(), e);
+    }
+
+    private static ByteBuf copy(Channel ch, ByteBuf src, int absPos, int len) {
+        ByteBuf copy = ch.alloc().allocate(len);
+        int pos = src.absPos();
+        int limit = src.absLimit();
+        src.absPos(absPos);
+        src.absLimit(absPos + len);
+        copy.put(src);
+        src.absLimit(limit);
+        src.absPos(pos);
+        return copy.flip();
+    }
+
+    // the body may be a read only duplicate, it is read by its nio buffer
+    private static ByteBuf copyBody(Channel ch, ByteBuf src, int len) {
+        ByteBuf copy = ch.alloc().allocate(len);
+        if (src.getNioBuffer() != null) {
+            ByteBuffer nb = src.nioBuffer().duplicate();
+            nb.limit(nb.position() + len);
+            copy.put(nb);
+        } else {
+            for (int i = 0, p = src.absPos(); i < len; i++) {
+                copy.putByte(src.absByte(p + i));
+            }
+        }
+        return copy.flip();
+    }
+
+    private static long nextSecond(long now) {
+        return (now / 1000 + 1) * 1000;
+    }
+
+    static final class Entry {
+
+        ByteBuf body;
+        int     dateIndex;
+        long    expire;
+        File    file;
+        ByteBuf head;
+        long    lastModified;
+        long    nextCheck;
+
+        boolean isStale(long now) {
+            return now >= expire || (file != null && file.lastModified() != lastModified);
+        }
+
+        void release() {
+            head.release();
+            if (body != null) {
+                body.release();
+            }
+        }
+
+        int size() {
+            return head.limit() + (body == null ? 0 : body.limit());
+        }
+
+    }
+
+    static final class Key {
+
+        int    encoding;
+        String host;
+        byte[] query;
+        int    queryLen;
+        String url;
+
+        Key copy() {
+            Key key = new Key();
+            key.encoding = encoding;
+            key.host = host;
+            key.query = query == null ? null : Arrays.copyOf(query, queryLen);
+            key.queryLen = queryLen;
+            key.url = url;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            Key o = (Key) obj;
+            if (o.encoding != encoding || o.queryLen != queryLen || !o.url.equals(url)) {
+                return false;
+            }
+            if (host == null ? o.host != null : !host.equals(o.host)) {
+                return false;
+            }
+            for (int i = 0; i < queryLen; i++) {
+                if (o.query[i] != query[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = url.hashCode() * 31 + encoding;
+            if (host != null) {
+                h = h * 31 + host.hashCode();
+            }
+            for (int i = 0; i < queryLen; i++) {
+                h = h * 31 + query[i];
+            }
+            return h;
+        }
+
+    }
+
+    final class Store {
+
+        final byte[]          date    = new byte[29];
+        final Map<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        int                   generation;
+        // the key for lookup, reused in the event loop
+        final Key             lookup  = new Key();
+        long                  size;
+
+        void clear() {
+            for (Entry e : entries.values()) {
+                e.release();
+            }
+            entries.clear();
+            size = 0;
+        }
+
+        Entry get(Channel ch, Key key) {
+            Entry e = entries.get(key);
+            if (e == null) {
+                return null;
+            }
+            long now = Util.now();
+            if (now >= e.nextCheck) {
+                if (e.isStale(now)) {
+                    entries.remove(key);
+                    size -= e.size();
+                    e.release();
+                    return null;
+                }
+                if (e.dateIndex != -1) {
+                    // the duplicates of the old head may be still in the write
+                    // queues, so the date is patched in a new copy of the head
+                    ByteBuf old = e.head;
+                    ByteBuf copy = copy(ch, old, old.absPos(), old.limit());
+                    old.release();
+                    byte[] date = this.date;
+                    DateUtil.get().formatHttpBytes(date, 0, now);
+                    for (int i = 0; i < date.length; i++) {
+                        copy.putByte(e.dateIndex + i, date[i]);
+                    }
+                    e.head = copy;
+                }
+                e.nextCheck = nextSecond(now);
+            }
+            return e;
+        }
+
+        Key lookup(HttpFrame f) {
+            Key key = lookup;
+            key.url = f.getRequestURL();
+            key.query = f.getQueryBytes();
+            key.queryLen = f.getQuerySize();
+            key.host = f.getRequestHeader(Host);
+            key.encoding = HttpCompression.negotiate(f.getRequestHeader(Accept_Encoding));
+            return key;
+        }
+
+        void put(Key key, Entry e) {
+            Entry old = entries.put(key, e);
+            if (old != null) {
+                size -= old.size();
+                old.release();
+            }
+            size += e.size();
+            // evict the least recently used
+            for (Iterator<Entry> it = entries.values().iterator(); size > maxSize;) {
+                Entry eldest = it.next();
+                size -= eldest.size();
+                eldest.release();
+                it.remove();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.codec.http11;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.component.Frame;
+
+/**
+ * a chunk of the chunked transfer encoding body
+ * <p>
+ * decode: delivered after the head {@link HttpFrame} (isStreaming) when the
+ * codec is in stream body mode, the last one of a chunked body has no content,
+ * the last one of a body with content length carries the last segment.
+ * <p>
+ * encode: write the chunks after the head frame which is set chunked, the
+ * content could be a pooled {@link ByteBuf} (written without copy) or a byte
+ * array, a last chunk terminates the body.
+ *
+ * @author wangkai
+ *
+ */
+public class HttpChunkFrame extends Frame {
+
+    private final HttpFrame head;
+    private boolean         last;
+
+    /**
+     * the last chunk
+     */
+    public HttpChunkFrame() {
+        this(null, null, true);
+    }
+
+    public HttpChunkFrame(byte[] data) {
+        this(null, data, false);
+    }
+
+    public HttpChunkFrame(ByteBuf data) {
+        this.head = null;
+        this.setContent(data);
+    }
+
+    HttpChunkFrame(HttpFrame head, byte[] data, boolean last) {
+        this.head = head;
+        this.last = last;
+        if (data != null) {
+            this.setContent(data);
+        }
+    }
+
+    @Override
+    public String getFrameName() {
+        return head == null ? null : head.getFrameName();
+    }
+
+    /**
+     * @return the head frame of the decoded chunk
+     */
+    public HttpFrame getHead() {
+        return head;
+    }
+
+    @Override
+    public int headerLength() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLast() {
+        return last;
+    }
+
+    public HttpChunkFrame setLast(boolean last) {
+        this.last = last;
+        return this;
+    }
+
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.codec.http11;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.firenio.baseio.TimeoutException;
+import com.firenio.baseio.collection.DelayedQueue.DelayTask;
+import com.firenio.baseio.common.Assert;
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.ChannelConnector;
+import com.firenio.baseio.component.ChannelEventListener;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.IoEventHandle;
+import com.firenio.baseio.component.NioEventLoop;
+import com.firenio.baseio.component.NioEventLoopGroup;
+import com.firenio.baseio.component.SslContext;
+import com.firenio.baseio.concurrent.Callback;
+import com.firenio.baseio.concurrent.Waiter;
+import com.firenio.baseio.log.Logger;
+import com.firenio.baseio.log.LoggerFactory;
+
+/**
+ * asynchronous http/1.1 client, the keep-alive connections are pooled by host
+ * in each event loop of the (sharable) group, so the pools are accessed without
+ * any lock. a request is sent by an idle connection of the host, or queued
+ * until a connection available (a new connection will be opened if the pool is
+ * not full). if pipelining enabled, a busy connection accepts requests until
+ * the max pipelined, the responses are matched in the order of the requests.
+ * <p>
+ * the callback is invoked in the event loop, do not block in it.
+ *
+ * @author wangkai
+ *
+ */
+public final class HttpClient implements Closeable {
+
+    static final IOException        CLIENT_CLOSED  = Util.unknownStackTrace(
+            new ClosedChannelException(), HttpClient.class, "close");
+    static final IOException        CHANNEL_CLOSED = Util.unknownStackTrace(
+            new ClosedChannelException(), HttpClient.class, "channelClosed");
+    static final Logger             logger         = LoggerFactory.getLogger(HttpClient.class);
+
+    private volatile boolean        closed;
+    private long                    connectTimeout = 3000;
+    private final NioEventLoopGroup group;
+    private int                     maxConnections = 8;
+    private int                     maxPipelined   = 16;
+    private boolean                 pipelining;
+    private long                    requestTimeout = 10000;
+    private SslContext              sslContext;
+
+    public HttpClient(NioEventLoopGroup group) throws Exception {
+        Assert.notNull(group, "null group");
+        if (!group.isSharable()) {
+            throw new IllegalArgumentException("the group of http client should be sharable");
+        }
+        this.group = group;
+        Util.start(group);
+    }
+
+    /**
+     * close all the connections of this client, the queued and in flight
+     * requests will be failed, the group will not be stopped
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (int i = 0; i < group.getEventLoopSize(); i++) {
+            final NioEventLoop el = group.getEventLoop(i);
+            el.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    Map<String, Pool> pools = getPools(el);
+                    el.removeAttribute(HttpClient.this);
+                    for (Pool pool : pools.values()) {
+                        pool.close();
+                    }
+                }
+            });
+        }
+    }
+
+    private void dispatch(NioEventLoop el, String host, int port, Call call) {
+        if (closed) {
+            call.complete(null, CLIENT_CLOSED);
+            return;
+        }
+        Map<String, Pool> pools = getPools(el);
+        String key = host + ':' + port;
+        Pool pool = pools.get(key);
+        if (pool == null) {
+            pool = new Pool(el, host, port);
+            pools.put(key, pool);
+        }
+        call.pool = pool;
+        el.schedule(call);
+        pool.pending.offer(call);
+        pool.drain();
+    }
+
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public NioEventLoopGroup getGroup() {
+        return group;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxPipelined() {
+        return maxPipelined;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Pool> getPools(NioEventLoop el) {
+        Map<String, Pool> pools = (Map<String, Pool>) el.getAttribute(this);
+        if (pools == null) {
+            pools = new HashMap<>();
+            el.setAttribute(this, pools);
+        }
+        return pools;
+    }
+
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public SslContext getSslContext() {
+        return sslContext;
+    }
+
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * send the request and wait for the response
+     *
+     * @throws TimeoutException if no response in the request timeout
+     */
+    public ClientHttpFrame request(String host, int port, ClientHttpFrame req) throws Exception {
+        NioEventLoop el = selectEventLoop();
+        if (el.inEventLoop()) {
+            throw new IOException("can not blocking request in its event loop");
+        }
+        Waiter<ClientHttpFrame> waiter = new Waiter<>();
+        request(el, host, port, req, waiter);
+        if (waiter.await(requestTimeout + 1000)) {
+            throw new TimeoutException("request timeout");
+        }
+        if (waiter.isFailed()) {
+            Throwable ex = waiter.getThrowable();
+            if (ex instanceof Exception) {
+                throw (Exception) ex;
+            }
+            throw new IOException("request failed", ex);
+        }
+        return waiter.getResponse();
+    }
+
+    /**
+     * send the request, the callback will be invoked with the response, or the
+     * exception if failed or timeout
+     *
+     * @return the event loop which the request dispatched to
+     */
+    public NioEventLoop request(String host, int port, ClientHttpFrame req,
+            Callback<ClientHttpFrame> callback) {
+        NioEventLoop el = selectEventLoop();
+        request(el, host, port, req, callback);
+        return el;
+    }
+
+    private void request(final NioEventLoop el, final String host, final int port,
+            ClientHttpFrame req, Callback<ClientHttpFrame> callback) {
+        Assert.notNull(callback, "null callback");
+        if (req.getRequestHeader(HttpHeader.Host) == null) {
+            req.setRequestHeader(HttpHeader.Host, port == 80 ? host : host + ':' + port);
+        }
+        final Call call = new Call(req, callback, requestTimeout);
+        if (el.inEventLoop()) {
+            dispatch(el, host, port, call);
+        } else if (!el.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                dispatch(el, host, port, call);
+            }
+        })) {
+            call.complete(null, Channel.TAST_REJECT);
+        }
+    }
+
+    // stay in the current event loop if possible, avoid to switch thread
+    private NioEventLoop selectEventLoop() {
+        for (int i = 0; i < group.getEventLoopSize(); i++) {
+            NioEventLoop el = group.getEventLoop(i);
+            if (el.inEventLoop()) {
+                return el;
+            }
+        }
+        return group.getNext();
+    }
+
+    public void setConnectTimeout(long connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * the max connections of a host in each event loop
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public void setMaxPipelined(int maxPipelined) {
+        this.maxPipelined = maxPipelined;
+    }
+
+    public void setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+
+    public void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public void setSslContext(SslContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    final class Call extends DelayTask {
+
+        final Callback<ClientHttpFrame> callback;
+        Conn                            conn;
+        boolean                         done;
+        Pool                            pool;
+        final ClientHttpFrame           req;
+
+        Call(ClientHttpFrame req, Callback<ClientHttpFrame> callback, long timeout) {
+            super(timeout);
+            this.req = req;
+            this.callback = callback;
+        }
+
+        void complete(ClientHttpFrame res, Throwable ex) {
+            if (done) {
+                return;
+            }
+            done = true;
+            cancel();
+            try {
+                callback.call(res, ex);
+            } catch (Throwable e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (done) {
+                return;
+            }
+            Conn conn = this.conn;
+            if (conn == null) {
+                pool.pending.remove(this);
+            }
+            complete(null, new TimeoutException("request timeout"));
+            if (conn != null) {
+                // the response can not be skipped, and the connection maybe hang up
+                Util.close(conn.ch);
+            }
+        }
+
+    }
+
+    final class Conn extends IoEventHandle implements ChannelEventListener {
+
+        Channel                ch;
+        final ChannelConnector connector;
+        final ArrayDeque<Call> inflight = new ArrayDeque<>();
+        final Pool             pool;
+
+        Conn(Pool pool) {
+            this.pool = pool;
+            this.connector = new ChannelConnector(pool.eventLoop, pool.host, pool.port);
+            this.connector.addProtocolCodec(new ClientHttpCodec());
+            this.connector.setIoEventHandle(this);
+            this.connector.addChannelEventListener(this);
+            this.connector.setPrintConfig(false);
+            if (sslContext != null) {
+                this.connector.setSslContext(sslContext);
+            }
+        }
+
+        @Override
+        public void accept(Channel ch, Frame frame) throws Exception {
+            ClientHttpFrame res = (ClientHttpFrame) frame;
+            Call call = inflight.poll();
+            if (call == null) {
+                Util.close(ch);
+                return;
+            }
+            call.conn = null;
+            call.complete(res, null);
+            if ("close".equalsIgnoreCase(res.getResponse(HttpHeader.Connection))) {
+                Util.close(ch);
+            } else {
+                pool.drain();
+            }
+        }
+
+        @Override
+        public void channelClosed(Channel ch) {
+            pool.conns.remove(this);
+            for (;;) {
+                Call call = inflight.poll();
+                if (call == null) {
+                    break;
+                }
+                call.conn = null;
+                call.complete(null, CHANNEL_CLOSED);
+            }
+            Util.close(connector);
+            pool.drain();
+        }
+
+        @Override
+        public void channelOpened(Channel ch) throws Exception {}
+
+        void connect() {
+            pool.connecting++;
+            try {
+                connector.connect(new Callback<Channel>() {
+
+                    @Override
+                    public void call(Channel ch, Throwable ex) {
+                        pool.connecting--;
+                        if (ex == null && closed) {
+                            // the pool was dropped by close, do not leak the connection
+                            Util.close(connector);
+                        } else if (ex == null) {
+                            Conn.this.ch = ch;
+                            pool.conns.add(Conn.this);
+                            pool.drain();
+                        } else {
+                            Util.close(connector);
+                            pool.connectFailed(ex);
+                        }
+                    }
+                }, connectTimeout);
+            } catch (Exception e) {
+                pool.connecting--;
+                Util.close(connector);
+                pool.connectFailed(e);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(Channel ch, Frame frame, Exception ex) {
+            logger.error(ex.getMessage(), ex);
+            Util.close(ch);
+        }
+
+        boolean isAvailable(boolean pipelining) {
+            int size = inflight.size();
+            return ch.isOpen() && (size == 0 || pipelining && size < maxPipelined);
+        }
+
+        void send(Call call) {
+            call.conn = this;
+            inflight.offer(call);
+            try {
+                ch.writeAndFlush(call.req);
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+                Util.close(ch);
+            }
+        }
+
+    }
+
+    final class Pool {
+
+        int                    connecting;
+        final List<Conn>       conns   = new ArrayList<>();
+        final NioEventLoop     eventLoop;
+        final String           host;
+        final ArrayDeque<Call> pending = new ArrayDeque<>();
+        final int              port;
+
+        Pool(NioEventLoop eventLoop, String host, int port) {
+            this.eventLoop = eventLoop;
+            this.host = host;
+            this.port = port;
+        }
+
+        // prefer the idle connection, then the pipelined one with the least in flight
+        Conn acquire() {
+            Conn res = null;
+            for (Conn c : conns) {
+                if (c.isAvailable(pipelining)
+                        && (res == null || c.inflight.size() < res.inflight.size())) {
+                    res = c;
+                }
+            }
+            return res;
+        }
+
+        void close() {
+            for (;;) {
+                Call call = pending.poll();
+                if (call == null) {
+                    break;
+                }
+                call.complete(null, CLIENT_CLOSED);
+            }
+            for (Conn c : new ArrayList<>(conns)) {
+                Util.close(c.ch);
+            }
+        }
+
+        void connectFailed(Throwable ex) {
+            if (!conns.isEmpty() || connecting > 0) {
+                return;
+            }
+            // no connection to wait for
+            for (;;) {
+                Call call = pending.poll();
+                if (call == null) {
+                    break;
+                }
+                call.complete(null, ex);
+            }
+        }
+
+        void drain() {
+            for (; !pending.isEmpty();) {
+                Conn c = acquire();
+                if (c == null) {
+                    break;
+                }
+                c.send(pending.poll());
+            }
+            if (!closed && pending.size() > connecting
+                    && conns.size() + connecting < maxConnections) {
+                new Conn(this).connect();
+            }
+        }
+
+    }
+
+}
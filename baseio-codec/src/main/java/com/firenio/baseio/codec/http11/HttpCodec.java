@@ -15,14 +15,24 @@
  */
 package com.firenio.baseio.codec.http11;
 
+import static com.firenio.baseio.codec.http11.HttpHeader.Accept_Encoding;
+import static com.firenio.baseio.codec.http11.HttpHeader.Content_Encoding;
 import static com.firenio.baseio.codec.http11.HttpHeader.Content_Length;
 import static com.firenio.baseio.codec.http11.HttpHeader.Content_Type;
+import static com.firenio.baseio.codec.http11.HttpHeader.Transfer_Encoding;
+import static com.firenio.baseio.codec.http11.HttpHeader.Vary;
 import static com.firenio.baseio.common.ByteUtil.b;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 import com.firenio.baseio.Develop;
 import com.firenio.baseio.buffer.ByteBuf;
@@ -41,27 +51,46 @@ import com.firenio.baseio.component.ProtocolCodec;
  */
 public class HttpCodec extends ProtocolCodec {
 
+    static final byte[]      CHUNK_END                 = b("0\r\n\r\n");
+    static final byte        COLON                     = ':';
     static final byte[]      CONTENT_LENGTH_MATCH      = b("Content-Length:");
     static final int         decode_state_body         = 2;
+    static final int         decode_state_body_spill   = 9;
+    static final int         decode_state_body_stream  = 8;
+    static final int         decode_state_chunk_crlf   = 6;
+    static final int         decode_state_chunk_data   = 5;
+    static final int         decode_state_chunk_size   = 4;
     static final int         decode_state_complate     = 3;
     static final int         decode_state_header       = 1;
     static final int         decode_state_line_one     = 0;
+    static final int         decode_state_trailer      = 7;
     static final int         encode_bytes_arrays_index = nextIndexedVariablesIndex();
     static final int         content_len_index         = nextIndexedVariablesIndex();
     static final String      FRAME_CACHE_KEY           = "_HTTP_FRAME_CACHE_KEY";
+    static final byte[]      HEX                       = b("0123456789abcdef");
+    static final IOException ILLEGAL_CHUNK             = EXCEPTION("illegal chunk");
     static final KMPUtil     KMP_BOUNDARY              = new KMPUtil("boundary=");
     static final byte        N                         = '\n';
     static final IOException OVER_LIMIT                = EXCEPTION("over limit");
+    static final byte        QUESTION                  = '?';
     static final byte        R                         = '\r';
     static final byte        SPACE                     = ' ';
 
     private final int        blimit;
+    private final byte[]     chunkedLine;
+    private int              compressLevel             = Deflater.DEFAULT_COMPRESSION;
+    private int              compressThreshold;
     private final byte[][]   CONTENT_LENGTHS           = new byte[1024][];
     private final int        hlimit;
     private final int        fcache;
     private final boolean    lite;
     private final boolean    inline;
     private final ByteBuffer contentLenBuf;
+    private HttpRouter<?>    router;
+    private File             spillDirectory;
+    private long             spillLimit                = 1024L * 1024 * 1024;
+    private int              spillThreshold;
+    private boolean          streamBody;
 
     public HttpCodec() {
         this(0);
@@ -93,8 +122,10 @@ public class HttpCodec extends ProtocolCodec {
         ByteBuffer temp = ByteBuffer.allocate(128);
         if (server == null) {
             temp.put(b("\r\nContent-Length: "));
+            chunkedLine = b("\r\nTransfer-Encoding: chunked");
         } else {
             temp.put(b("\r\nServer: " + server + "\r\nContent-Length: "));
+            chunkedLine = b("\r\nServer: " + server + "\r\nTransfer-Encoding: chunked");
         }
         contentLenBuf = temp.duplicate();
         contentLenBuf.flip();
@@ -124,6 +155,27 @@ public class HttpCodec extends ProtocolCodec {
         return newFrame();
     }
 
+    @Override
+    protected void channelClosed(Channel ch) {
+        HttpAttachment att = (HttpAttachment) ch.getAttachment();
+        if (att != null && att.spillChannel != null) {
+            // the body is not finished, drop the temp file
+            Util.close(att.spillChannel);
+            att.spillFile.delete();
+            att.spillChannel = null;
+            att.spillFile = null;
+        }
+    }
+
+    void checkBodyLimit(long size) throws IOException {
+        if (streamBody) {
+            return;
+        }
+        if (size > (spillThreshold > 0 ? spillLimit : blimit)) {
+            throw OVER_LIMIT;
+        }
+    }
+
     private int decode_lite(ByteBuf src, HttpFrame f) throws IOException {
         int decode_state = f.getDecodeState();
         if (decode_state == decode_state_line_one) {
@@ -141,16 +193,22 @@ public class HttpCodec extends ProtocolCodec {
                     f.setMethod(HttpMethod.POST);
                     skip = 5;
                 }
-                StringBuilder line = FastThreadLocal.get().getStringBuilder();
+                int start = p + skip;
                 int count = ln - 9;
-                for (int i = p + skip; i < count; i++) {
-                    line.append((char) (src.absByte(i) & 0xff));
+                int qmask = src.indexOf(QUESTION, start, count - start);
+                if (qmask != -1) {
+                    f.setQuery(src, qmask + 1, count - qmask - 1);
+                    count = qmask;
                 }
-                int qmask = Util.indexOf(line, '?');
-                if (qmask > -1) {
-                    parse_kv(f.getRequestParams(), line, qmask + 1, line.length(), '=', '&');
-                    f.setRequestURL((String) line.subSequence(0, qmask));
+                if (router != null) {
+                    // the routed handler may not need the url string
+                    router.route(f, src, start, count);
+                    f.setRequestURL(src, start, count - start);
                 } else {
+                    StringBuilder line = FastThreadLocal.get().getStringBuilder();
+                    for (int i = start; i < count; i++) {
+                        line.append((char) (src.absByte(i) & 0xff));
+                    }
                     f.setRequestURL(line.toString());
                 }
                 src.absPos(ln + 1);
@@ -169,9 +227,7 @@ public class HttpCodec extends ProtocolCodec {
                     if (f.getContentLength() < 1) {
                         decode_state = decode_state_complate;
                     } else {
-                        if (f.getContentLength() > blimit) {
-                            throw OVER_LIMIT;
-                        }
+                        checkBodyLimit(f.getContentLength());
                         decode_state = decode_state_body;
                     }
                     break;
@@ -208,23 +264,31 @@ public class HttpCodec extends ProtocolCodec {
         }
         if (decode_state == decode_state_header) {
             for (;;) {
-                line.setLength(0);
-                if (!read_line(line, src, f.getHeaderLength(), hlimit)) {
+                int ps = src.absPos();
+                int pe = read_line_range(src, f.getHeaderLength(), hlimit);
+                if (pe == -1) {
                     break;
                 }
-                f.incrementHeaderLength(line.length());
-                if (line.length() == 0) {
+                int size = pe - ps;
+                f.incrementHeaderLength(size);
+                if (size == 0) {
                     decode_state = onHeaderReadComplete(f);
                     break;
                 } else {
-                    int p = Util.indexOf(line, ':');
+                    // recognize the name by bytes, keep the value as view
+                    int p = src.indexOf(COLON, ps, size);
                     if (p == -1) {
                         continue;
                     }
-                    int rp = Util.skip(line, ' ', p + 1);
-                    String name = line.substring(0, p);
-                    String value = line.substring(rp);
-                    f.setReadHeader(name, value);
+                    HttpHeader header = HttpHeader.get(src, ps, p - ps);
+                    if (header == null) {
+                        continue;
+                    }
+                    int vs = ByteUtil.skip(src, p + 1, pe, SPACE);
+                    if (vs == -1) {
+                        vs = pe;
+                    }
+                    f.setReadHeader(header, src, vs, pe - vs);
                 }
             }
         }
@@ -235,6 +299,9 @@ public class HttpCodec extends ProtocolCodec {
     public Frame decode(Channel ch, ByteBuf src) throws Exception {
         boolean remove = false;
         HttpAttachment att = (HttpAttachment) ch.getAttachment();
+        if (att.bodyState != 0) {
+            return decode_body(ch, src, att);
+        }
         HttpFrame f = att.getUncompleteFrame();
         if (f == null) {
             f = allocFrame(ch.getEventLoop());
@@ -248,7 +315,30 @@ public class HttpCodec extends ProtocolCodec {
             decode_state = decode_full(src, f);
         }
         if (decode_state == decode_state_body) {
-            decode_state = decodeRemainBody(ch, src, f);
+            if (streamBody) {
+                decode_state = decode_state_body_stream;
+            } else if (isSpill(f.getContentLength())) {
+                decode_state = decode_state_body_spill;
+            } else {
+                decode_state = decodeRemainBody(ch, src, f);
+            }
+        }
+        if (decode_state == decode_state_chunk_size || decode_state == decode_state_body_stream
+                || decode_state == decode_state_body_spill) {
+            if (remove) {
+                att.setUncompleteFrame(null);
+            }
+            att.bodyFrame = f;
+            att.bodyRemain = f.getContentLength();
+            att.bodyState = decode_state;
+            if (streamBody) {
+                f.setStreaming(true);
+                return f;
+            }
+            if (decode_state == decode_state_body_spill) {
+                openSpill(att);
+            }
+            return decode_body(ch, src, att);
         }
         if (decode_state == decode_state_complate) {
             if (remove) {
@@ -262,7 +352,124 @@ public class HttpCodec extends ProtocolCodec {
         }
     }
 
-    int decodeRemainBody(Channel ch, ByteBuf src, HttpFrame f) {
+    private Frame decode_body(Channel ch, ByteBuf src, HttpAttachment att)
+            throws IOException {
+        int state = att.bodyState;
+        if (state != decode_state_body_stream && state != decode_state_body_spill) {
+            return decode_chunked(ch, src, att);
+        }
+        int read = Math.min(att.bodyRemain, src.remaining());
+        if (read == 0) {
+            return null;
+        }
+        att.bodyRemain -= read;
+        boolean last = att.bodyRemain == 0;
+        if (state == decode_state_body_spill) {
+            spill(att, src, read);
+            return last ? finishSpill(att) : null;
+        }
+        HttpFrame f = att.bodyFrame;
+        if (last) {
+            resetBody(att);
+        }
+        byte[] data = new byte[read];
+        src.get(data);
+        return new HttpChunkFrame(f, data, last);
+    }
+
+    private Frame decode_chunked(Channel ch, ByteBuf src, HttpAttachment att)
+            throws IOException {
+        final HttpFrame f = att.bodyFrame;
+        final StringBuilder line = FastThreadLocal.get().getStringBuilder();
+        for (;;) {
+            int state = att.bodyState;
+            if (state == decode_state_chunk_data) {
+                int read = Math.min(att.bodyRemain, src.remaining());
+                if (read == 0) {
+                    return null;
+                }
+                att.bodyRemain -= read;
+                if (att.bodyRemain == 0) {
+                    att.bodyState = decode_state_chunk_crlf;
+                }
+                if (streamBody) {
+                    // deliver the chunk data as it arrives
+                    byte[] data = new byte[read];
+                    src.get(data);
+                    return new HttpChunkFrame(f, data, false);
+                }
+                if (att.spillChannel != null) {
+                    spill(att, src, read);
+                } else {
+                    src.get(att.body, (int) att.bodySize, read);
+                }
+                att.bodySize += read;
+                continue;
+            }
+            line.setLength(0);
+            if (!read_line(line, src, 0, hlimit)) {
+                return null;
+            }
+            if (state == decode_state_chunk_size) {
+                int size = parse_chunk_size(line);
+                if (size == 0) {
+                    att.bodyState = decode_state_trailer;
+                    continue;
+                }
+                if (!streamBody) {
+                    long bodySize = att.bodySize + size;
+                    checkBodyLimit(bodySize);
+                    if (att.spillChannel == null) {
+                        if (isSpill(bodySize)) {
+                            // move the aggregated chunks to the temp file
+                            openSpill(att);
+                            if (att.bodySize > 0) {
+                                write(att.spillChannel,
+                                        ByteBuffer.wrap(att.body, 0, (int) att.bodySize));
+                            }
+                            att.body = null;
+                        } else {
+                            byte[] body = att.body;
+                            if (body == null) {
+                                att.body = new byte[(int) Math.max(bodySize, 256)];
+                            } else if (body.length < bodySize) {
+                                att.body = Arrays.copyOf(body, (int) Math.min(blimit,
+                                        Math.max(bodySize, body.length * 2L)));
+                            }
+                        }
+                    }
+                }
+                att.bodyRemain = size;
+                att.bodyState = decode_state_chunk_data;
+            } else if (state == decode_state_chunk_crlf) {
+                if (line.length() != 0) {
+                    throw ILLEGAL_CHUNK;
+                }
+                att.bodyState = decode_state_chunk_size;
+            } else {
+                // the trailer fields are ignored
+                if (line.length() != 0) {
+                    continue;
+                }
+                if (streamBody) {
+                    resetBody(att);
+                    return new HttpChunkFrame(f, null, true);
+                }
+                if (att.spillChannel != null) {
+                    return finishSpill(att);
+                }
+                byte[] body = att.body;
+                int bodySize = (int) att.bodySize;
+                resetBody(att);
+                if (bodySize > 0) {
+                    setBody(ch, f, body.length == bodySize ? body : Arrays.copyOf(body, bodySize));
+                }
+                return f;
+            }
+        }
+    }
+
+    int decodeRemainBody(Channel ch, ByteBuf src, HttpFrame f) throws IOException {
         int contentLength = f.getContentLength();
         int remain = src.remaining();
         if (remain < contentLength) {
@@ -270,16 +477,28 @@ public class HttpCodec extends ProtocolCodec {
         } else {
             byte[] content = new byte[contentLength];
             src.get(content);
-            if (f.isForm()) {
-                String param = new String(content, ch.getCharset());
-                parse_kv(f.getRequestParams(), param, 0, param.length(), '=', '&');
-            } else {
-                f.setContent(content);
-            }
+            setBody(ch, f, content);
             return decode_state_complate;
         }
     }
 
+    private Frame finishSpill(HttpAttachment att) throws IOException {
+        HttpFrame f = att.bodyFrame;
+        File file = att.spillFile;
+        FileChannel fc = att.spillChannel;
+        att.spillChannel = null;
+        att.spillFile = null;
+        resetBody(att);
+        try {
+            fc.close();
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        f.setBodyFile(file);
+        return f;
+    }
+
     private byte[] getContentLenBuf(FastThreadLocal l) {
         byte[] bb = (byte[]) l.getIndexedVariable(content_len_index);
         if (bb == null) {
@@ -294,6 +513,9 @@ public class HttpCodec extends ProtocolCodec {
 
     @Override
     public ByteBuf encode(final Channel ch, Frame frame) throws IOException {
+        if (frame instanceof HttpChunkFrame) {
+            return encode_chunk(ch, (HttpChunkFrame) frame);
+        }
         boolean inline = this.inline;
         HttpFrame f = (HttpFrame) frame;
         FastThreadLocal l = FastThreadLocal.get();
@@ -301,6 +523,7 @@ public class HttpCodec extends ProtocolCodec {
         List<byte[]> encode_bytes_array = getEncodeBytesArray(l);
         Object content = f.getContent();
         ByteBuf contentBuf = null;
+        ByteBuf[] contentBufs = null;
         byte[] contentArray = null;
         byte[] head_bytes = f.getStatus().getLine();
         byte[] conn_bytes = f.getConnection().getLine();
@@ -315,10 +538,48 @@ public class HttpCodec extends ProtocolCodec {
             isArray = true;
             contentArray = (byte[]) content;
             write_size = contentArray.length;
+        } else if (content instanceof ByteBuf[]) {
+            // the bufs are ready to read, e.g. the views of the ranges of a file
+            contentBufs = (ByteBuf[]) content;
+            for (ByteBuf b : contentBufs) {
+                write_size += b.remaining();
+            }
+        }
+        if (compressThreshold > 0 && write_size >= compressThreshold && !f.isChunked()
+                && contentBufs == null) {
+            int encoding = negotiate(f);
+            if (encoding != HttpCompression.NONE) {
+                if (!isArray) {
+                    contentArray = contentBuf.getBytes();
+                    contentBuf.release();
+                    isArray = true;
+                }
+                HttpCompression c = HttpCompression.get();
+                write_size = c.compress(encoding, compressLevel, contentArray, 0, write_size);
+                contentArray = c.getBuffer();
+                c.release();
+                f.setResponseHeader(Content_Encoding, encoding == HttpCompression.GZIP
+                        ? HttpCompression.GZIP_BYTES : HttpCompression.DEFLATE_BYTES);
+                f.setResponseHeader(Vary, HttpCompression.ACCEPT_ENCODING);
+            }
         }
         byte[] cl_len_bytes;
         int cl_len;
-        if (write_size < 1024) {
+        if (f.isChunked()) {
+            // the body will be written by the chunk frames
+            if (contentBuf != null) {
+                contentBuf.release();
+            }
+            if (contentBufs != null) {
+                for (ByteBuf b : contentBufs) {
+                    b.release();
+                }
+            }
+            isArray = false;
+            write_size = 0;
+            cl_len_bytes = chunkedLine;
+            cl_len = chunkedLine.length;
+        } else if (write_size < 1024) {
             cl_len_bytes = CONTENT_LENGTHS[write_size];
             cl_len = cl_len_bytes.length;
         } else {
@@ -371,6 +632,7 @@ public class HttpCodec extends ProtocolCodec {
                 buf = ch.alloc().allocate(len);
             }
         }
+        int start = buf.absPos();
         buf.put(head_bytes);
         buf.put(cl_len_bytes, 0, cl_len);
         if (conn_bytes != null) {
@@ -379,8 +641,10 @@ public class HttpCodec extends ProtocolCodec {
         if (type_bytes != null) {
             buf.put(type_bytes);
         }
+        int dateIndex = -1;
         if (date_bytes != null) {
             buf.put(date_bytes);
+            dateIndex = buf.absPos() - start - 29;
         }
         buf.putByte(R);
         buf.putByte(N);
@@ -389,22 +653,86 @@ public class HttpCodec extends ProtocolCodec {
         }
         buf.putByte(R);
         buf.putByte(N);
+        int headLen = buf.absPos() - start;
+        boolean cache = f.isCacheable() && contentBufs == null && f.getStatusId() == 200
+                && f.getConnectionId() == HttpConnection.KEEP_ALIVE.getId();
         if (write_size > 0) {
             if (isArray) {
-                buf.put(contentArray);
+                buf.put(contentArray, 0, write_size);
             } else {
                 if (inline) {
                     att.setLastWriteBuf(ByteBuf.empty());
                 }
-                ch.write(buf.flip());
-                ch.write(contentBuf);
+                buf.flip();
+                if (cache) {
+                    putCache(ch, f, buf, start, headLen, contentBuf, dateIndex);
+                }
+                ch.write(buf);
+                if (contentBufs != null) {
+                    for (ByteBuf b : contentBufs) {
+                        ch.write(b);
+                    }
+                } else {
+                    ch.write(contentBuf);
+                }
                 return null;
             }
         }
         buf.flip();
+        if (cache) {
+            putCache(ch, f, buf, start, headLen, null, dateIndex);
+        }
         return offer ? buf : null;
     }
 
+    private ByteBuf encode_chunk(Channel ch, HttpChunkFrame f) {
+        if (inline) {
+            // do not append the following responses before the chunks
+            ((HttpAttachment) ch.getAttachment()).setLastWriteBuf(ByteBuf.empty());
+        }
+        Object content = f.getContent();
+        int end_len = f.isLast() ? CHUNK_END.length : 0;
+        if (content instanceof ByteBuf) {
+            ByteBuf data = ((ByteBuf) content).flip();
+            int size = data.limit();
+            if (size > 0) {
+                ByteBuf head = ch.alloc().allocate(10);
+                putHex(head, size);
+                head.putByte(R);
+                head.putByte(N);
+                ch.write(head.flip());
+                ch.write(data);
+                ByteBuf tail = ch.alloc().allocate(2 + end_len);
+                tail.putByte(R);
+                tail.putByte(N);
+                if (end_len > 0) {
+                    tail.put(CHUNK_END);
+                }
+                return tail.flip();
+            }
+            data.release();
+            content = null;
+        }
+        byte[] data = (byte[]) content;
+        int size = data == null ? 0 : data.length;
+        if (size == 0 && end_len == 0) {
+            return null;
+        }
+        ByteBuf buf = ch.alloc().allocate(size == 0 ? end_len : size + 12 + end_len);
+        if (size > 0) {
+            putHex(buf, size);
+            buf.putByte(R);
+            buf.putByte(N);
+            buf.put(data);
+            buf.putByte(R);
+            buf.putByte(N);
+        }
+        if (end_len > 0) {
+            buf.put(CHUNK_END);
+        }
+        return buf.flip();
+    }
+
     private void putHeaders(ByteBuf buf, List<byte[]> encode_bytes_array, int header_size) {
         int j = 0;
         for (int i = 0; i < header_size; i++) {
@@ -421,6 +749,14 @@ public class HttpCodec extends ProtocolCodec {
         return blimit;
     }
 
+    public int getCompressLevel() {
+        return compressLevel;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
     public int getHeaderLimit() {
         return hlimit;
     }
@@ -429,6 +765,33 @@ public class HttpCodec extends ProtocolCodec {
         return fcache;
     }
 
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public long getSpillLimit() {
+        return spillLimit;
+    }
+
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    private boolean isSpill(long size) {
+        return spillThreshold > 0 && size > Math.min(spillThreshold, blimit);
+    }
+
+    /**
+     * @return true if the body (chunked or with content length) will be
+     * delivered by {@link HttpChunkFrame}s as it arrives, no body limit in this
+     * mode, otherwise the body will be aggregated into the content of the frame
+     * (limited by the body limit) or spilled to a temp file, chunked body is not
+     * supported in lite mode
+     */
+    public boolean isStreamBody() {
+        return streamBody;
+    }
+
     @Override
     public String getProtocolId() {
         return "HTTP1.1";
@@ -439,7 +802,23 @@ public class HttpCodec extends ProtocolCodec {
         return 0;
     }
 
+    // the encoding accepted by the request, if the content is worth to compress
+    private int negotiate(HttpFrame f) {
+        if (!f.getContentType().isCompressible()) {
+            return HttpCompression.NONE;
+        }
+        IntMap<byte[]> headers = f.getResponseHeaders();
+        if (headers != null && headers.get(Content_Encoding.getId()) != null) {
+            // already encoded, e.g. a precompressed static file
+            return HttpCompression.NONE;
+        }
+        return HttpCompression.negotiate(f.getRequestHeader(Accept_Encoding));
+    }
+
     int onHeaderReadComplete(HttpFrame f) throws IOException {
+        if (isChunked(f)) {
+            return decode_state_chunk_size;
+        }
         int contentLength = 0;
         String clength = f.getRequestHeader(Content_Length);
         String ctype = f.getRequestHeader(Content_Type);
@@ -451,9 +830,7 @@ public class HttpCodec extends ProtocolCodec {
         if (contentLength < 1) {
             return decode_state_complate;
         } else {
-            if (contentLength > blimit) {
-                throw OVER_LIMIT;
-            }
+            checkBodyLimit(contentLength);
             return decode_state_body;
         }
     }
@@ -495,6 +872,41 @@ public class HttpCodec extends ProtocolCodec {
         }
     }
 
+    /**
+     * parse the query string, the names and the values are url decoded (utf-8)
+     * in place
+     */
+    static void parse_query(Map<String, String> map, byte[] b, int off, int end) {
+        for (int i = off; i < end;) {
+            int e = find(b, '&', i, end);
+            int kv = find(b, '=', i, e);
+            if (kv > i) {
+                map.put(url_decode(b, i, kv), kv == e ? "" : url_decode(b, kv + 1, e));
+            }
+            i = e + 1;
+        }
+    }
+
+    // the head starts at the start of the buf, the body follows it if null
+    private static void putCache(Channel ch, HttpFrame f, ByteBuf buf, int start, int headLen,
+            ByteBuf body, int dateIndex) {
+        int pos = buf.absPos();
+        buf.absPos(start);
+        f.getCacheHandle().put(ch, f, buf, headLen, body, dateIndex);
+        buf.absPos(pos);
+    }
+
+    private void openSpill(HttpAttachment att) throws IOException {
+        File file = File.createTempFile("baseio-", ".body", spillDirectory);
+        try {
+            att.spillChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        att.spillFile = file;
+    }
+
     protected void parse_line_one(HttpFrame f, CharSequence line) {
         if (line.charAt(0) == 'G' && line.charAt(1) == 'E' && line.charAt(2) == 'T') {
             f.setMethod(HttpMethod.GET);
@@ -508,17 +920,102 @@ public class HttpCodec extends ProtocolCodec {
     protected void parseRequestURL(HttpFrame f, int skip, CharSequence line) {
         int index = Util.indexOf(line, '?');
         int lastSpace = Util.lastIndexOf(line, ' ');
+        int end = index > -1 ? index : lastSpace;
         if (index > -1) {
-            parse_kv(f.getRequestParams(), line, index + 1, lastSpace, '=', '&');
-            f.setRequestURL((String) line.subSequence(skip, index));
+            f.setQuery(line, index + 1, lastSpace);
+        }
+        if (router != null) {
+            // the routed handler may not need the url string
+            router.route(f, line, skip, end);
+            f.setRequestURL(line, skip, end);
         } else {
-            f.setRequestURL((String) line.subSequence(skip, lastSpace));
+            f.setRequestURL((String) line.subSequence(skip, end));
         }
     }
 
+    /**
+     * a streaming head frame is not pooled, it is still referred by the
+     * following {@link HttpChunkFrame}s
+     */
     @Override
     public void release(NioEventLoop eventLoop, Frame frame) {
-        eventLoop.release(FRAME_CACHE_KEY, frame);
+        if (frame instanceof HttpFrame && !((HttpFrame) frame).isStreaming()) {
+            eventLoop.release(FRAME_CACHE_KEY, frame);
+        }
+    }
+
+    void setBody(Channel ch, HttpFrame f, byte[] content) {
+        if (f.isForm()) {
+            // the text fields go to the request params on access, the content is
+            // kept for the file parts
+            f.setFormCharset(ch.getCharset());
+        }
+        f.setContent(content);
+    }
+
+    /**
+     * the level of the {@link Deflater}, 1 (fast) to 9 (small)
+     */
+    public void setCompressLevel(int compressLevel) {
+        checkNotRunning();
+        this.compressLevel = compressLevel;
+    }
+
+    /**
+     * compress the response (gzip or deflate, negotiated by Accept-Encoding) if
+     * the content is text and the size is not less than the threshold, 0 for
+     * never compress
+     */
+    public void setCompressThreshold(int compressThreshold) {
+        checkNotRunning();
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * match the request path by the router while decoding, the result is
+     * available by {@link HttpFrame#getRoute()}
+     */
+    public void setRouter(HttpRouter<?> router) {
+        checkNotRunning();
+        this.router = router;
+    }
+
+    /**
+     * the directory of the temp files, null for the default temp directory
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        checkNotRunning();
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * the max size of the body which spilled to the temp file, default 1g
+     */
+    public void setSpillLimit(long spillLimit) {
+        checkNotRunning();
+        this.spillLimit = spillLimit;
+    }
+
+    /**
+     * the body larger than the threshold (or the body limit) will be written to a
+     * temp file (see {@link HttpFrame#getBodyFile()}) instead of the memory, 0 for
+     * never spill
+     */
+    public void setSpillThreshold(int spillThreshold) {
+        checkNotRunning();
+        this.spillThreshold = spillThreshold;
+    }
+
+    public void setStreamBody(boolean streamBody) {
+        checkNotRunning();
+        this.streamBody = streamBody;
+    }
+
+    // the index of c in [p, end), end if not found
+    private static int find(byte[] b, int c, int p, int end) {
+        for (; p < end && b[p] != c; p++) {
+        }
+        return p;
     }
 
     private static int findN(ByteBuf src, int p) {
@@ -531,11 +1028,53 @@ public class HttpCodec extends ProtocolCodec {
         }
     }
 
+    private static void resetBody(HttpAttachment att) {
+        att.body = null;
+        att.bodyFrame = null;
+        att.bodyRemain = 0;
+        att.bodySize = 0;
+        att.bodyState = 0;
+    }
+
     @SuppressWarnings("unchecked")
     static List<byte[]> getEncodeBytesArray(FastThreadLocal l) {
         return (List<byte[]>) l.getList(encode_bytes_arrays_index);
     }
 
+    static boolean isChunked(HttpFrame f) {
+        String te = f.getReadHeader(Transfer_Encoding);
+        return te != null && te.endsWith("chunked");
+    }
+
+    private static int parse_chunk_size(CharSequence line) throws IOException {
+        int size = 0;
+        int i = 0;
+        for (int count = line.length(); i < count; i++) {
+            char c = line.charAt(i);
+            int v;
+            if (c >= '0' && c <= '9') {
+                v = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                v = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                v = c - 'A' + 10;
+            } else if (c == ';' || c == ' ' || c == '\t') {
+                // chunk extensions are ignored
+                break;
+            } else {
+                throw ILLEGAL_CHUNK;
+            }
+            if (size > (Integer.MAX_VALUE >> 4)) {
+                throw OVER_LIMIT;
+            }
+            size = (size << 4) | v;
+        }
+        if (i == 0) {
+            throw ILLEGAL_CHUNK;
+        }
+        return size;
+    }
+
     protected static String parseBoundary(String contentType) {
         int index = KMP_BOUNDARY.match(contentType);
         if (index != -1) {
@@ -546,49 +1085,42 @@ public class HttpCodec extends ProtocolCodec {
 
     private static boolean read_line(StringBuilder line, ByteBuf src, int length, int limit)
             throws IOException {
-        src.markP();
+        int p = src.absPos();
         int maybeRead = limit - length;
-        if (src.remaining() > maybeRead) {
-            int count = src.absPos() + maybeRead;
-            for (int i = src.absPos(); i < count; i++) {
-                byte b = src.absByte(i);
-                if (b == N) {
-                    int p = line.length() - 1;
-                    if (line.charAt(p) == R) {
-                        line.setLength(p);
-                    }
-                    src.absPos(i + 1);
-                    return true;
-                } else {
-                    line.append((char) (b & 0xff));
-                }
-            }
-            throw OVER_LIMIT;
-        } else {
-            int count = src.absPos() + src.remaining();
-            for (int i = src.absPos(); i < count; i++) {
-                byte b = src.absByte(i);
-                if (b == N) {
-                    int p = line.length() - 1;
-                    if (line.charAt(p) == R) {
-                        line.setLength(p);
-                    }
-                    src.absPos(i + 1);
-                    return true;
-                } else {
-                    line.append((char) (b & 0xff));
-                }
+        boolean over = src.remaining() > maybeRead;
+        int n = src.indexOf(N, p, over ? maybeRead : src.remaining());
+        if (n == -1) {
+            if (over) {
+                throw OVER_LIMIT;
             }
+            return false;
+        }
+        for (int i = p; i < n; i++) {
+            line.append((char) (src.absByte(i) & 0xff));
         }
-        src.resetP();
-        return false;
+        int e = line.length() - 1;
+        if (e >= 0 && line.charAt(e) == R) {
+            line.setLength(e);
+        }
+        src.absPos(n + 1);
+        return true;
     }
-    
+
     @Override
     protected Object newAttachment() {
         return new HttpAttachment();
     }
 
+    private static void putHex(ByteBuf buf, int v) {
+        int shift = 28;
+        for (; shift > 0 && (v >>> shift) == 0;) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            buf.putByte(HEX[(v >>> shift) & 0xf]);
+        }
+    }
+
     private static int read_line_range(ByteBuf src, int length, int limit) throws IOException {
         src.markP();
         int p;
@@ -608,6 +1140,31 @@ public class HttpCodec extends ProtocolCodec {
         return findN(src, p);
     }
 
+    private static void spill(HttpAttachment att, ByteBuf src, int len) throws IOException {
+        if (src.getNioBuffer() == null) {
+            // the unsafe buf has no nio buffer, copy it by a heap buffer
+            spillCopy(att, src, len);
+            return;
+        }
+        // the nio buffer of a direct buf shares the position with the buf
+        ByteBuffer nb = src.nioBuffer().duplicate();
+        nb.limit(nb.position() + len);
+        write(att.spillChannel, nb);
+        src.skip(len);
+    }
+
+    private static void spillCopy(HttpAttachment att, ByteBuf src, int len) throws IOException {
+        byte[] tmp = new byte[Math.min(len, 1024 * 8)];
+        ByteBuffer nb = ByteBuffer.wrap(tmp);
+        for (int remain = len; remain > 0;) {
+            int read = Math.min(remain, tmp.length);
+            src.get(tmp, 0, read);
+            nb.clear().limit(read);
+            write(att.spillChannel, nb);
+            remain -= read;
+        }
+    }
+
     private static boolean startWith(ByteBuf src, int ps, int pe, byte[] match) {
         if (pe - ps < match.length) {
             return false;
@@ -620,4 +1177,41 @@ public class HttpCodec extends ProtocolCodec {
         return true;
     }
 
+    static int hex(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        c |= 0x20;
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    // decode the %xx and '+' of [p, end) in place
+    private static String url_decode(byte[] b, int p, int end) {
+        int w = p;
+        for (int i = p; i < end; i++) {
+            int c = b[i];
+            if (c == '+') {
+                c = ' ';
+            } else if (c == '%' && i + 2 < end) {
+                int h = hex(b[i + 1]);
+                int l = hex(b[i + 2]);
+                if (h != -1 && l != -1) {
+                    c = (h << 4) | l;
+                    i += 2;
+                }
+            }
+            b[w++] = (byte) c;
+        }
+        return new String(b, p, w - p, StandardCharsets.UTF_8);
+    }
+
+    private static void write(FileChannel fc, ByteBuffer src) throws IOException {
+        for (; src.hasRemaining();) {
+            fc.write(src);
+        }
+    }
+
 }
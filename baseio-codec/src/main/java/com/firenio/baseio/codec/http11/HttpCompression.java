@@ -0,0 +1,266 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.codec.http11;
+
+import static com.firenio.baseio.common.ByteUtil.b;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.firenio.baseio.component.FastThreadLocal;
+import com.firenio.baseio.component.NioEventLoop;
+
+/**
+ * gzip and deflate of the response body, the deflaters are pooled in the thread
+ * local of the event loop, so no deflater will be created per response, the
+ * compressor of the other threads is not pooled and ended by {@link #release()}
+ *
+ * @author wangkai
+ *
+ */
+public final class HttpCompression {
+
+    public static final byte[] ACCEPT_ENCODING = b("Accept-Encoding");
+    public static final int    DEFLATE         = 2;
+    public static final byte[] DEFLATE_BYTES   = b("deflate");
+    public static final int    GZIP            = 1;
+    public static final byte[] GZIP_BYTES      = b("gzip");
+    public static final int    NONE            = 0;
+    static final byte[]        GZIP_HEADER     = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0,
+            (byte) 0xff };
+    static final int           local_index     = FastThreadLocal.nextIndexedVariablesIndex();
+
+    private byte[]             buf             = new byte[1024 * 8];
+    private final CRC32        crc             = new CRC32();
+    // zlib wrapped for deflate, created on the first use
+    private Deflater           deflater;
+    // raw for gzip, created on the first use
+    private Deflater           gzipDeflater;
+    private final boolean      pooled;
+
+    private HttpCompression(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * compress the data into the buffer of this compressor, the result is valid
+     * until the next compress of the same thread
+     *
+     * @return the length of the compressed data in {@link #getBuffer()}
+     */
+    public int compress(int encoding, int level, byte[] src, int off, int len) {
+        int p = 0;
+        Deflater deflater;
+        if (encoding == GZIP) {
+            deflater = gzipDeflater;
+            if (deflater == null) {
+                deflater = gzipDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            }
+            ensure(GZIP_HEADER.length);
+            System.arraycopy(GZIP_HEADER, 0, buf, 0, GZIP_HEADER.length);
+            p = GZIP_HEADER.length;
+        } else {
+            deflater = this.deflater;
+            if (deflater == null) {
+                deflater = this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            }
+        }
+        deflater.setLevel(level);
+        deflater.setInput(src, off, len);
+        deflater.finish();
+        for (;;) {
+            p += deflater.deflate(buf, p, buf.length - p);
+            if (deflater.finished()) {
+                break;
+            }
+            ensure(p + 1024);
+        }
+        deflater.reset();
+        if (encoding == GZIP) {
+            crc.reset();
+            crc.update(src, off, len);
+            ensure(p + 8);
+            p = putIntLE(buf, p, (int) crc.getValue());
+            p = putIntLE(buf, p, len);
+        }
+        return p;
+    }
+
+    private void ensure(int size) {
+        if (buf.length < size) {
+            buf = Arrays.copyOf(buf, Math.max(size, buf.length * 2));
+        }
+    }
+
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * @return the compressor of the current event loop, or a new one which should
+     * be released by {@link #release()} if the current thread is not an event
+     * loop
+     */
+    public static HttpCompression get() {
+        if (!NioEventLoop.inIoThread()) {
+            return new HttpCompression(false);
+        }
+        FastThreadLocal l = FastThreadLocal.get();
+        HttpCompression c = (HttpCompression) l.getIndexedVariable(local_index);
+        if (c == null) {
+            c = new HttpCompression(true);
+            l.setIndexedVariable(local_index, c);
+        }
+        return c;
+    }
+
+    /**
+     * gzip the data, e.g. precompress a static file
+     */
+    public static byte[] gzip(byte[] data) {
+        HttpCompression c = get();
+        try {
+            int len = c.compress(GZIP, Deflater.BEST_COMPRESSION, data, 0, data.length);
+            return Arrays.copyOf(c.getBuffer(), len);
+        } finally {
+            c.release();
+        }
+    }
+
+    /**
+     * @return the encoding (GZIP or DEFLATE) of the highest q-value in the
+     * Accept-Encoding, gzip is preferred if the q-values are equal, "*" matches
+     * the codings not listed. NONE if no coding is accepted, or the identity is
+     * preferred, the identity is sent even if it is refused by "identity;q=0"
+     */
+    public static int negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return NONE;
+        }
+        // the q-values in thousandths, -1 if not listed
+        int gzip = -1;
+        int deflate = -1;
+        int identity = -1;
+        int any = -1;
+        int len = acceptEncoding.length();
+        for (int i = 0; i < len;) {
+            int e = acceptEncoding.indexOf(',', i);
+            if (e == -1) {
+                e = len;
+            }
+            int p = acceptEncoding.indexOf(';', i);
+            int ne = p == -1 || p > e ? e : p;
+            String name = acceptEncoding.substring(i, ne).trim();
+            int q = ne == e ? 1000 : parseQ(acceptEncoding, ne, e);
+            i = e + 1;
+            if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+                gzip = Math.max(gzip, q);
+            } else if ("deflate".equalsIgnoreCase(name)) {
+                deflate = Math.max(deflate, q);
+            } else if ("identity".equalsIgnoreCase(name)) {
+                identity = q;
+            } else if ("*".equals(name)) {
+                any = q;
+            }
+        }
+        if (gzip == -1) {
+            gzip = any;
+        }
+        if (deflate == -1) {
+            deflate = any;
+        }
+        int best = Math.max(gzip, deflate);
+        if (best <= 0 || best < identity) {
+            return NONE;
+        }
+        return gzip == best ? GZIP : DEFLATE;
+    }
+
+    /**
+     * parse the q-value of the params (;a=b;q=0.5) in [off, end), the invalid
+     * q-value is treated as 0
+     *
+     * @return the q-value in thousandths, 1000 if no q-value
+     */
+    static int parseQ(String s, int off, int end) {
+        for (int i = off; i < end;) {
+            int e = s.indexOf(';', i + 1);
+            if (e == -1 || e > end) {
+                e = end;
+            }
+            String param = s.substring(i + 1, e).trim();
+            i = e;
+            if (param.length() < 2 || (param.charAt(0) != 'q' && param.charAt(0) != 'Q')) {
+                continue;
+            }
+            String v = param.substring(1).trim();
+            if (v.isEmpty() || v.charAt(0) != '=') {
+                continue;
+            }
+            v = v.substring(1).trim();
+            if (v.isEmpty() || v.length() > 5) {
+                return 0;
+            }
+            char c = v.charAt(0);
+            if (c != '0' && c != '1') {
+                return 0;
+            }
+            int q = (c - '0') * 1000;
+            if (v.length() > 1) {
+                if (v.charAt(1) != '.') {
+                    return 0;
+                }
+                for (int j = 2, m = 100; j < v.length(); j++, m /= 10) {
+                    char d = v.charAt(j);
+                    if (d < '0' || d > '9') {
+                        return 0;
+                    }
+                    q += (d - '0') * m;
+                }
+            }
+            return Math.min(q, 1000);
+        }
+        return 1000;
+    }
+
+    private static int putIntLE(byte[] buf, int p, int v) {
+        buf[p++] = (byte) v;
+        buf[p++] = (byte) (v >>> 8);
+        buf[p++] = (byte) (v >>> 16);
+        buf[p++] = (byte) (v >>> 24);
+        return p;
+    }
+
+    /**
+     * end the deflaters if this compressor is not pooled by an event loop, the
+     * buffer is still valid after release
+     */
+    public void release() {
+        if (pooled) {
+            return;
+        }
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (gzipDeflater != null) {
+            gzipDeflater.end();
+            gzipDeflater = null;
+        }
+    }
+
+}
@@ -67,15 +67,18 @@ public class HttpContentType {
         websocket = add("WebSocket");
     }
 
-    private final int    id;
+    private final boolean compressible;
 
-    private final String value;
+    private final int     id;
 
-    private final byte[] line;
+    private final String  value;
+
+    private final byte[]  line;
 
     private HttpContentType(int id, String value) {
         this.id = id;
         this.value = value;
+        this.compressible = isCompressible(value);
         if (Util.isNullOrBlank(value)) {
             this.line = null;
         } else {
@@ -101,8 +104,24 @@ public class HttpContentType {
         return value;
     }
 
+    /**
+     * @return true if the content is text, worth to be compressed
+     */
+    public boolean isCompressible() {
+        return compressible;
+    }
+
     public static HttpContentType get(int index) {
         return z_enums[index];
     }
 
+    private static boolean isCompressible(String value) {
+        if (value == null) {
+            return false;
+        }
+        String v = value.toLowerCase();
+        return v.startsWith("text/") || v.contains("json") || v.contains("javascript")
+                || v.contains("xml");
+    }
+
 }
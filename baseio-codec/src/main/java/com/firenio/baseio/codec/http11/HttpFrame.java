@@ -20,15 +20,25 @@ import static com.firenio.baseio.codec.http11.HttpHeader.Sec_WebSocket_Accept;
 import static com.firenio.baseio.codec.http11.HttpHeader.Sec_WebSocket_Key;
 import static com.firenio.baseio.codec.http11.HttpHeader.Upgrade;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.codec.http11.HttpRouter.Route;
+import com.firenio.baseio.codec.http11.MultipartParser.ParamHandler;
+import com.firenio.baseio.codec.http11.MultipartParser.PartHandler;
 import com.firenio.baseio.collection.IntMap;
 import com.firenio.baseio.common.Cryptos;
 import com.firenio.baseio.common.Util;
 import com.firenio.baseio.component.Channel;
 import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.log.Logger;
+import com.firenio.baseio.log.LoggerFactory;
 
 /**
  * 
@@ -38,19 +48,61 @@ import com.firenio.baseio.component.Frame;
  */
 public class HttpFrame extends Frame {
 
+    static final Logger         logger          = LoggerFactory.getLogger(HttpFrame.class);
+
+    private File                bodyFile;
+    private boolean             cacheable;
+    private File                cacheFile;
+    private HttpCacheHandle     cacheHandle;
+    private HttpCacheHandle.Key cacheKey;
+    private boolean             chunked;
     private int                 connection      = HttpConnection.KEEP_ALIVE.getId();
     private int                 contentLength;
     private int                 contentType     = HttpContentType.text_plain_utf8.getId();
     private byte[]              date;
     private int                 decodeState;
+    // the charset of the form fields in the content, null if none or parsed
+    private Charset             form_charset;
     private int                 headerLength;
+    // the raw values of the read headers, become strings on access
+    private byte[]              header_bytes;
+    private int                 header_bytes_size;
+    // [offset, length + 1] of the value, indexed by the header id
+    private int[]               header_views;
+    private int                 header_views_count;
     private boolean             isForm;
     private int                 method;
     private Map<String, String> params          = new HashMap<>();
+    // the raw query string, parsed into the params on the first access
+    private byte[]              query_bytes;
+    private int                 query_size;
     private IntMap<String>      request_headers = new IntMap<>(16);
     private String              requestURL;
     private IntMap<byte[]>      response_headers;
+    private Route<?>            route;
+    private int[]               route_captures;
+    private String[]            route_values;
     private int                 status          = HttpStatus.C200.getStatus();
+    private boolean             streaming;
+    // the raw url bytes, the requestURL is created on the first access
+    private byte[]              url_bytes;
+    private int                 url_size        = -1;
+
+    private byte[] ensureQuery(int len) {
+        byte[] bytes = query_bytes;
+        if (bytes == null || bytes.length < len) {
+            bytes = query_bytes = new byte[Math.max(64, len)];
+        }
+        return bytes;
+    }
+
+    private byte[] ensureURL(int len) {
+        byte[] bytes = url_bytes;
+        if (bytes == null || bytes.length < len) {
+            bytes = url_bytes = new byte[Math.max(64, len)];
+        }
+        return bytes;
+    }
 
     public String getBoundary() {
         if (isForm) {
@@ -59,6 +111,26 @@ public class HttpFrame extends Frame {
         return null;
     }
 
+    /**
+     * @return the temp file which the request body spilled to, the handler should
+     * move or delete it
+     */
+    public File getBodyFile() {
+        return bodyFile;
+    }
+
+    File getCacheFile() {
+        return cacheFile;
+    }
+
+    HttpCacheHandle getCacheHandle() {
+        return cacheHandle;
+    }
+
+    HttpCacheHandle.Key getCacheKey() {
+        return cacheKey;
+    }
+
     public HttpConnection getConnection() {
         return HttpConnection.get(connection);
     }
@@ -92,14 +164,6 @@ public class HttpFrame extends Frame {
         return getRequestURL();
     }
 
-    HttpHeader getHeader(String name) {
-        HttpHeader header = HttpHeader.ALL.get(name);
-        if (header == null) {
-            return HttpHeader.ALL.get(name.toLowerCase());
-        }
-        return header;
-    }
-
     public int getHeaderLength() {
         return headerLength;
     }
@@ -116,23 +180,51 @@ public class HttpFrame extends Frame {
         return method;
     }
 
+    // the raw query, valid before the params are parsed
+    byte[] getQueryBytes() {
+        return query_bytes;
+    }
+
+    int getQuerySize() {
+        return query_size;
+    }
+
+    String getReadHeader(HttpHeader name) {
+        return getRequestHeader(name.getId());
+    }
+
     public String getRequestHeader(HttpHeader name) {
-        return request_headers.get(name.getId());
+        return getRequestHeader(name.getId());
     }
 
     public String getRequestHeader(int name) {
-        return request_headers.get(name);
+        String value = request_headers.get(name);
+        if (value == null && header_views_count > 0) {
+            return readHeaderValue(name);
+        }
+        return value;
     }
 
     public IntMap<String> getRequestHeaders() {
+        if (header_views_count > 0) {
+            for (int i = 0, size = HttpHeader.size(); i < size; i++) {
+                readHeaderValue(i);
+            }
+        }
         return request_headers;
     }
 
     public String getRequestParam(String key) {
-        return params.get(key);
+        return getRequestParams().get(key);
     }
 
+    /**
+     * the query string and the form fields are parsed on the first access
+     */
     public Map<String, String> getRequestParams() {
+        if (query_size > 0 || form_charset != null) {
+            parseParams();
+        }
         return params;
     }
 
@@ -157,6 +249,10 @@ public class HttpFrame extends Frame {
      */
 
     public String getRequestURL() {
+        if (url_size != -1) {
+            requestURL = new String(url_bytes, 0, url_size, StandardCharsets.ISO_8859_1);
+            url_size = -1;
+        }
         return requestURL;
     }
 
@@ -164,6 +260,34 @@ public class HttpFrame extends Frame {
         return response_headers;
     }
 
+    /**
+     * @return the route matched by the router of the codec, null if no router or
+     * not matched
+     */
+    public Route<?> getRoute() {
+        return route;
+    }
+
+    int[] getRouteCaptures(int len) {
+        int[] captures = route_captures;
+        if (captures == null || captures.length < len) {
+            captures = route_captures = new int[len];
+        }
+        return captures;
+    }
+
+    /**
+     * @return the param captured by the route (url decoded), e.g. id of
+     * /user/{id}
+     */
+    public String getRouteParam(String name) {
+        if (route == null) {
+            return null;
+        }
+        int i = route.getParamIndex(name);
+        return i == -1 ? null : route_values[i];
+    }
+
     public HttpStatus getStatus() {
         return HttpStatus.get(status);
     }
@@ -185,6 +309,21 @@ public class HttpFrame extends Frame {
         this.headerLength += length;
     }
 
+    /**
+     * @return true if the response will be stored by the {@link HttpCacheHandle}
+     */
+    public boolean isCacheable() {
+        return cacheable && cacheHandle != null;
+    }
+
+    /**
+     * @return true if the response will be encoded with Transfer-Encoding:
+     * chunked, the body should be written by {@link HttpChunkFrame}s
+     */
+    public boolean isChunked() {
+        return chunked;
+    }
+
     public boolean isForm() {
         return isForm;
     }
@@ -193,18 +332,90 @@ public class HttpFrame extends Frame {
         return method == HttpMethod.GET.getId();
     }
 
+    /**
+     * @return true if the body of the request will be delivered by the
+     * following {@link HttpChunkFrame}s, the frame is referred by the chunks
+     * and will not be pooled by {@link HttpCodec#release}
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    private void parseParams() {
+        if (query_size > 0) {
+            // the query is decoded in place, the raw bytes are not needed after
+            HttpCodec.parse_query(params, query_bytes, 0, query_size);
+            query_size = 0;
+        }
+        Charset charset = form_charset;
+        if (charset != null) {
+            form_charset = null;
+            String boundary = getBoundary();
+            byte[] content = getArrayContent();
+            if (boundary != null && content != null) {
+                PartHandler handler = new ParamHandler(params, charset);
+                try {
+                    new MultipartParser(boundary, handler).parse(ByteBuf.wrap(content));
+                } catch (IOException e) {
+                    // the fields before the broken part are kept, the content is
+                    // still available for the handler
+                    logger.warn("broken multipart body of " + getRequestURL(), e);
+                }
+            }
+        }
+    }
+
+    // move the view of the read header into the header map
+    private String readHeaderValue(int name) {
+        int[] views = header_views;
+        int i = name << 1;
+        int len = views[i + 1] - 1;
+        if (len < 0) {
+            return null;
+        }
+        String value = new String(header_bytes, views[i], len, StandardCharsets.ISO_8859_1);
+        views[i + 1] = 0;
+        header_views_count--;
+        request_headers.put(name, value);
+        return value;
+    }
+
+    private void removeHeaderView(int name) {
+        if (header_views_count > 0 && header_views[(name << 1) + 1] != 0) {
+            header_views[(name << 1) + 1] = 0;
+            header_views_count--;
+        }
+    }
+
     public HttpFrame reset() {
         this.requestURL = null;
+        this.url_size = -1;
+        this.bodyFile = null;
+        this.cacheable = false;
+        this.cacheFile = null;
+        this.cacheHandle = null;
+        this.cacheKey = null;
         this.method = 0;
         this.contentLength = 0;
         this.headerLength = 0;
         this.isForm = false;
+        this.chunked = false;
+        this.streaming = false;
         this.contentType = HttpContentType.text_plain_utf8.getId();
         this.connection = HttpConnection.KEEP_ALIVE.getId();
         this.status = HttpStatus.C200.getStatus();
         this.decodeState = HttpCodec.decode_state_line_one;
         this.params.clear();
+        this.route = null;
+        this.route_values = null;
+        this.query_size = 0;
+        this.form_charset = null;
         this.request_headers.clear();
+        this.header_bytes_size = 0;
+        if (header_views_count > 0) {
+            Arrays.fill(header_views, 0);
+            header_views_count = 0;
+        }
         if (response_headers != null) {
             response_headers.clear();
         }
@@ -212,6 +423,28 @@ public class HttpFrame extends Frame {
         return this;
     }
 
+    protected void setBodyFile(File bodyFile) {
+        this.bodyFile = bodyFile;
+    }
+
+    /**
+     * store the encoded response by the {@link HttpCacheHandle} (if any), the
+     * cached response will be evicted if the file (may be null) modified
+     */
+    public void setCacheable(File file) {
+        this.cacheable = true;
+        this.cacheFile = file;
+    }
+
+    void setCacheHandle(HttpCacheHandle cacheHandle, HttpCacheHandle.Key cacheKey) {
+        this.cacheHandle = cacheHandle;
+        this.cacheKey = cacheKey;
+    }
+
+    public void setChunked(boolean chunked) {
+        this.chunked = chunked;
+    }
+
     public void setConnection(HttpConnection connection) {
         this.connection = connection.getId();
     }
@@ -236,6 +469,14 @@ public class HttpFrame extends Frame {
         this.isForm = isForm;
     }
 
+    /**
+     * the text fields of the multipart content will be parsed into the params
+     * on the first access
+     */
+    void setFormCharset(Charset charset) {
+        this.form_charset = charset;
+    }
+
     protected void setHeaderLength(int headerLength) {
         this.headerLength = headerLength;
     }
@@ -244,27 +485,97 @@ public class HttpFrame extends Frame {
         this.method = method.getId();
     }
 
-    void setReadHeader(String name, String value) {
-        HttpHeader header = getHeader(name);
-        if (header != null) {
-            request_headers.put(header.getId(), value);
+    /**
+     * keep the raw value of the header, no string will be created until access
+     */
+    void setReadHeader(HttpHeader header, ByteBuf src, int absPos, int len) {
+        byte[] bytes = header_bytes;
+        int size = header_bytes_size;
+        if (bytes == null) {
+            bytes = header_bytes = new byte[Math.max(256, len)];
+            header_views = new int[HttpHeader.size() << 1];
+        } else if (bytes.length - size < len) {
+            bytes = header_bytes = Arrays.copyOf(bytes, Math.max(size + len, bytes.length * 2));
         }
+        int pos = src.absPos();
+        src.absPos(absPos);
+        src.get(bytes, size, len);
+        src.absPos(pos);
+        int i = header.getId() << 1;
+        if (header_views[i + 1] == 0) {
+            header_views_count++;
+        }
+        header_views[i] = size;
+        header_views[i + 1] = len + 1;
+        header_bytes_size = size + len;
+        request_headers.remove(header.getId());
     }
 
     public void setRequestHeader(HttpHeader header, String value) {
+        removeHeaderView(header.getId());
         this.request_headers.put(header.getId(), value);
     }
 
     public void setRequestHeaders(IntMap<String> requestHeaders) {
+        if (header_views_count > 0) {
+            Arrays.fill(header_views, 0);
+            header_views_count = 0;
+        }
         this.request_headers = requestHeaders;
     }
 
     public void setRequestParams(Map<String, String> params) {
         this.params = params;
+        this.query_size = 0;
+        this.form_charset = null;
+    }
+
+    /**
+     * keep the raw query string (without '?'), no string will be created until
+     * the params are accessed
+     */
+    void setQuery(ByteBuf src, int absPos, int len) {
+        byte[] bytes = ensureQuery(len);
+        int pos = src.absPos();
+        src.absPos(absPos);
+        src.get(bytes, 0, len);
+        src.absPos(pos);
+        query_size = len;
+    }
+
+    void setQuery(CharSequence line, int start, int end) {
+        int len = end - start;
+        byte[] bytes = ensureQuery(len);
+        for (int i = 0; i < len; i++) {
+            bytes[i] = (byte) line.charAt(start + i);
+        }
+        query_size = len;
     }
 
     public void setRequestURL(String url) {
         this.requestURL = url;
+        this.url_size = -1;
+    }
+
+    // keep the raw url, the string is created by getRequestURL
+    void setRequestURL(ByteBuf src, int absPos, int len) {
+        byte[] bytes = ensureURL(len);
+        int pos = src.absPos();
+        src.absPos(absPos);
+        src.get(bytes, 0, len);
+        src.absPos(pos);
+        this.requestURL = null;
+        this.url_size = len;
+    }
+
+    void setRequestURL(CharSequence line, int start, int end) {
+        int len = end - start;
+        byte[] bytes = ensureURL(len);
+        for (int i = 0; i < len; i++) {
+            bytes[i] = (byte) line.charAt(start + i);
+        }
+        this.requestURL = null;
+        this.url_size = len;
     }
 
     public void setResponseHeader(HttpHeader name, byte[] value) {
@@ -294,13 +605,22 @@ public class HttpFrame extends Frame {
         if (params == null) {
             params = new HashMap<>();
         }
-        this.params.put(key, value);
+        getRequestParams().put(key, value);
+    }
+
+    void setRoute(Route<?> route, String[] values) {
+        this.route = route;
+        this.route_values = values;
     }
 
     public void setStatus(HttpStatus status) {
         this.status = status.getStatus();
     }
 
+    protected void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     public String toString() {
         return getRequestURL();
     }
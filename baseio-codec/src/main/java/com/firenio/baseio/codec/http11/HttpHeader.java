@@ -18,6 +18,8 @@ package com.firenio.baseio.codec.http11;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.firenio.baseio.buffer.ByteBuf;
+
 public enum HttpHeader {
 
     Accept("Accept"), //
@@ -41,11 +43,14 @@ public enum HttpHeader {
     Expires("Expires"), // 
     Host("Host"), // 
     If_Modified_Since("If-Modified-Since"), // 
+    If_None_Match("If-None-Match"), // 
+    If_Range("If-Range"), // 
     Last_Modified("Last-Modified"), // 
     Location("Location"), // 
     Pragma("Pragma"), // 
     Proxy_Authenticate("Proxy-Authenticate"), // 
     Proxy_Connection("Proxy-Connection"), // 
+    Range("Range"), // 
     Referer("Referer"), // 
     Refresh("Refresh"), // 
     Retry_After("Retry-After"), // 
@@ -68,6 +73,10 @@ public enum HttpHeader {
 
     public static final Map<String, HttpHeader> ALL = new HashMap<>();
     private static final HttpHeader[]           enums;
+    // perfect hash table of the lowercase names, see get(ByteBuf, int, int)
+    private static final int                    hash_mask;
+    private static final int                    hash_seed;
+    private static final HttpHeader[]           hash_table;
     static {
         try {
             enums = new HttpHeader[values().length];
@@ -76,6 +85,24 @@ public enum HttpHeader {
                 ALL.put(value.getKey(), value);
                 ALL.put(value.getLowercase(), value);
             }
+            // find a seed which makes no collision
+            int mask = Integer.highestOneBit(enums.length) * 4 - 1;
+            HttpHeader[] table = null;
+            int seed = 0;
+            for (; table == null;) {
+                for (seed = 1; seed < 1 << 16; seed++) {
+                    table = perfectHashTable(seed, mask);
+                    if (table != null) {
+                        break;
+                    }
+                }
+                if (table == null) {
+                    mask = (mask << 1) | 1;
+                }
+            }
+            hash_mask = mask;
+            hash_seed = seed;
+            hash_table = table;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -120,4 +147,58 @@ public enum HttpHeader {
         return enums[index];
     }
 
+    /**
+     * find the header by the name in src (case insensitive) without any
+     * allocation
+     *
+     * @return the header or null if unknown
+     */
+    public static HttpHeader get(ByteBuf src, int absPos, int len) {
+        int h = 0;
+        int seed = hash_seed;
+        for (int i = 0; i < len; i++) {
+            h = h * seed + (src.absByte(absPos + i) | 0x20);
+        }
+        HttpHeader header = hash_table[mix(h) & hash_mask];
+        if (header == null || header.bytes.length != len) {
+            return null;
+        }
+        String lowercase = header.lowercase;
+        for (int i = 0; i < len; i++) {
+            int c = src.absByte(absPos + i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 32;
+            }
+            if (c != lowercase.charAt(i)) {
+                return null;
+            }
+        }
+        return header;
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static HttpHeader[] perfectHashTable(int seed, int mask) {
+        HttpHeader[] table = new HttpHeader[mask + 1];
+        for (HttpHeader header : enums) {
+            String name = header.lowercase;
+            int h = 0;
+            for (int i = 0; i < name.length(); i++) {
+                h = h * seed + (name.charAt(i) | 0x20);
+            }
+            int index = mix(h) & mask;
+            if (table[index] != null) {
+                return null;
+            }
+            table[index] = header;
+        }
+        return table;
+    }
+
+    static int size() {
+        return enums.length;
+    }
+
 }
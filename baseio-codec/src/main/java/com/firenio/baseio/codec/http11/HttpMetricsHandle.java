@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.codec.http11;
+
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.IoEventHandle;
+import com.firenio.baseio.metrics.MetricsRegistry;
+
+/**
+ * response the metrics of the registry as plain text when the request url
+ * equals the path (default "/metrics"), other requests go to the next handle
+ *
+ * @author wangkai
+ *
+ */
+public class HttpMetricsHandle extends IoEventHandle {
+
+    private final IoEventHandle   next;
+    private final String          path;
+    private final MetricsRegistry registry;
+
+    public HttpMetricsHandle(MetricsRegistry registry, IoEventHandle next) {
+        this(registry, "/metrics", next);
+    }
+
+    public HttpMetricsHandle(MetricsRegistry registry, String path, IoEventHandle next) {
+        this.registry = registry;
+        this.path = path;
+        this.next = next;
+    }
+
+    @Override
+    public void accept(Channel ch, Frame frame) throws Exception {
+        if (frame instanceof HttpFrame) {
+            HttpFrame f = (HttpFrame) frame;
+            if (path.equals(f.getRequestURL())) {
+                f.setContentType(HttpContentType.text_plain_utf8);
+                f.setContent(registry.scrape().getBytes(ch.getCharset()));
+                ch.writeAndFlush(f);
+                ch.release(f);
+                return;
+            }
+            if (next == null) {
+                f.setStatus(HttpStatus.C404);
+                ch.writeAndFlush(f);
+                ch.release(f);
+                return;
+            }
+        }
+        if (next != null) {
+            next.accept(ch, frame);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(Channel ch, Frame frame, Exception ex) {
+        if (next == null) {
+            super.exceptionCaught(ch, frame, ex);
+        } else {
+            next.exceptionCaught(ch, frame, ex);
+        }
+    }
+
+    public IoEventHandle getNext() {
+        return next;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+}
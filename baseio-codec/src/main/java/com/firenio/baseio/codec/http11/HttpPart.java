@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.codec.http11;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * a part of the multipart/form-data body, see {@link MultipartParser}
+ *
+ * @author wangkai
+ *
+ */
+public class HttpPart {
+
+    private byte[]              content;
+    private String              contentType;
+    private File                file;
+    private String              filename;
+    private Map<String, String> headers = new HashMap<>();
+    private String              name;
+    private long                size;
+
+    /**
+     * @return the content of the part if collected in the memory
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the temp file if the part collected to the disk, the handler should
+     * move or delete it
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isFile() {
+        return filename != null;
+    }
+
+    void setContent(byte[] content) {
+        this.content = content;
+    }
+
+    void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    void setFile(File file) {
+        this.file = file;
+    }
+
+    void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    void setHeader(String name, String value) {
+        this.headers.put(name.toLowerCase(), value);
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    void setSize(long size) {
+        this.size = size;
+    }
+
+    @Override
+    public String toString() {
+        return "[name=" + name + ",filename=" + filename + ",size=" + size + "]";
+    }
+
+}
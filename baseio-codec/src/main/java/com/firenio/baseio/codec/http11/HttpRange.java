@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.codec.http11;
+
+import java.util.Arrays;
+
+/**
+ * parse the Range header of the request, only the "bytes" unit is supported
+ * <ul>
+ * <li>bytes=0-99, the first 100 bytes
+ * <li>bytes=100-, from the offset 100 to the end
+ * <li>bytes=-100, the last 100 bytes
+ * <li>bytes=0-0,-1, multiple ranges
+ * </ul>
+ *
+ * @author wangkai
+ *
+ */
+public final class HttpRange {
+
+    // too many ranges is always an abuse
+    static final int    MAX_RANGES    = 16;
+    static final long[] UNSATISFIABLE = new long[0];
+
+    private HttpRange() {}
+
+    /**
+     * @return [first, last] (inclusive) of each range, null if the header is
+     * invalid (the range should be ignored), an empty array if none of the
+     * ranges is satisfiable (416)
+     */
+    public static long[] parse(String range, long length) {
+        if (range == null || !range.startsWith("bytes=")) {
+            return null;
+        }
+        long[] res = new long[8];
+        int count = 0;
+        int len = range.length();
+        for (int i = 6; i < len;) {
+            int e = range.indexOf(',', i);
+            if (e == -1) {
+                e = len;
+            }
+            String spec = range.substring(i, e).trim();
+            i = e + 1;
+            int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+            long first;
+            long last;
+            try {
+                if (dash == 0) {
+                    // the suffix
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix == 0) {
+                        continue;
+                    }
+                    first = Math.max(0, length - suffix);
+                    last = length - 1;
+                } else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    if (dash == spec.length() - 1) {
+                        last = length - 1;
+                    } else {
+                        last = Long.parseLong(spec.substring(dash + 1));
+                        if (last < first) {
+                            return null;
+                        }
+                        last = Math.min(length - 1, last);
+                    }
+                }
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+            if (first >= length || first < 0) {
+                continue;
+            }
+            if (count / 2 == MAX_RANGES) {
+                return null;
+            }
+            if (count == res.length) {
+                res = Arrays.copyOf(res, count * 2);
+            }
+            res[count++] = first;
+            res[count++] = last;
+        }
+        if (count == 0) {
+            return UNSATISFIABLE;
+        }
+        return Arrays.copyOf(res, count);
+    }
+
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.codec.http11;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.firenio.baseio.buffer.ByteBuf;
+
+/**
+ * route the request path to the handler, the patterns are compiled into a radix
+ * trie of bytes, the path is matched without decode to string, e.g. the bytes
+ * of the request line in the read buffer (see {@link HttpCodec#setRouter}).
+ * <ul>
+ * <li>/user/list, the static path
+ * <li>/user/{id}/info, {id} captures a segment (not empty, without '/')
+ * <li>/static/*, * captures the rest of the path, only at the end
+ * </ul>
+ * the static segments take precedence over the captures, and the segment
+ * captures take precedence over the wildcard. the path is matched raw (not
+ * url decoded), the captured params are url decoded (utf-8).
+ *
+ * @author wangkai
+ *
+ */
+public final class HttpRouter<T> {
+
+    static final String[] EMPTY    = new String[0];
+    static final String   WILDCARD = "*";
+
+    private int           maxParams;
+    private final Node<T> root     = new Node<>(new byte[0]);
+    private int           size;
+
+    /**
+     * @throws IllegalArgumentException if the pattern is invalid or exists
+     */
+    public void add(String pattern, T handler) {
+        if (pattern == null || handler == null) {
+            throw new IllegalArgumentException("null pattern or handler");
+        }
+        List<String> names = new ArrayList<>();
+        Node<T> n = root;
+        int len = pattern.length();
+        for (int i = 0; i < len;) {
+            char c = pattern.charAt(i);
+            if (c == '{') {
+                int e = pattern.indexOf('}', i);
+                if (e == -1 || e == i + 1) {
+                    throw new IllegalArgumentException("illegal param: " + pattern);
+                }
+                names.add(pattern.substring(i + 1, e));
+                if (n.param == null) {
+                    n.param = new Node<>(new byte[0]);
+                }
+                n = n.param;
+                i = e + 1;
+            } else if (c == '*') {
+                if (i != len - 1) {
+                    throw new IllegalArgumentException("wildcard not at the end: " + pattern);
+                }
+                names.add(WILDCARD);
+                if (n.wildcard == null) {
+                    n.wildcard = new Node<>(new byte[0]);
+                }
+                n = n.wildcard;
+                i++;
+            } else {
+                int e = i;
+                for (; e < len && pattern.charAt(e) != '{' && pattern.charAt(e) != '*'; e++) {
+                }
+                n = insert(n, pattern.substring(i, e).getBytes(StandardCharsets.UTF_8));
+                i = e;
+            }
+        }
+        if (n.route != null) {
+            throw new IllegalArgumentException("route exists: " + pattern);
+        }
+        String[] ns = names.toArray(new String[names.size()]);
+        n.route = new Route<>(pattern, handler, ns);
+        maxParams = Math.max(maxParams, ns.length);
+        size++;
+    }
+
+    /**
+     * the max count of the params of the routes, the captures array should be
+     * sized to twice of it
+     */
+    public int getMaxParams() {
+        return maxParams;
+    }
+
+    /**
+     * match the path in [absPos, absPos + len) of the buffer, the position of
+     * the buffer is not changed
+     *
+     * @param captures [start, end) of the params (abs index of the buffer)
+     * @return the route or null if not found
+     */
+    public Route<T> match(ByteBuf src, int absPos, int len, int[] captures) {
+        return match(root, src, absPos, absPos + len, captures, 0);
+    }
+
+    /**
+     * @param captures [start, end) of the params
+     * @return the route or null if not found
+     */
+    public Route<T> match(CharSequence path, int start, int end, int[] captures) {
+        return match(root, path, start, end, captures, 0);
+    }
+
+    /**
+     * @return the route or null if not found, it is convenient for the handler
+     * which matches the request url
+     */
+    public Route<T> match(String path) {
+        int[] captures = maxParams == 0 ? null : new int[maxParams << 1];
+        return match(root, path, 0, path.length(), captures, 0);
+    }
+
+    /**
+     * match the path and set the route and the params to the frame
+     *
+     * @param src the ByteBuf or the CharSequence of the request line
+     */
+    void route(HttpFrame f, Object src, int p, int end) {
+        int[] captures = f.getRouteCaptures(maxParams << 1);
+        Route<T> r = match(root, src, p, end, captures, 0);
+        if (r == null) {
+            return;
+        }
+        int count = r.names.length;
+        String[] values = count == 0 ? EMPTY : new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = string(src, captures[i << 1], captures[(i << 1) + 1]);
+        }
+        f.setRoute(r, values);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int at(Object src, int i) {
+        if (src instanceof ByteBuf) {
+            return ((ByteBuf) src).absByte(i) & 0xff;
+        }
+        return ((CharSequence) src).charAt(i);
+    }
+
+    private static <T> Node<T> insert(Node<T> n, byte[] s) {
+        for (int i = 0;;) {
+            if (i == s.length) {
+                return n;
+            }
+            int ci = n.indexOf(s[i]);
+            if (ci == -1) {
+                Node<T> c = new Node<>(Arrays.copyOfRange(s, i, s.length));
+                n.addChild(c);
+                return c;
+            }
+            Node<T> c = n.children[ci];
+            byte[] prefix = c.prefix;
+            int common = 1;
+            for (; common < prefix.length && i + common < s.length
+                    && prefix[common] == s[i + common]; common++) {
+            }
+            if (common < prefix.length) {
+                // split the child at the common prefix
+                Node<T> mid = new Node<>(Arrays.copyOf(prefix, common));
+                c.prefix = Arrays.copyOfRange(prefix, common, prefix.length);
+                mid.addChild(c);
+                n.children[ci] = mid;
+                c = mid;
+            }
+            i += common;
+            n = c;
+        }
+    }
+
+    private static <T> Route<T> match(Node<T> n, Object src, int p, int end, int[] captures,
+            int depth) {
+        byte[] prefix = n.prefix;
+        if (end - p < prefix.length) {
+            return null;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (at(src, p + i) != (prefix[i] & 0xff)) {
+                return null;
+            }
+        }
+        p += prefix.length;
+        if (p == end && n.route != null) {
+            return n.route;
+        }
+        if (p < end && n.children != null) {
+            int ci = n.indexOf((byte) at(src, p));
+            if (ci != -1) {
+                Route<T> r = match(n.children[ci], src, p, end, captures, depth);
+                if (r != null) {
+                    return r;
+                }
+            }
+        }
+        if (n.param != null) {
+            int e = p;
+            for (; e < end && at(src, e) != '/'; e++) {
+            }
+            if (e > p) {
+                Route<T> r = match(n.param, src, e, end, captures, depth + 1);
+                if (r != null) {
+                    captures[depth << 1] = p;
+                    captures[(depth << 1) + 1] = e;
+                    return r;
+                }
+            }
+        }
+        if (n.wildcard != null && n.wildcard.route != null) {
+            captures[depth << 1] = p;
+            captures[(depth << 1) + 1] = end;
+            return n.wildcard.route;
+        }
+        return null;
+    }
+
+    // the %xx are decoded (utf-8), the '+' is not a space in the path
+    private static String string(Object src, int p, int end) {
+        byte[] bytes = new byte[end - p];
+        int w = 0;
+        for (int i = p; i < end; i++) {
+            int c = at(src, i);
+            if (c == '%' && i + 2 < end) {
+                int h = HttpCodec.hex(at(src, i + 1));
+                int l = HttpCodec.hex(at(src, i + 2));
+                if (h != -1 && l != -1) {
+                    c = (h << 4) | l;
+                    i += 2;
+                }
+            }
+            bytes[w++] = (byte) c;
+        }
+        return new String(bytes, 0, w, StandardCharsets.UTF_8);
+    }
+
+    static final class Node<T> {
+
+        Node<T>[] children;
+        // the first bytes of the children
+        byte[]    firsts;
+        Node<T>   param;
+        byte[]    prefix;
+        Route<T>  route;
+        Node<T>   wildcard;
+
+        Node(byte[] prefix) {
+            this.prefix = prefix;
+        }
+
+        @SuppressWarnings("unchecked")
+        void addChild(Node<T> c) {
+            if (children == null) {
+                children = (Node<T>[]) new Node<?>[] { c };
+                firsts = new byte[] { c.prefix[0] };
+            } else {
+                int len = children.length;
+                children = Arrays.copyOf(children, len + 1);
+                firsts = Arrays.copyOf(firsts, len + 1);
+                children[len] = c;
+                firsts[len] = c.prefix[0];
+            }
+        }
+
+        int indexOf(byte b) {
+            byte[] firsts = this.firsts;
+            if (firsts != null) {
+                for (int i = 0; i < firsts.length; i++) {
+                    if (firsts[i] == b) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+    }
+
+    public static final class Route<T> {
+
+        private final T        handler;
+        private final String[] names;
+        private final String   pattern;
+
+        Route(String pattern, T handler, String[] names) {
+            this.pattern = pattern;
+            this.handler = handler;
+            this.names = names;
+        }
+
+        public T getHandler() {
+            return handler;
+        }
+
+        /**
+         * @return the index of the param, -1 if not found, the wildcard is
+         * named "*"
+         */
+        public int getParamIndex(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public String[] getParamNames() {
+            return names;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        @Override
+        public String toString() {
+            return pattern;
+        }
+
+    }
+
+}
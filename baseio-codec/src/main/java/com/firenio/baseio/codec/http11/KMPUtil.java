@@ -66,6 +66,31 @@ public class KMPUtil {
         return e;
     }
 
+    public int length() {
+        return match_array.length;
+    }
+
+    /**
+     * feed one byte to the matching, the state is the count of the matched chars,
+     * it is easy to continue the matching across the reads
+     *
+     * @return the new state, equals to the length if matched
+     */
+    public int next(int state, int b) {
+        char[] match_array = this.match_array;
+        int[] match_table = this.match_table;
+        char c = (char) (b & 0xff);
+        for (;;) {
+            if (match_array[state] == c) {
+                return state + 1;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = match_table[state];
+        }
+    }
+
     public int match(String value) {
         return match(value, 0);
     }
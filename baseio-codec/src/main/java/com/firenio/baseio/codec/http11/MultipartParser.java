@@ -0,0 +1,416 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.codec.http11;
+
+import static com.firenio.baseio.common.ByteUtil.b;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.common.Util;
+
+/**
+ * incremental multipart/form-data parser, feed the body by {@link #parse(ByteBuf)}
+ * as it arrives (e.g. the {@link HttpChunkFrame}s in stream body mode), the
+ * boundaries are found by {@link KMPUtil} and the matching continues across the
+ * reads, the content of the parts are delivered to the {@link PartHandler}
+ * without copy.
+ *
+ * @author wangkai
+ *
+ */
+public class MultipartParser {
+
+    static final int            state_body      = 2;
+    static final int            state_delimiter = 1;
+    static final int            state_end       = 4;
+    static final int            state_header    = 3;
+    static final int            state_preamble  = 0;
+    static final IOException    OVER_LIMIT      = Util.unknownStackTrace(
+            new IOException("over limit"), MultipartParser.class, "parse");
+
+    private final byte[]        delimiter;
+    private final PartHandler   handler;
+    private final int           hlimit;
+    private final KMPUtil       kmp;
+    private final StringBuilder line            = new StringBuilder();
+    private int                 lineLength;
+    // the body starts with the delimiter without the leading crlf
+    private int                 matched         = 2;
+    private HttpPart            part;
+    private int                 state;
+
+    public MultipartParser(String boundary, PartHandler handler) {
+        this(boundary, handler, 1024 * 8);
+    }
+
+    public MultipartParser(String boundary, PartHandler handler, int headerLimit) {
+        String delimiter = "\r\n--" + boundary;
+        this.delimiter = b(delimiter);
+        this.kmp = new KMPUtil(delimiter);
+        this.handler = handler;
+        this.hlimit = headerLimit;
+    }
+
+    /**
+     * @return true if the close delimiter found
+     */
+    public boolean isComplete() {
+        return state == state_end;
+    }
+
+    /**
+     * parse the available bytes of src, the src will be consumed to the end
+     */
+    public void parse(ByteBuf src) throws IOException {
+        for (; src.hasRemaining();) {
+            int state = this.state;
+            if (state == state_body || state == state_preamble) {
+                if (!search(src)) {
+                    return;
+                }
+                if (state == state_body) {
+                    handler.onPartEnd(part);
+                    part = null;
+                }
+                this.state = state_delimiter;
+            } else if (state == state_end) {
+                // the epilogue is ignored
+                src.skip(src.remaining());
+                return;
+            } else {
+                boolean complete = read_line(src);
+                if (state == state_delimiter) {
+                    if (line.length() > 1 && line.charAt(0) == '-' && line.charAt(1) == '-') {
+                        this.state = state_end;
+                        resetLine();
+                        continue;
+                    }
+                    if (!complete) {
+                        return;
+                    }
+                    this.part = new HttpPart();
+                    this.state = state_header;
+                } else {
+                    if (!complete) {
+                        return;
+                    }
+                    if (line.length() == 0) {
+                        this.state = state_body;
+                        handler.onPartBegin(part);
+                    } else {
+                        parse_header(part, line);
+                    }
+                }
+                resetLine();
+            }
+        }
+    }
+
+    private boolean read_line(ByteBuf src) throws IOException {
+        int p = src.absPos();
+        int limit = src.absLimit();
+        int n = src.indexOf(HttpCodec.N, p, limit - p);
+        int end = n == -1 ? limit : n;
+        lineLength += end - p;
+        if (lineLength > hlimit) {
+            throw OVER_LIMIT;
+        }
+        StringBuilder line = this.line;
+        for (int i = p; i < end; i++) {
+            line.append((char) (src.absByte(i) & 0xff));
+        }
+        if (n == -1) {
+            src.absPos(limit);
+            return false;
+        }
+        int last = line.length() - 1;
+        if (last >= 0 && line.charAt(last) == HttpCodec.R) {
+            line.setLength(last);
+        }
+        src.absPos(n + 1);
+        return true;
+    }
+
+    private void resetLine() {
+        line.setLength(0);
+        lineLength = 0;
+    }
+
+    /**
+     * find the delimiter, the bytes may be a part of the delimiter at the end of
+     * src are held (they are a prefix of the delimiter), the other bytes before
+     * the delimiter are delivered to the handler
+     *
+     * @return true if the delimiter found
+     */
+    private boolean search(ByteBuf src) throws IOException {
+        final KMPUtil kmp = this.kmp;
+        final int p = src.absPos();
+        final int limit = src.absLimit();
+        final int dlen = delimiter.length;
+        final int carry = matched;
+        int s = carry;
+        int i = p;
+        for (; i < limit;) {
+            if (s == 0) {
+                // fast skip to the first byte of the delimiter
+                int r = src.indexOf(HttpCodec.R, i, limit - i);
+                if (r == -1) {
+                    i = limit;
+                    break;
+                }
+                i = r;
+            }
+            s = kmp.next(s, src.absByte(i++));
+            if (s == dlen) {
+                break;
+            }
+        }
+        boolean found = s == dlen;
+        int data = carry + (i - p) - (found ? dlen : s);
+        if (data > 0 && state == state_body) {
+            int fromCarry = Math.min(carry, data);
+            if (fromCarry > 0) {
+                handler.onPartData(part, ByteBuf.wrap(delimiter, 0, fromCarry));
+            }
+            int fromSrc = data - fromCarry;
+            if (fromSrc > 0) {
+                src.absLimit(p + fromSrc);
+                handler.onPartData(part, src);
+                src.absLimit(limit);
+            }
+        }
+        src.absPos(i);
+        matched = found ? 0 : s;
+        return found;
+    }
+
+    private static void parse_header(HttpPart part, CharSequence line) {
+        int p = Util.indexOf(line, ':');
+        if (p == -1) {
+            return;
+        }
+        String name = line.subSequence(0, p).toString().trim();
+        String value = line.subSequence(p + 1, line.length()).toString().trim();
+        part.setHeader(name, value);
+        if ("content-disposition".equalsIgnoreCase(name)) {
+            part.setName(parse_param(value, "name"));
+            part.setFilename(parse_param(value, "filename"));
+        } else if ("content-type".equalsIgnoreCase(name)) {
+            part.setContentType(value);
+        }
+    }
+
+    // form-data; name="file"; filename="a.txt"
+    private static String parse_param(String value, String key) {
+        int i = 0;
+        for (;;) {
+            int p = value.indexOf(';', i);
+            if (p == -1) {
+                return null;
+            }
+            int s = Util.skip(value, ' ', p + 1);
+            int e = value.indexOf('=', s);
+            if (e == -1) {
+                return null;
+            }
+            i = e + 1;
+            if (e - s != key.length() || !value.regionMatches(true, s, key, 0, key.length())) {
+                continue;
+            }
+            if (i < value.length() && value.charAt(i) == '"') {
+                int q = value.indexOf('"', i + 1);
+                return value.substring(i + 1, q == -1 ? value.length() : q);
+            }
+            int q = value.indexOf(';', i);
+            return value.substring(i, q == -1 ? value.length() : q).trim();
+        }
+    }
+
+    // put the text fields into the params
+    static final class ParamHandler implements PartHandler {
+
+        private final Charset             charset;
+        private final Map<String, String> params;
+        private int                       size;
+        private byte[]                    value;
+
+        ParamHandler(Map<String, String> params, Charset charset) {
+            this.params = params;
+            this.charset = charset;
+        }
+
+        @Override
+        public void onPartBegin(HttpPart part) {
+            size = 0;
+        }
+
+        @Override
+        public void onPartData(HttpPart part, ByteBuf data) {
+            if (part.isFile()) {
+                return;
+            }
+            int len = data.remaining();
+            if (value == null) {
+                value = new byte[Math.max(len, 64)];
+            } else if (value.length < size + len) {
+                value = Arrays.copyOf(value, Math.max(size + len, value.length * 2));
+            }
+            data.get(value, size, len);
+            size += len;
+        }
+
+        @Override
+        public void onPartEnd(HttpPart part) {
+            if (!part.isFile() && part.getName() != null) {
+                String v = size == 0 ? "" : new String(value, 0, size, charset);
+                params.put(part.getName(), v);
+            }
+        }
+
+    }
+
+    /**
+     * collect the parts, the file parts are written to temp files if the
+     * directory is specified, otherwise all the parts are collected in memory
+     * (limited by the memory limit)
+     */
+    public static class PartCollector implements PartHandler {
+
+        private byte[]               buf;
+        private FileChannel          channel;
+        private final File           directory;
+        private final int            memoryLimit;
+        private final List<HttpPart> parts = new ArrayList<>();
+        private int                  size;
+
+        public PartCollector() {
+            this(null, 1024 * 256);
+        }
+
+        public PartCollector(File directory, int memoryLimit) {
+            this.directory = directory;
+            this.memoryLimit = memoryLimit;
+        }
+
+        /**
+         * delete the temp files, include the unfinished one
+         */
+        public void deleteFiles() {
+            if (channel != null) {
+                Util.close(channel);
+                channel = null;
+            }
+            for (HttpPart part : parts) {
+                if (part.getFile() != null) {
+                    part.getFile().delete();
+                }
+            }
+        }
+
+        public HttpPart getPart(String name) {
+            for (HttpPart part : parts) {
+                if (name.equals(part.getName())) {
+                    return part;
+                }
+            }
+            return null;
+        }
+
+        public List<HttpPart> getParts() {
+            return parts;
+        }
+
+        @Override
+        public void onPartBegin(HttpPart part) throws IOException {
+            parts.add(part);
+            size = 0;
+            if (directory != null && part.isFile()) {
+                File file = File.createTempFile("baseio-", ".part", directory);
+                part.setFile(file);
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            }
+        }
+
+        @Override
+        public void onPartData(HttpPart part, ByteBuf data) throws IOException {
+            int len = data.remaining();
+            part.setSize(part.getSize() + len);
+            if (channel != null) {
+                ByteBuffer nb;
+                if (data.getNioBuffer() == null) {
+                    // the unsafe buf has no nio buffer
+                    nb = ByteBuffer.wrap(data.getBytes());
+                } else {
+                    nb = data.nioBuffer().duplicate();
+                    nb.limit(nb.position() + len);
+                }
+                for (; nb.hasRemaining();) {
+                    channel.write(nb);
+                }
+                return;
+            }
+            int newSize = size + len;
+            if (newSize > memoryLimit || newSize < 0) {
+                throw OVER_LIMIT;
+            }
+            if (buf == null) {
+                buf = new byte[Math.max(newSize, 256)];
+            } else if (buf.length < newSize) {
+                buf = Arrays.copyOf(buf, Math.min(memoryLimit, Math.max(newSize, buf.length * 2)));
+            }
+            data.get(buf, size, len);
+            size = newSize;
+        }
+
+        @Override
+        public void onPartEnd(HttpPart part) throws IOException {
+            if (channel != null) {
+                FileChannel channel = this.channel;
+                this.channel = null;
+                channel.close();
+            } else {
+                part.setContent(buf == null ? new byte[0] : Arrays.copyOf(buf, size));
+            }
+        }
+
+    }
+
+    /**
+     * the data delivered by onPartData is only valid in the invocation, it may be a
+     * view of the reading buffer
+     */
+    public interface PartHandler {
+
+        void onPartBegin(HttpPart part) throws IOException;
+
+        void onPartData(HttpPart part, ByteBuf data) throws IOException;
+
+        void onPartEnd(HttpPart part) throws IOException;
+
+    }
+
+}
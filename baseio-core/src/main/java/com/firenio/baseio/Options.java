@@ -25,15 +25,34 @@ import com.firenio.baseio.component.Native;
 public class Options {
 
     static final String BUF_AUTO_EXPANSION     = "com.firenio.baseio.bufAutoExpansion";
+    static final String BUF_LEAK_DETECT        = "com.firenio.baseio.bufLeakDetect";
+    static final String BUF_LEAK_TTL           = "com.firenio.baseio.bufLeakTtl";
     static final String BUF_RECYCLE            = "com.firenio.baseio.bufRecycle";
     static final String CHANNEL_READ_FIRST     = "com.firenio.baseio.channelReadFirst";
     static final String DEBUG_ERROR_LEVEL      = "com.firenio.baseio.debugErrorLevel";
     static final String ENABLE_EPOLL           = "com.firenio.baseio.ssl.enableEpoll";
+    static final String ENABLE_JFR             = "com.firenio.baseio.enableJfr";
     static final String ENABLE_OPENSSL         = "com.firenio.baseio.ssl.enableOpenSsl";
     static final String ENABLE_UNSAFE_BUF      = "com.firenio.baseio.ssl.enableUnsafeBuf";
     static final String OPENSSL_PATH           = "org.wildfly.openssl.path";
     static final String SSL_UNWRAP_BUFFER_SIZE = "com.firenio.baseio.ssl.unwrapBufferSize";
 
+    /**
+     * @return the sampling of the buf leak detector, 0 means disabled, n means
+     * track 1 of n allocations, default 1 if DevelopConfig.BUF_DEBUG
+     */
+    public static int getBufLeakDetect() {
+        return Util.getIntProperty(BUF_LEAK_DETECT, DevelopConfig.BUF_DEBUG ? 1 : 0);
+    }
+
+    /**
+     * @return report the tracked bufs which held over the ttl (ms), 0 means
+     * disabled
+     */
+    public static int getBufLeakTtl() {
+        return Util.getIntProperty(BUF_LEAK_TTL);
+    }
+
     public static int getDebugErrorLevel() {
         return Util.getIntProperty(DEBUG_ERROR_LEVEL);
     }
@@ -62,6 +81,13 @@ public class Options {
         return Util.getBooleanProperty(ENABLE_EPOLL);
     }
 
+    /**
+     * @return emit the baseio jfr events when jfr is available, default true
+     */
+    public static boolean isEnableJfr() {
+        return Util.getBooleanProperty(ENABLE_JFR, true);
+    }
+
     public static boolean isEnableOpenssl() {
         return Util.getBooleanProperty(ENABLE_OPENSSL);
     }
@@ -74,6 +100,14 @@ public class Options {
         System.setProperty(BUF_AUTO_EXPANSION, String.valueOf(auto));
     }
 
+    public static void setBufLeakDetect(int sampling) {
+        System.setProperty(BUF_LEAK_DETECT, String.valueOf(sampling));
+    }
+
+    public static void setBufLeakTtl(int ttl) {
+        System.setProperty(BUF_LEAK_TTL, String.valueOf(ttl));
+    }
+
     public static void setBufRecycle(boolean recycle) {
         System.setProperty(BUF_RECYCLE, String.valueOf(recycle));
     }
@@ -90,6 +124,10 @@ public class Options {
         System.setProperty(ENABLE_EPOLL, String.valueOf(enable));
     }
 
+    public static void setEnableJfr(boolean enable) {
+        System.setProperty(ENABLE_JFR, String.valueOf(enable));
+    }
+
     public static void setEnableOpenssl(boolean enable) {
         System.setProperty(ENABLE_OPENSSL, String.valueOf(enable));
     }
@@ -34,7 +34,9 @@ public abstract class ByteBuf implements Releasable {
         refCntUpdater = AtomicIntegerFieldUpdater.newUpdater(ByteBuf.class, "referenceCount");
     }
 
-    protected volatile int referenceCount = 0;
+    // only the sampled bufs have the tracker when leak detect enabled
+    ByteBufLeakDetector.LeakTracker leakTracker;
+    protected volatile int          referenceCount = 0;
 
     public abstract long address();
 
@@ -49,6 +51,9 @@ public abstract class ByteBuf implements Releasable {
     public abstract ByteBuf absPos(int absPos);
 
     protected void addReferenceCount() {
+        if (ByteBufLeakDetector.ENABLED) {
+            ByteBufLeakDetector.touch(this);
+        }
         int referenceCount = this.referenceCount;
         if (refCntUpdater.compareAndSet(this, referenceCount, referenceCount + 1)) {
             return;
@@ -196,6 +201,52 @@ public abstract class ByteBuf implements Releasable {
 
     public abstract int indexOf(byte b, int absPos, int size);
 
+    /**
+     * find the bytes in [absPos, absPos + size), the first byte is located by
+     * {@link #indexOf(byte, int, int)}
+     *
+     * @return the absolute position of the bytes, or -1 if not found
+     */
+    public int indexOf(byte[] bytes, int absPos, int size) {
+        int n = bytes.length;
+        if (n == 0 || size < n) {
+            return -1;
+        }
+        byte first = bytes[0];
+        int last = absPos + size - n;
+        for (int p = absPos; p <= last; p++) {
+            p = indexOf(first, p, last - p + 1);
+            if (p == -1) {
+                return -1;
+            }
+            int i = 1;
+            for (; i < n && absByte(p + i) == bytes[i]; i++) {}
+            if (i == n) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * find any byte of the set in [absPos, absPos + size), the set should be
+     * small, e.g. {'\r', '\n', ':'}
+     *
+     * @return the absolute position of the byte, or -1 if not found
+     */
+    public int indexOfAny(byte[] set, int absPos, int size) {
+        int l = absPos + size;
+        for (int p = absPos; p < l; p++) {
+            byte b = absByte(p);
+            for (int i = 0; i < set.length; i++) {
+                if (set[i] == b) {
+                    return p;
+                }
+            }
+        }
+        return -1;
+    }
+
     @Override
     public boolean isReleased() {
         return referenceCount < 1;
@@ -518,6 +569,13 @@ public abstract class ByteBuf implements Releasable {
         return wrap(new byte[cap]);
     }
 
+    /**
+     * allocate a buf of the off heap memory, the memory is freed by release
+     */
+    public static ByteBuf unsafe(int cap) {
+        return new UnpooledUnsafeByteBuf(Unsafe.allocate(cap), cap);
+    }
+
     public static ByteBuf wrap(byte[] data) {
         return wrap(data, 0, data.length);
     }
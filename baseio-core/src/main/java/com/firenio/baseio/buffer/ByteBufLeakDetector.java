@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.buffer;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.firenio.baseio.Options;
+import com.firenio.baseio.common.DateUtil;
+import com.firenio.baseio.log.Logger;
+import com.firenio.baseio.log.LoggerFactory;
+
+/**
+ * sampling leak detector of the pooled bufs, track 1 of {@link #SAMPLING}
+ * allocations with a short access trail (the allocation and the latest
+ * retains), a tracked buf is reported when it become unreachable but not
+ * released (the pool units will be reclaimed), or held over {@link #TTL} ms.
+ * <p>
+ * enable it by Options.setBufLeakDetect(sampling) before the allocator class
+ * loaded, 1 means track every buf.
+ *
+ * @author wangkai
+ *
+ */
+public final class ByteBufLeakDetector {
+
+    public static final boolean                 ENABLED;
+    public static final int                     SAMPLING    = Options.getBufLeakDetect();
+    public static final long                    TTL         = Options.getBufLeakTtl();
+    static final int                            TRAIL_LIMIT = 8;
+    private static final AtomicLong             leaks       = new AtomicLong();
+    private static final Logger                 logger      = newLogger();
+    private static final AtomicLong             nextScan    = new AtomicLong();
+    private static final ReferenceQueue<Object> queue       = new ReferenceQueue<>();
+    private static final Set<LeakTracker>       trackers;
+
+    static {
+        ENABLED = SAMPLING > 0;
+        if (ENABLED) {
+            trackers = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+        } else {
+            trackers = null;
+        }
+    }
+
+    private ByteBufLeakDetector() {}
+
+    /**
+     * @return the trails of the tracked bufs which not released yet
+     */
+    public static List<String> getTrackedTrails() {
+        List<String> res = new ArrayList<>();
+        if (ENABLED) {
+            for (LeakTracker t : trackers) {
+                res.add(t.toString());
+            }
+        }
+        return res;
+    }
+
+    public static long getLeaks() {
+        return leaks.get();
+    }
+
+    /**
+     * report the leaks detected and the bufs held over ttl, it is called on every
+     * sampled allocation, call it manually if you want to report earlier.
+     */
+    public static void reportLeaks() {
+        if (!ENABLED) {
+            return;
+        }
+        for (;;) {
+            LeakTracker t = (LeakTracker) queue.poll();
+            if (t == null) {
+                break;
+            }
+            if (trackers.remove(t)) {
+                leaks.incrementAndGet();
+                t.reclaim();
+                logger.error("LEAK: ByteBuf was garbage collected before released, trail:\n{}",
+                        t);
+            }
+        }
+        if (TTL > 0) {
+            long now = System.currentTimeMillis();
+            long next = nextScan.get();
+            if (now >= next && nextScan.compareAndSet(next, now + Math.max(1000, TTL / 2))) {
+                for (LeakTracker t : trackers) {
+                    if (!t.reported && now - t.time > TTL) {
+                        t.reported = true;
+                        logger.warn("ByteBuf held over {}ms, trail:\n{}", TTL, t);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * record the current stack to the trail of the buf if it is tracked
+     */
+    public static void touch(ByteBuf buf) {
+        LeakTracker t = buf.leakTracker;
+        if (t != null) {
+            t.record("touch");
+        }
+    }
+
+    static void expansion(ByteBuf buf) {
+        LeakTracker t = buf.leakTracker;
+        if (t != null) {
+            t.unitOffset = buf.unitOffset();
+            t.record("expansion");
+        }
+    }
+
+    static void release(ByteBuf buf) {
+        LeakTracker t = buf.leakTracker;
+        if (t != null) {
+            buf.leakTracker = null;
+            trackers.remove(t);
+            t.clear();
+        }
+    }
+
+    static void track(PooledByteBufAllocator allocator, ByteBuf buf) {
+        if (SAMPLING > 1 && ThreadLocalRandom.current().nextInt(SAMPLING) != 0) {
+            return;
+        }
+        reportLeaks();
+        LeakTracker t = new LeakTracker(buf, allocator);
+        buf.leakTracker = t;
+        trackers.add(t);
+    }
+
+    private static Logger newLogger() {
+        return LoggerFactory.getLogger(ByteBufLeakDetector.class);
+    }
+
+    static final class LeakTracker extends PhantomReference<Object> {
+
+        final PooledByteBufAllocator allocator;
+        volatile boolean             reported;
+        final long                   time  = System.currentTimeMillis();
+        // the first record is the allocation
+        private final List<Trail>    trail = new ArrayList<>(2);
+        volatile int                 unitOffset;
+
+        LeakTracker(ByteBuf buf, PooledByteBufAllocator allocator) {
+            super(buf, queue);
+            this.allocator = allocator;
+            this.unitOffset = buf.unitOffset();
+            record("allocate");
+        }
+
+        void reclaim() {
+            allocator.reclaim(unitOffset);
+        }
+
+        synchronized void record(String action) {
+            if (trail.size() == TRAIL_LIMIT) {
+                trail.remove(1);
+            }
+            trail.add(new Trail(action));
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder(256 * trail.size());
+            for (int i = trail.size() - 1; i >= 0; i--) {
+                Trail r = trail.get(i);
+                sb.append("#");
+                sb.append(i);
+                sb.append(' ');
+                sb.append(r.getMessage());
+                sb.append('\n');
+                for (StackTraceElement e : r.getStackTrace()) {
+                    // skip the frames of the leak detector
+                    if (e.getClassName().startsWith(ByteBufLeakDetector.class.getName())) {
+                        continue;
+                    }
+                    sb.append("\tat ");
+                    sb.append(e);
+                    sb.append('\n');
+                }
+            }
+            return sb.toString();
+        }
+
+    }
+
+    static final class Trail extends Throwable {
+
+        private static final long serialVersionUID = 1L;
+
+        Trail(String action) {
+            super(action + " by " + Thread.currentThread().getName() + " @ "
+                    + DateUtil.get().formatYyyy_MM_dd_HH_mm_ss_SSS());
+        }
+
+    }
+
+}
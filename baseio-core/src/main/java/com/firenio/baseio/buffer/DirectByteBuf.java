@@ -232,12 +232,7 @@ abstract class DirectByteBuf extends ByteBuf {
         int p = absPos;
         int l = p + size;
         if (Unsafe.ENABLE) {
-            long addr = Unsafe.address(m);
-            for (; p < l; p++) {
-                if (Unsafe.getByte(addr + ((long) p << 0)) == b) {
-                    return p;
-                }
-            }
+            return SwarUtil.indexOf(null, Unsafe.address(m), b, p, l);
         } else {
             for (; p < l; p++) {
                 if (m.get(p) == b) {
@@ -248,6 +243,15 @@ abstract class DirectByteBuf extends ByteBuf {
         return -1;
     }
 
+    @Override
+    public int indexOfAny(byte[] set, int absPos, int size) {
+        if (!Unsafe.ENABLE || set.length == 0 || set.length > 4) {
+            return super.indexOfAny(set, absPos, size);
+        }
+        long addr = Unsafe.address(memory);
+        return SwarUtil.indexOfAny(null, addr, set, absPos, absPos + size);
+    }
+
     @Override
     public int lastIndexOf(byte b, int absPos, int size) {
         ByteBuffer m = memory;
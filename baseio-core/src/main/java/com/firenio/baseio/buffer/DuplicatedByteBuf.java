@@ -249,6 +249,11 @@ final class DuplicatedByteBuf extends ByteBuf {
         return p.indexOf(b, absPos, size);
     }
 
+    @Override
+    public int indexOfAny(byte[] set, int absPos, int size) {
+        return p.indexOfAny(set, absPos, size);
+    }
+
     @Override
     public int lastIndexOf(byte b, int absPos, int size) {
         return p.lastIndexOf(b, absPos, size);
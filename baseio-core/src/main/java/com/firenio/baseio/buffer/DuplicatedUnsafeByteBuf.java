@@ -29,9 +29,8 @@ final class DuplicatedUnsafeByteBuf extends UnsafeByteBuf {
         super(proto.address());
         this.p = proto;
         this.referenceCount = refCnt;
+        // the pos and limit are read from the proto, the setters are unsupported
         this.capacity(proto.capacity());
-        this.absLimit(proto.absLimit());
-        this.absPos(proto.absPos());
     }
     
     @Override
@@ -234,6 +233,11 @@ final class DuplicatedUnsafeByteBuf extends UnsafeByteBuf {
         return p.indexOf(b, absPos, size);
     }
 
+    @Override
+    public int indexOfAny(byte[] set, int absPos, int size) {
+        return p.indexOfAny(set, absPos, size);
+    }
+
     @Override
     public int lastIndexOf(byte b, int absPos, int size) {
         return p.lastIndexOf(b, absPos, size);
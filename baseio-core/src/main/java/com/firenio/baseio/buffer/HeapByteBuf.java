@@ -265,6 +265,9 @@ abstract class HeapByteBuf extends ByteBuf {
         int p = absPos;
         int l = p + size;
         byte[] m = memory;
+        if (Unsafe.ENABLE) {
+            return SwarUtil.indexOf(m, Unsafe.ARRAY_BASE_OFFSET, b, p, l);
+        }
         for (; p < l; p++) {
             if (m[p] == b) {
                 return p;
@@ -273,6 +276,14 @@ abstract class HeapByteBuf extends ByteBuf {
         return -1;
     }
 
+    @Override
+    public int indexOfAny(byte[] set, int absPos, int size) {
+        if (!Unsafe.ENABLE || set.length == 0 || set.length > 4) {
+            return super.indexOfAny(set, absPos, size);
+        }
+        return SwarUtil.indexOfAny(memory, Unsafe.ARRAY_BASE_OFFSET, set, absPos, absPos + size);
+    }
+
     @Override
     public int lastIndexOf(byte b, int absPos, int size) {
         int p = absPos;
@@ -18,18 +18,15 @@ package com.firenio.baseio.buffer;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
-import com.firenio.baseio.Develop;
 import com.firenio.baseio.Options;
 import com.firenio.baseio.collection.LinkedBQStack;
 import com.firenio.baseio.collection.Stack;
 import com.firenio.baseio.common.ByteUtil;
-import com.firenio.baseio.common.DateUtil;
 import com.firenio.baseio.common.Unsafe;
 import com.firenio.baseio.common.Util;
+import com.firenio.baseio.jfr.JfrEvents;
 
 /**
  * @author wangkai
@@ -37,19 +34,12 @@ import com.firenio.baseio.common.Util;
  */
 public final class PooledByteBufAllocator extends ByteBufAllocator {
 
-    public static final Map<ByteBuf, BufDebug> BUF_DEBUGS;
-    static final int                           BYTEBUF_BUFFER    = 1024 * 8;
-    static final boolean                       BYTEBUF_RECYCLE   = Options.isBufRecycle();
-    public static final ByteBufException       EXPANSION_FAILED  = EXPANSION_FAILED();
-    static final boolean                       ENABLE_UNSAFE_BUF = Options.isEnableUnsafeBuf();
-
-    static {
-        if (Develop.BUF_DEBUG) {
-            BUF_DEBUGS = new ConcurrentHashMap<>();
-        } else {
-            BUF_DEBUGS = null;
-        }
-    }
+    static final int                     BYTEBUF_BUFFER    = 1024 * 8;
+    static final boolean                 BYTEBUF_RECYCLE   = Options.isBufRecycle();
+    public static final ByteBufException EXPANSION_FAILED  = EXPANSION_FAILED();
+    static final boolean                 ENABLE_UNSAFE_BUF = Options.isEnableUnsafeBuf();
+    static final boolean                 JFR               = JfrEvents.ENABLED;
+    static final boolean                 LEAK_DETECT       = ByteBufLeakDetector.ENABLED;
 
     private long                        address = -1;
     private final int[]                 blockEnds;
@@ -97,18 +87,7 @@ public final class PooledByteBufAllocator extends ByteBufAllocator {
 
     @Override
     public ByteBuf allocate(int limit) {
-        if (Develop.BUF_DEBUG) {
-            ByteBuf buf = allocate(limit, 0);
-            if (buf != null && buf.isPooled()) {
-                BufDebug d = new BufDebug();
-                d.buf = buf;
-                d.e = new Exception(DateUtil.get().formatYyyy_MM_dd_HH_mm_ss_SSS());
-                BUF_DEBUGS.put(buf, d);
-            }
-            return buf;
-        } else {
-            return allocate(limit, 0);
-        }
+        return allocate(limit, 0);
     }
 
     private ByteBuf allocate(int limit, int current) {
@@ -117,6 +96,9 @@ public final class PooledByteBufAllocator extends ByteBufAllocator {
         }
         if (current == groupSize) {
             // FIXME 是否申请java内存
+            if (JFR) {
+                JfrEvents.bufPoolExhausted(limit, groupSize, isDirect);
+            }
             return ByteBuf.heap(limit);
         }
         int size = (limit + unit - 1) / unit;
@@ -135,7 +117,11 @@ public final class PooledByteBufAllocator extends ByteBufAllocator {
         if (blockStart == -1) {
             return getNext().allocate(limit, current + 1);
         }
-        return newByteBuf().produce(blockStart, blockEnds[blockStart]);
+        ByteBuf buf = newByteBuf().produce(blockStart, blockEnds[blockStart]);
+        if (LEAK_DETECT) {
+            ByteBufLeakDetector.track(this, buf);
+        }
+        return buf;
     }
 
     // FIXME 判断余下的是否足够，否则退出循环
@@ -235,6 +221,9 @@ public final class PooledByteBufAllocator extends ByteBufAllocator {
                     int oldPos = buf.absPos();
                     int copy = oldPos - oldOffset;
                     buf.produce(pos, blockEnds[pos]);
+                    if (LEAK_DETECT) {
+                        ByteBufLeakDetector.expansion(buf);
+                    }
                     if (ENABLE_UNSAFE_BUF) {
                         Unsafe.copyMemory(address + oldOffset, address + buf.offset(), copy);
                     } else {
@@ -362,16 +351,22 @@ public final class PooledByteBufAllocator extends ByteBufAllocator {
         } finally {
             lock.unlock();
         }
+        if (LEAK_DETECT) {
+            ByteBufLeakDetector.release(b);
+        }
         if (BYTEBUF_RECYCLE) {
             bufBuffer.push(b);
         }
-        if (Develop.BUF_DEBUG && buf.isPooled()) {
-            BufDebug d = BUF_DEBUGS.remove(buf);
-            if (d == null) {
-                throw new RuntimeException("null bufDebug");
-            }
-            d.buf = null;
-            d.e = null;
+    }
+
+    // reclaim the units of the leaked buf which has been garbage collected
+    void reclaim(int unitOffset) {
+        ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            frees.set(unitOffset);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -416,13 +411,6 @@ public final class PooledByteBufAllocator extends ByteBufAllocator {
         return used;
     }
 
-    public class BufDebug {
-
-        public volatile ByteBuf   buf;
-        public volatile Exception e;
-
-    }
-
     /**
      * for debug 
      */
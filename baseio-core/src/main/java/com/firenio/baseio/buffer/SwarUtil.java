@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.buffer;
+
+import java.nio.ByteOrder;
+
+import com.firenio.baseio.common.Unsafe;
+
+/**
+ * scan 8 bytes per step (simd within a register), the words are read by
+ * {@link Unsafe}, base is null for the off heap memory
+ * <p>
+ * zeros(x) sets the high bit of each zero byte of x exactly (no borrow between
+ * the bytes), so the first match is the lowest address in both byte orders.
+ *
+ * @author wangkai
+ *
+ */
+final class SwarUtil {
+
+    static final boolean LITTLE = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    static final long    LOWS   = 0x7f7f7f7f7f7f7f7fL;
+    static final long    ONES   = 0x0101010101010101L;
+
+    private SwarUtil() {}
+
+    private static int firstIndex(long t) {
+        if (LITTLE) {
+            return Long.numberOfTrailingZeros(t) >>> 3;
+        } else {
+            return Long.numberOfLeadingZeros(t) >>> 3;
+        }
+    }
+
+    static int indexOf(Object base, long address, byte b, int p, int l) {
+        final long pattern = pattern(b);
+        for (int wl = l - 8; p <= wl; p += 8) {
+            long t = zeros(Unsafe.getLong(base, address + p) ^ pattern);
+            if (t != 0) {
+                return p + firstIndex(t);
+            }
+        }
+        for (; p < l; p++) {
+            if (Unsafe.getByte(base, address + p) == b) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * the set should be small (not more than 4 bytes), the words are compared with
+     * all of them
+     */
+    static int indexOfAny(Object base, long address, byte[] set, int p, int l) {
+        int n = set.length;
+        final long p0 = pattern(set[0]);
+        final long p1 = pattern(set[n > 1 ? 1 : 0]);
+        final long p2 = pattern(set[n > 2 ? 2 : 0]);
+        final long p3 = pattern(set[n > 3 ? 3 : 0]);
+        for (int wl = l - 8; p <= wl; p += 8) {
+            long w = Unsafe.getLong(base, address + p);
+            long t = zeros(w ^ p0) | zeros(w ^ p1) | zeros(w ^ p2) | zeros(w ^ p3);
+            if (t != 0) {
+                return p + firstIndex(t);
+            }
+        }
+        for (; p < l; p++) {
+            byte b = Unsafe.getByte(base, address + p);
+            for (int i = 0; i < n; i++) {
+                if (set[i] == b) {
+                    return p;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static long pattern(byte b) {
+        return (b & 0xffL) * ONES;
+    }
+
+    private static long zeros(long x) {
+        return ~(((x & LOWS) + LOWS) | x | LOWS);
+    }
+
+}
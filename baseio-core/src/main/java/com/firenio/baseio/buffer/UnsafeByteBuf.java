@@ -262,15 +262,15 @@ abstract class UnsafeByteBuf extends ByteBuf {
 
     @Override
     public int indexOf(byte b, int absPos, int size) {
-        int p = absPos;
-        int l = p + size;
-        long addr = address();
-        for (; p < l; p++) {
-            if (Unsafe.getByte(addr + ((long) p << 0)) == b) {
-                return p;
-            }
+        return SwarUtil.indexOf(null, address(), b, absPos, absPos + size);
+    }
+
+    @Override
+    public int indexOfAny(byte[] set, int absPos, int size) {
+        if (set.length == 0 || set.length > 4) {
+            return super.indexOfAny(set, absPos, size);
         }
-        return -1;
+        return SwarUtil.indexOfAny(null, address(), set, absPos, absPos + size);
     }
 
     @Override
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.collection;
+
+import java.util.Arrays;
+
+import com.firenio.baseio.common.Util;
+
+/**
+ * open addressing int set with linear probing, the removed slot will be filled
+ * by shifting the following keys backward, so the lookup stops at the first
+ * free slot. -1 is reserved for the free slot and can not be added.
+ * <p>
+ * iterate by {@link #capacity()} and {@link #indexKey(int)}, do not remove keys
+ * while iterating.
+ *
+ * @author wangkai
+ *
+ */
+public final class IntHashSet {
+
+    public static final int FREE = -1;
+
+    private int[]           keys;
+    private int             limit;
+    private int             mask;
+    private int             size;
+
+    public IntHashSet() {
+        this(16);
+    }
+
+    public IntHashSet(int cap) {
+        init(Util.clothCover(Math.max(16, cap)));
+    }
+
+    public boolean add(int key) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("key: " + key);
+        }
+        final int[] keys = this.keys;
+        final int mask = this.mask;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return false;
+            }
+            if (k == FREE) {
+                keys[i] = key;
+                if (++size > limit) {
+                    rehash(keys.length << 1);
+                }
+                return true;
+            }
+        }
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    public boolean contains(int key) {
+        return indexOf(key) != -1;
+    }
+
+    private int indexOf(int key) {
+        final int[] keys = this.keys;
+        final int mask = this.mask;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return i;
+            }
+            if (k == FREE) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return the key at the index, or {@link #FREE} if the slot is free
+     */
+    public int indexKey(int index) {
+        return keys[index];
+    }
+
+    private void init(int cap) {
+        this.keys = new int[cap];
+        this.mask = cap - 1;
+        this.limit = cap - (cap >>> 2);
+        Arrays.fill(keys, FREE);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void rehash(int cap) {
+        int[] old = this.keys;
+        init(cap);
+        final int[] keys = this.keys;
+        final int mask = this.mask;
+        for (int k : old) {
+            if (k != FREE) {
+                int i = hash(k) & mask;
+                for (; keys[i] != FREE;) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+            }
+        }
+    }
+
+    public boolean remove(int key) {
+        int index = indexOf(key);
+        if (index == -1) {
+            return false;
+        }
+        final int[] keys = this.keys;
+        final int mask = this.mask;
+        // shift the following keys of the same probe chain backward
+        for (int i = (index + 1) & mask;; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == FREE) {
+                break;
+            }
+            int home = hash(k) & mask;
+            // move k to the hole if the hole is in the range [home, i] (cyclic)
+            if (((i - home) & mask) >= ((i - index) & mask)) {
+                keys[index] = k;
+                index = i;
+            }
+        }
+        keys[index] = FREE;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(size * 6 + 2);
+        sb.append('[');
+        for (int k : keys) {
+            if (k != FREE) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(k);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+}
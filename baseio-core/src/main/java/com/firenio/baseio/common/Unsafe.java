@@ -70,6 +70,14 @@ public class Unsafe {
         }
     }
 
+    public static int arrayBaseOffset(Class<?> clazz) {
+        return UNSAFE.arrayBaseOffset(clazz);
+    }
+
+    public static int arrayIndexScale(Class<?> clazz) {
+        return UNSAFE.arrayIndexScale(clazz);
+    }
+
     private static int byteArrayBaseOffset() {
         return HAS_UNSAFE_ARRAY_OPERATIONS ? UNSAFE.arrayBaseOffset(byte[].class) : -1;
     }
@@ -78,7 +86,8 @@ public class Unsafe {
         return UNSAFE.compareAndSwapInt(o, offset, expected, val);
     }
 
-    public static final boolean compareAndSwapLong(Object o, long offset, int expected, long val) {
+    public static final boolean compareAndSwapLong(Object o, long offset, long expected,
+            long val) {
         return UNSAFE.compareAndSwapLong(o, offset, expected, val);
     }
 
@@ -233,10 +242,18 @@ public class Unsafe {
         return UNSAFE.getLong(target, offset);
     }
 
+    public static long getLongVolatile(Object target, long offset) {
+        return UNSAFE.getLongVolatile(target, offset);
+    }
+
     public static Object getObject(Object target, long offset) {
         return UNSAFE.getObject(target, offset);
     }
 
+    public static Object getObjectVolatile(Object target, long offset) {
+        return UNSAFE.getObjectVolatile(target, offset);
+    }
+
     public static short getShort(long address) {
         return UNSAFE.getShort(address);
     }
@@ -331,6 +348,14 @@ public class Unsafe {
         UNSAFE.putObject(target, offset, value);
     }
 
+    public static void putOrderedLong(Object target, long offset, long value) {
+        UNSAFE.putOrderedLong(target, offset, value);
+    }
+
+    public static void putOrderedObject(Object target, long offset, Object value) {
+        UNSAFE.putOrderedObject(target, offset, value);
+    }
+
     public static void putShort(long address, short value) {
         UNSAFE.putShort(address, value);
     }
@@ -17,6 +17,7 @@ package com.firenio.baseio.component;
 
 import static com.firenio.baseio.Develop.printException;
 import static com.firenio.baseio.common.Util.unknownStackTrace;
+import static com.firenio.baseio.component.NioEventLoopMetrics.DECODE;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -41,12 +42,15 @@ import javax.net.ssl.SSLException;
 import com.firenio.baseio.Develop;
 import com.firenio.baseio.buffer.ByteBuf;
 import com.firenio.baseio.buffer.ByteBufAllocator;
+import com.firenio.baseio.common.Assert;
 import com.firenio.baseio.common.Unsafe;
 import com.firenio.baseio.common.Util;
 import com.firenio.baseio.component.NioEventLoop.EpollNioEventLoopUnsafe;
 import com.firenio.baseio.component.NioEventLoop.JavaNioEventLoopUnsafe;
 import com.firenio.baseio.component.NioEventLoop.NioEventLoopUnsafe;
+import com.firenio.baseio.component.NioEventLoopMetrics.CodecMetrics;
 import com.firenio.baseio.concurrent.EventLoop;
+import com.firenio.baseio.jfr.JfrEvents;
 import com.firenio.baseio.log.Logger;
 import com.firenio.baseio.log.LoggerFactory;
 
@@ -61,9 +65,16 @@ public final class Channel implements Runnable, Closeable {
     public static final SSLException           SSL_PACKET_OVER_LIMIT = SSL_PACKET_OVER_LIMIT();
     public static final SSLException           SSL_UNWRAP_OVER_LIMIT = SSL_UNWRAP_OVER_LIMIT();
     public static final IOException            TAST_REJECT           = TASK_REJECT();
+    static final boolean                       JFR                   = JfrEvents.ENABLED;
+    // the reasons of the read paused, the read resumes when no reason remains
+    static final int                           PAUSE_EXECUTOR        = 1 << 1;
+    static final int                           PAUSE_RELAY           = 1 << 2;
+    static final int                           PAUSE_USER            = 1 << 0;
 
     private Object                             attachment;
     private ProtocolCodec                      codec;
+    // the counters of the current codec, resolved on first use
+    private CodecMetrics                       codecMetrics;
     private final ChannelContext               context;
     private final long                         creationTime          = System.currentTimeMillis();
     private final ByteBuf[]                    currentWriteBufs;
@@ -74,8 +85,15 @@ public final class Channel implements Runnable, Closeable {
     private final EventLoop                    executorEventLoop;
     private boolean                            inEvent;
     private long                               lastAccess;
+    private final ChannelLatency               latency;
     private volatile boolean                   open                  = true;
     private ByteBuf                            plainRemainBuf;
+    private int                                pauseReasons;
+    private boolean                            readPaused;
+    private int                                relayBufSize;
+    private boolean                            relayClosing;
+    private int                                relayHighWater;
+    private Channel                            relayPeer;
     private final SSLEngine                    sslEngine;
     private boolean                            sslHandshakeFinished;
     private ByteBuf                            sslRemainBuf;
@@ -92,6 +110,7 @@ public final class Channel implements Runnable, Closeable {
         this.executorEventLoop = ctx.getNextExecutorEventLoop();
         this.lastAccess = creationTime + el.getGroup().getIdleTime();
         this.writeBufs = new LinkedBlockingQueue<>();
+        this.latency = el.getMetrics().isLatency() ? new ChannelLatency() : null;
         this.currentWriteBufs = new ByteBuf[el.getGroup().getWriteBuffers()];
         String idhex = Integer.toHexString(unsafe.channelId);
         this.desc = newDesc(idhex);
@@ -104,11 +123,19 @@ public final class Channel implements Runnable, Closeable {
     }
 
     private void accept(ByteBuf src) throws Exception {
+        if (relayPeer != null) {
+            // the unwrapped bytes of the ssl channel
+            relay_copy(src);
+            return;
+        }
         final ProtocolCodec codec = getCodec();
         final IoEventHandle handle = getIoEventHandle();
         final boolean enable_wel = getExecutorEventLoop() != null;
+        final CodecMetrics metrics = getCodecMetrics(codec);
+        final ChannelLatency latency = this.latency;
         for (;;) {
-            Frame f = codec.decode(this, src);
+            long started = latency == null ? 0 : System.nanoTime();
+            Frame f = JFR ? JfrEvents.decode(codec, this, src) : codec.decode(this, src);
             if (f == null) {
                 if (Develop.BUF_DEBUG) {
                     if (plainRemainBuf != null) {
@@ -118,37 +145,77 @@ public final class Channel implements Runnable, Closeable {
                 plainRemainBuf = sliceRemain(src);
                 break;
             }
+            if (metrics != null) {
+                metrics.decodes++;
+            }
+            long decoded = 0;
+            if (latency != null) {
+                decoded = System.nanoTime();
+                metrics.latencies[DECODE].record(decoded - started);
+            }
             if (f.isTyped()) {
                 accept_typed(f);
             } else {
                 if (enable_wel) {
-                    accept_async(f);
+                    if (latency != null) {
+                        latency.begin(metrics, started);
+                    }
+                    accept_async(f, metrics, decoded);
                 } else {
-                    accept_line(handle, f);
+                    if (latency != null) {
+                        latency.begin(metrics, started);
+                        accept_line(handle, f);
+                        latency.end(metrics, decoded);
+                    } else {
+                        accept_line(handle, f);
+                    }
                 }
             }
+            if (relayPeer != null) {
+                // the relay started by the handle, the rest bytes are for the peer
+                if (src.hasRemaining()) {
+                    relay_copy(src);
+                }
+                break;
+            }
             if (!src.hasRemaining()) {
                 break;
             }
         }
     }
 
-    private void accept_async(final Frame f) {
+    private void accept_async(final Frame f, final CodecMetrics metrics, final long decoded) {
         final EventLoop executorEventLoop = getExecutorEventLoop();
         final Runnable job = new Runnable() {
 
             @Override
             public void run() {
                 final Channel ch = Channel.this;
+                final ChannelLatency latency = ch.latency;
                 try {
                     ch.getIoEventHandle().accept(ch, f);
                 } catch (Exception e) {
                     ch.getIoEventHandle().exceptionCaught(ch, f, e);
                 }
+                if (latency != null) {
+                    latency.end(metrics, decoded);
+                }
             }
         };
         if (!executorEventLoop.submit(job)) {
             exceptionCaught(f, TAST_REJECT);
+            return;
+        }
+        if ((pauseReasons & PAUSE_EXECUTOR) == 0 && executorEventLoop.isBusy()) {
+            // stop reading until the executor event loop is not busy
+            pauseRead0(PAUSE_EXECUTOR);
+            executorEventLoop.whenIdle(new Runnable() {
+
+                @Override
+                public void run() {
+                    resumeRead(PAUSE_EXECUTOR);
+                }
+            });
         }
     }
 
@@ -187,6 +254,9 @@ public final class Channel implements Runnable, Closeable {
 
     private void check_write_overflow() {
         if (writeBufs.size() > context.getMaxWriteBacklog()) {
+            if (JFR) {
+                JfrEvents.writeBacklogOverflow(this, writeBufs.size(), context.getMaxWriteBacklog());
+            }
             safeClose();
         }
     }
@@ -218,6 +288,18 @@ public final class Channel implements Runnable, Closeable {
     }
 
     public ByteBuf encode(Frame frame) throws Exception {
+        ProtocolCodec codec = this.codec;
+        CodecMetrics metrics = getCodecMetrics(codec);
+        if (metrics != null) {
+            if (inEventLoop()) {
+                metrics.encodes++;
+            } else {
+                metrics.remoteEncodes.incrementAndGet();
+            }
+        }
+        if (JFR) {
+            return JfrEvents.encode(codec, this, frame);
+        }
         return codec.encode(this, frame);
     }
 
@@ -232,12 +314,18 @@ public final class Channel implements Runnable, Closeable {
 
     private void finishHandshake() {
         this.sslHandshakeFinished = true;
+        if (JFR) {
+            JfrEvents.sslHandshake(this, System.currentTimeMillis() - creationTime);
+        }
         this.fireOpened();
         this.context.channelEstablish(this, null);
     }
 
     private void fireClosed() {
         eventLoop.removeChannel(unsafe.channelId);
+        if (JFR) {
+            JfrEvents.channelClosed(this);
+        }
         List<ChannelEventListener> ls = context.getChannelEventListeners();
         for (int i = 0, count = ls.size(); i < count; i++) {
             ChannelEventListener l = ls.get(i);
@@ -247,10 +335,18 @@ public final class Channel implements Runnable, Closeable {
                 logger.error(e.getMessage(), e);
             }
         }
+        try {
+            codec.channelClosed(this);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
     }
 
     protected void fireOpened() {
         setAttachment(codec.newAttachment());
+        if (JFR) {
+            JfrEvents.channelOpened(this);
+        }
         List<ChannelEventListener> ls = context.getChannelEventListeners();
         for (int i = 0, count = ls.size(); i < count; i++) {
             ChannelEventListener l = ls.get(i);
@@ -268,16 +364,34 @@ public final class Channel implements Runnable, Closeable {
     }
 
     public void flush() {
+        if (latency != null) {
+            latency.flushing();
+        }
         if (inEventLoop()) {
             if (!inEvent) {
                 inEvent = true;
-                eventLoop.getJobs().offer(this);
+                eventLoop.submitLocal(this);
             }
         } else {
             eventLoop.submit(this);
         }
     }
 
+    // null if the codec metrics is not enabled
+    private CodecMetrics getCodecMetrics(ProtocolCodec codec) {
+        CodecMetrics m = this.codecMetrics;
+        if (m != null && m.codec == codec) {
+            return m;
+        }
+        NioEventLoopMetrics metrics = eventLoop.getMetrics();
+        if (!metrics.isEnabled()) {
+            return null;
+        }
+        m = metrics.getCodecMetrics(codec);
+        this.codecMetrics = m;
+        return m;
+    }
+
     public Object getAttachment() {
         return attachment;
     }
@@ -450,6 +564,10 @@ public final class Channel implements Runnable, Closeable {
         return open;
     }
 
+    public boolean isReadPaused() {
+        return readPaused;
+    }
+
     protected boolean isSslHandshakeFinished() {
         return sslHandshakeFinished;
     }
@@ -468,10 +586,42 @@ public final class Channel implements Runnable, Closeable {
         return sb.toString();
     }
 
+    /**
+     * pause the read until {@link #resumeRead()}, the read paused by the
+     * framework (e.g. the backpressure of the executor) is not resumed by
+     * {@link #resumeRead()}
+     */
+    public void pauseRead() {
+        if (inEventLoop()) {
+            pauseRead0(PAUSE_USER);
+        } else {
+            eventLoop.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    pauseRead0(PAUSE_USER);
+                }
+            });
+        }
+    }
+
+    private void pauseRead0(int reason) {
+        pauseReasons |= reason;
+        if (isOpen() && !readPaused) {
+            readPaused = true;
+            unsafe.pauseRead();
+        }
+    }
+
     protected void read() throws Exception {
+        if (readPaused) {
+            return;
+        }
         lastAccess = System.currentTimeMillis();
         if (enableSsl) {
             read_ssl();
+        } else if (relayPeer != null) {
+            read_relay();
         } else {
             read_plain();
         }
@@ -495,6 +645,7 @@ public final class Channel implements Runnable, Closeable {
                 }
                 return;
             }
+            el.getMetrics().bytesRead += length;
             if (Native.EPOLL_AVAIABLE) {
                 src.absLimit(src.absPos() + length);
                 src.absPos(0);
@@ -504,12 +655,41 @@ public final class Channel implements Runnable, Closeable {
             }
             boolean b = src.absLimit() != src.capacity();
             accept(src);
-            if (b) {
+            if (relayPeer != null) {
+                if (!b && !readPaused) {
+                    read_relay();
+                }
+                break;
+            }
+            if (b || readPaused) {
                 break;
             }
         }
     }
 
+    // read into the pooled buffers and write them to the peer directly
+    private void read_relay() {
+        final Channel peer = this.relayPeer;
+        final int bufSize = this.relayBufSize;
+        for (;;) {
+            ByteBuf buf = alloc().allocate(bufSize);
+            int length = unsafe.read(eventLoop, buf);
+            if (length < 1) {
+                buf.release();
+                if (length == -1) {
+                    Util.close(this);
+                }
+                break;
+            }
+            eventLoop.getMetrics().bytesRead += length;
+            relay_write(buf.flip());
+            if (length < bufSize || readPaused) {
+                break;
+            }
+        }
+        peer.flush();
+    }
+
     private void read_ssl() throws Exception {
         NioEventLoop el = eventLoop;
         ByteBuf src = el.getReadBuf();
@@ -528,6 +708,7 @@ public final class Channel implements Runnable, Closeable {
                 }
                 return;
             }
+            el.getMetrics().bytesRead += length;
             if (Native.EPOLL_AVAIABLE) {
                 src.absLimit(src.absPos() + length);
                 src.absPos(0);
@@ -553,7 +734,7 @@ public final class Channel implements Runnable, Closeable {
                     break;
                 }
             }
-            if (b) {
+            if (b || readPaused) {
                 break;
             }
         }
@@ -579,6 +760,90 @@ public final class Channel implements Runnable, Closeable {
         this.sslRemainBuf = null;
     }
 
+    /**
+     * relay the bytes between this channel and the peer in both directions
+     * without the codec, e.g. the tunnel after a http CONNECT.
+     * 
+     * @see #relay(Channel, int, int)
+     */
+    public void relay(Channel peer) {
+        relay(peer, 1024 * 64, 16);
+    }
+
+    /**
+     * relay the bytes between this channel and the peer in both directions
+     * without the codec. the plain bytes are read into the pooled buffers and
+     * written to the other side without copy, the read of a side is paused while
+     * the write backlog of the other side is over the high water, and resumed
+     * once the other side flushed. when a side closed, the other side will be
+     * closed after its pending bytes flushed.
+     * <p>
+     * the two channels should be in the same event loop, and this method should
+     * be invoked in the event loop.
+     *
+     * @param bufSize the buffer size of each read
+     * @param highWater the max write backlog (buffers) of the other side
+     */
+    public void relay(Channel peer, int bufSize, int highWater) {
+        Assert.expectTrue(peer.eventLoop == eventLoop, "the peer is not in the event loop");
+        eventLoop.assertInEventLoop("relay must be invoked in the event loop");
+        this.relay_bind(peer, bufSize, highWater);
+        peer.relay_bind(this, bufSize, highWater);
+        if (!isOpen()) {
+            peer.relay_close();
+        } else if (!peer.isOpen()) {
+            relay_close();
+        }
+    }
+
+    private void relay_bind(Channel peer, int bufSize, int highWater) {
+        this.relayPeer = peer;
+        this.relayBufSize = bufSize;
+        this.relayHighWater = highWater;
+        // the bytes read but not decoded before the relay
+        ByteBuf remain = this.plainRemainBuf;
+        if (remain != null) {
+            this.plainRemainBuf = null;
+            peer.write(remain);
+            peer.flush();
+        }
+    }
+
+    // close after the pending bytes flushed
+    private void relay_close() {
+        if (writeBufs.isEmpty() && currentWriteBufsLen == 0) {
+            safeClose();
+        } else {
+            relayClosing = true;
+        }
+    }
+
+    private void relay_copy(ByteBuf src) {
+        ByteBuf buf = alloc().allocate(src.remaining());
+        buf.put(src);
+        relay_write(buf.flip());
+        relayPeer.flush();
+    }
+
+    private void relay_flushed() {
+        if (relayClosing) {
+            safeClose();
+            return;
+        }
+        Channel peer = this.relayPeer;
+        if ((peer.pauseReasons & PAUSE_RELAY) != 0 && peer.relayPeer == this) {
+            peer.resumeRead0(PAUSE_RELAY);
+        }
+    }
+
+    private void relay_write(ByteBuf buf) {
+        Channel peer = this.relayPeer;
+        peer.write(buf);
+        if (peer.writeBufs.size() > relayHighWater) {
+            pauseRead0(PAUSE_RELAY);
+        }
+    }
+
     public void release(Frame frame) {
         codec.release(eventLoop, frame);
     }
@@ -630,6 +895,35 @@ public final class Channel implements Runnable, Closeable {
         }
     }
 
+    /**
+     * resume the read paused by {@link #pauseRead()}
+     */
+    public void resumeRead() {
+        resumeRead(PAUSE_USER);
+    }
+
+    private void resumeRead(final int reason) {
+        if (inEventLoop()) {
+            resumeRead0(reason);
+        } else {
+            eventLoop.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    resumeRead0(reason);
+                }
+            });
+        }
+    }
+
+    private void resumeRead0(int reason) {
+        pauseReasons &= ~reason;
+        if (pauseReasons == 0 && isOpen() && readPaused) {
+            readPaused = false;
+            unsafe.resumeRead();
+        }
+    }
+
     private void runDelegatedTasks(SSLEngine engine) {
         for (;;) {
             Runnable task = engine.getDelegatedTask();
@@ -652,6 +946,9 @@ public final class Channel implements Runnable, Closeable {
             Util.close(unsafe);
             fireClosed();
             stopContext();
+            if (relayPeer != null) {
+                relayPeer.relay_close();
+            }
         }
     }
 
@@ -867,11 +1164,20 @@ public final class Channel implements Runnable, Closeable {
     }
 
     public void write(Frame frame) throws Exception {
-        write(codec.encode(this, frame));
+        write(encode(frame));
     }
 
     protected int write(NioEventLoopUnsafe unsafe) {
-        return this.unsafe.write(unsafe, this);
+        int res = this.unsafe.write(unsafe, this);
+        if (res == 1) {
+            if (latency != null) {
+                latency.flushed();
+            }
+            if (relayPeer != null) {
+                relay_flushed();
+            }
+        }
+        return res;
     }
 
     public void writeAndFlush(ByteBuf buf) {
@@ -880,7 +1186,7 @@ public final class Channel implements Runnable, Closeable {
     }
 
     public void writeAndFlush(Frame frame) throws Exception {
-        write(codec.encode(this, frame));
+        write(encode(frame));
         flush();
     }
 
@@ -902,8 +1208,15 @@ public final class Channel implements Runnable, Closeable {
 
         abstract boolean interestWrite();
 
+        abstract void pauseRead();
+
         abstract int read(NioEventLoop eventLoop);
 
+        // read into the remaining of the dst, the position of the dst is moved
+        abstract int read(NioEventLoop eventLoop, ByteBuf dst);
+
+        abstract void resumeRead();
+
         abstract void setOption(int name, int value) throws IOException;
 
         //1 complete, 0 keep write, -1 close
@@ -961,12 +1274,44 @@ public final class Channel implements Runnable, Closeable {
             return interestWrite;
         }
 
+        @Override
+        void pauseRead() {
+            Native.epoll_mod(epfd, fd, Native.EPOLLOUT_ET);
+        }
+
         @Override
         int read(NioEventLoop eventLoop) {
             ByteBuf buf = eventLoop.getReadBuf();
             return Native.read(fd, eventLoop.getBufAddress() + buf.absPos(), buf.remaining());
         }
 
+        @Override
+        int read(NioEventLoop eventLoop, ByteBuf dst) {
+            if (dst.hasArray()) {
+                // no native address of the heap buffer, read into the buffer of the loop and copy
+                ByteBuf buf = eventLoop.getReadBuf();
+                buf.clear();
+                long address = eventLoop.getBufAddress() + buf.absPos();
+                int len = Native.read(fd, address, Math.min(buf.remaining(), dst.remaining()));
+                if (len > 0) {
+                    buf.absLimit(buf.absPos() + len);
+                    dst.put(buf);
+                }
+                return len;
+            }
+            int len = Native.read(fd, dst.address() + dst.absPos(), dst.remaining());
+            if (len > 0) {
+                dst.skip(len);
+            }
+            return len;
+        }
+
+        @Override
+        void resumeRead() {
+            // the edge will be triggered again if there are some data not read
+            Native.epoll_mod(epfd, fd, Native.EPOLLIN_OUT_ET);
+        }
+
         @Override
         void setOption(int name, int value) throws IOException {
             Native.set_socket_opt(fd, (name >>> 16), name & 0xff, value);
@@ -979,6 +1324,7 @@ public final class Channel implements Runnable, Closeable {
             final Queue<ByteBuf> write_bufs = ch.writeBufs;
             final long iovec = ((EpollNioEventLoopUnsafe) unsafe).getIovec();
             final int iov_len = cw_bufs.length;
+            final NioEventLoopMetrics metrics = ch.eventLoop.getMetrics();
             for (;;) {
                 int cw_len = ch.currentWriteBufsLen;
                 for (; cw_len < iov_len;) {
@@ -998,8 +1344,11 @@ public final class Channel implements Runnable, Closeable {
                     if (len == -1) {
                         return -1;
                     }
+                    metrics.writes++;
+                    metrics.bytesWritten += len;
                     buf.skip(len);
                     if (buf.hasRemaining()) {
+                        metrics.partialWrites++;
                         ch.currentWriteBufsLen = 1;
                         interestWrite = true;
                         return 0;
@@ -1026,6 +1375,8 @@ public final class Channel implements Runnable, Closeable {
                     if (len == -1) {
                         return -1;
                     }
+                    metrics.writes++;
+                    metrics.bytesWritten += len;
                     for (int i = 0; i < cw_len; i++) {
                         ByteBuf buf = cw_bufs[i];
                         int r = buf.remaining();
@@ -1034,6 +1385,7 @@ public final class Channel implements Runnable, Closeable {
                             int remain = cw_len - i;
                             System.arraycopy(cw_bufs, i, cw_bufs, 0, remain);
                             fillNull(cw_bufs, remain, cw_len);
+                            metrics.partialWrites++;
                             interestWrite = true;
                             ch.currentWriteBufsLen = remain;
                             return 0;
@@ -1088,6 +1440,7 @@ public final class Channel implements Runnable, Closeable {
         private final SocketChannel channel;
         private boolean             interestWrite;
         private final SelectionKey  key;
+        private boolean             readPaused;
 
         JavaChannelUnsafe(SelectionKey key, String ra, int lp, int rp, Integer chid) {
             super(ra, lp, rp, chid);
@@ -1098,14 +1451,14 @@ public final class Channel implements Runnable, Closeable {
         private void _interestRead() {
             if (interestWrite) {
                 interestWrite = false;
-                key.interestOps(SelectionKey.OP_READ);
+                key.interestOps(readPaused ? 0 : SelectionKey.OP_READ);
             }
         }
 
         private void _interestWrite() {
             if (!interestWrite) {
                 interestWrite = true;
-                key.interestOps(INTEREST_WRITE);
+                key.interestOps(readPaused ? SelectionKey.OP_WRITE : INTEREST_WRITE);
             }
         }
 
@@ -1137,6 +1490,12 @@ public final class Channel implements Runnable, Closeable {
             return interestWrite;
         }
 
+        @Override
+        void pauseRead() {
+            readPaused = true;
+            key.interestOps(interestWrite ? SelectionKey.OP_WRITE : 0);
+        }
+
         private int nativeWrite(ByteBuffer src) {
             try {
                 return channel.write(src);
@@ -1162,6 +1521,23 @@ public final class Channel implements Runnable, Closeable {
             }
         }
 
+        @Override
+        int read(NioEventLoop eventLoop, ByteBuf dst) {
+            try {
+                int len = channel.read(dst.nioBuffer());
+                dst.reverse();
+                return len;
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        void resumeRead() {
+            readPaused = false;
+            key.interestOps(interestWrite ? INTEREST_WRITE : SelectionKey.OP_READ);
+        }
+
         @Override
         void setOption(int name, int value) throws IOException {
             SocketOption<Object> s = SocketOptions.getSocketOption(name);
@@ -1181,6 +1557,7 @@ public final class Channel implements Runnable, Closeable {
             final JavaNioEventLoopUnsafe un = (JavaNioEventLoopUnsafe) unsafe;
             final ByteBuffer[] writeBuffers = un.getWriteBuffers();
             final int maxLen = cwBufs.length;
+            final NioEventLoopMetrics metrics = ch.eventLoop.getMetrics();
             for (;;) {
                 int cwLen = ch.currentWriteBufsLen;
                 for (; cwLen < maxLen;) {
@@ -1200,7 +1577,10 @@ public final class Channel implements Runnable, Closeable {
                     if (len == -1) {
                         return -1;
                     }
+                    metrics.writes++;
+                    metrics.bytesWritten += len;
                     if (nioBuf.hasRemaining()) {
+                        metrics.partialWrites++;
                         ch.currentWriteBufsLen = 1;
                         cwBufs[0].reverse();
                         _interestWrite();
@@ -1224,6 +1604,8 @@ public final class Channel implements Runnable, Closeable {
                     if (len == -1) {
                         return -1;
                     }
+                    metrics.writes++;
+                    metrics.bytesWritten += len;
                     for (int i = 0; i < cwLen; i++) {
                         ByteBuf buf = cwBufs[i];
                         if (writeBuffers[i].hasRemaining()) {
@@ -1232,6 +1614,7 @@ public final class Channel implements Runnable, Closeable {
                             System.arraycopy(cwBufs, i, cwBufs, 0, remain);
                             fillNull(cwBufs, remain, cwLen);
                             fillNull(writeBuffers, i, cwLen);
+                            metrics.partialWrites++;
                             _interestWrite();
                             ch.currentWriteBufsLen = remain;
                             return 0;
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.component;
+
+import static com.firenio.baseio.component.NioEventLoopMetrics.FLUSH;
+import static com.firenio.baseio.component.NioEventLoopMetrics.HANDLE;
+import static com.firenio.baseio.component.NioEventLoopMetrics.TOTAL;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.firenio.baseio.component.NioEventLoopMetrics.CodecMetrics;
+
+/**
+ * latency stamps of the frames which have been decoded but the response not
+ * written yet, the frames flushed together share the stamps of the oldest one,
+ * the frames without response will be counted in the next flush.
+ * <p>
+ * begin and flushed are called by the event loop, end and flushing may be
+ * called by the executor threads, they only set the handled stamp by cas, so
+ * no lock in the recording. it is only used when the latency histogram enabled.
+ *
+ * @author wangkai
+ *
+ */
+final class ChannelLatency {
+
+    private CodecMetrics     codec;
+    // 0 if the oldest pending frame is still in handle
+    private final AtomicLong handled = new AtomicLong();
+    private int              pending;
+    // the decode start stamp of the oldest pending frame
+    private long             started;
+
+    // called by event loop before the frame handled
+    void begin(CodecMetrics codec, long started) {
+        if (pending++ == 0) {
+            this.codec = codec;
+            this.started = started;
+            this.handled.set(0);
+        }
+    }
+
+    void end(CodecMetrics codec, long decoded) {
+        long now = System.nanoTime();
+        codec.latencies[HANDLE].record(now - decoded);
+        handled.compareAndSet(0, now);
+    }
+
+    // called by event loop when all the write buffers written
+    void flushed() {
+        int pending = this.pending;
+        long handled = this.handled.get();
+        if (pending == 0 || handled == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        codec.latencies[FLUSH].record(now - handled, pending);
+        codec.latencies[TOTAL].record(now - started, pending);
+        this.pending = 0;
+        this.codec = null;
+    }
+
+    // the handle is going to flush the response, the response may be written
+    // before the handle returned
+    void flushing() {
+        if (handled.get() == 0) {
+            handled.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+}
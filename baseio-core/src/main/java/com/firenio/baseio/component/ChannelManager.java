@@ -15,8 +15,11 @@
  */
 package com.firenio.baseio.component;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -59,14 +62,36 @@ public class ChannelManager {
         channels.remove(id);
     }
 
+    /**
+     * group the channels by their event loops, submit one task to each event
+     * loop, the task writes a duplicate of the shared buf to each channel and
+     * the channels will be flushed in one pass after the task.
+     */
     public static void broadcast(ByteBuf buf, Collection<Channel> chs) {
         if (chs.size() == 0) {
             buf.release();
             return;
         }
         try {
+            Map<NioEventLoop, List<Channel>> shards = new IdentityHashMap<>();
             for (Channel ch : chs) {
-                ch.writeAndFlush(buf.duplicate());
+                NioEventLoop el = ch.getEventLoop();
+                List<Channel> shard = shards.get(el);
+                if (shard == null) {
+                    shard = new ArrayList<>();
+                    shards.put(el, shard);
+                }
+                shard.add(ch);
+            }
+            for (Map.Entry<NioEventLoop, List<Channel>> e : shards.entrySet()) {
+                NioEventLoop el = e.getKey();
+                // each task holds a reference of the buf
+                BroadcastTask task = new BroadcastTask(buf.duplicate(), e.getValue());
+                if (el.inEventLoop()) {
+                    task.run();
+                } else if (!el.submit(task)) {
+                    task.buf.release();
+                }
             }
         } finally {
             buf.release();
@@ -83,4 +108,33 @@ public class ChannelManager {
         }
     }
 
+    static final class BroadcastTask implements Runnable {
+
+        final ByteBuf       buf;
+        final List<Channel> chs;
+
+        BroadcastTask(ByteBuf buf, List<Channel> chs) {
+            this.buf = buf;
+            this.chs = chs;
+        }
+
+        @Override
+        public void run() {
+            final ByteBuf buf = this.buf;
+            final List<Channel> chs = this.chs;
+            try {
+                for (int i = 0, size = chs.size(); i < size; i++) {
+                    Channel ch = chs.get(i);
+                    if (ch.isOpen()) {
+                        ch.write(buf.duplicate());
+                        ch.flush();
+                    }
+                }
+            } finally {
+                buf.release();
+            }
+        }
+
+    }
+
 }
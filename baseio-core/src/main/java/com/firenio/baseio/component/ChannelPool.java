@@ -0,0 +1,559 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.firenio.baseio.TimeoutException;
+import com.firenio.baseio.collection.DelayedQueue.DelayTask;
+import com.firenio.baseio.collection.IntMap;
+import com.firenio.baseio.common.Assert;
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.concurrent.Callback;
+import com.firenio.baseio.concurrent.Waiter;
+import com.firenio.baseio.log.Logger;
+import com.firenio.baseio.log.LoggerFactory;
+
+/**
+ * codec agnostic connection pool keyed by the remote address, the connections
+ * are owned by the event loops of the (sharable) group, a borrower in the event
+ * loop N will get a connection of the event loop N, so the pool is accessed
+ * without any lock.
+ * <p>
+ * the connections are shared by the borrowers (the protocol should be able to
+ * multiplex, e.g. the frame id of protobase), the connection with the least
+ * pending borrows is selected, a new connection will be opened if all the
+ * connections are busy and the pool is not full. the connect failures are
+ * retried with exponential backoff and jitter, the idle connections are health
+ * checked by {@link ProtocolCodec#ping(Channel)}.
+ * <p>
+ * the sizes are limits of a remote address in each event loop.
+ *
+ * @author wangkai
+ *
+ */
+public final class ChannelPool implements Closeable {
+
+    static final IOException        CLOSED              = Util.unknownStackTrace(
+            new ClosedChannelException(), ChannelPool.class, "close");
+    static final Logger             logger              = LoggerFactory
+            .getLogger(ChannelPool.class);
+
+    private long                    backoff             = 100;
+    private volatile boolean        closed;
+    private long                    connectTimeout      = 3000;
+    private final ConnectorFactory  factory;
+    private final NioEventLoopGroup group;
+    private long                    healthCheckInterval = 30 * 1000;
+    private long                    maxBackoff          = 30 * 1000;
+    private int                     maxSize             = 8;
+    private int                     minSize             = 0;
+
+    public ChannelPool(NioEventLoopGroup group, ConnectorFactory factory) throws Exception {
+        Assert.notNull(group, "null group");
+        Assert.notNull(factory, "null factory");
+        if (!group.isSharable()) {
+            throw new IllegalArgumentException("the group of channel pool should be sharable");
+        }
+        this.group = group;
+        this.factory = factory;
+        Util.start(group);
+    }
+
+    /**
+     * borrow a connection of the remote address, the callback is invoked in the
+     * event loop which owns the connection, the connection should be released
+     * by {@link #release(Channel)} after use
+     */
+    public void acquire(final String host, final int port, final Callback<Channel> callback) {
+        Assert.notNull(callback, "null callback");
+        final NioEventLoop el = selectEventLoop();
+        if (el.inEventLoop()) {
+            acquire0(el, host, port, callback);
+        } else if (!el.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                acquire0(el, host, port, callback);
+            }
+        })) {
+            callback.call(null, Channel.TAST_REJECT);
+        }
+    }
+
+    /**
+     * borrow a connection and wait for it, can not be invoked in the event loop
+     * of the group
+     */
+    public Channel acquire(String host, int port) throws Exception {
+        if (selectEventLoop().inEventLoop()) {
+            throw new IOException("can not blocking acquire in the event loop");
+        }
+        Waiter<Channel> waiter = new Waiter<>();
+        acquire(host, port, waiter);
+        if (waiter.await(connectTimeout + 1000)) {
+            throw new TimeoutException("acquire " + host + ':' + port + " time out");
+        }
+        if (waiter.isFailed()) {
+            Throwable ex = waiter.getThrowable();
+            if (ex instanceof Exception) {
+                throw (Exception) ex;
+            }
+            throw new IOException("acquire failed", ex);
+        }
+        return waiter.getResponse();
+    }
+
+    private void acquire0(NioEventLoop el, String host, int port, Callback<Channel> callback) {
+        if (closed) {
+            call(callback, null, CLOSED);
+            return;
+        }
+        Pool pool = getLoop(el).getPool(host, port);
+        Conn c = pool.select();
+        if (c != null) {
+            if (c.pending > 0) {
+                pool.grow();
+            }
+            c.pending++;
+            call(callback, c.ch, null);
+            return;
+        }
+        if (pool.connecting == 0 && Util.now() < pool.retryTime) {
+            // backing off, fail fast
+            call(callback, null, pool.lastError);
+            return;
+        }
+        pool.waiters.offer(callback);
+        pool.grow();
+    }
+
+    /**
+     * close all the connections, the pending borrowers will be failed, the
+     * group will not be stopped
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (int i = 0; i < group.getEventLoopSize(); i++) {
+            final NioEventLoop el = group.getEventLoop(i);
+            el.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    Loop loop = (Loop) el.removeAttribute(ChannelPool.this);
+                    if (loop != null) {
+                        loop.close();
+                    }
+                }
+            });
+        }
+    }
+
+    public long getBackoff() {
+        return backoff;
+    }
+
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public NioEventLoopGroup getGroup() {
+        return group;
+    }
+
+    public long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    private Loop getLoop(NioEventLoop el) {
+        Loop loop = (Loop) el.getAttribute(this);
+        if (loop == null) {
+            loop = new Loop(el);
+            el.setAttribute(this, loop);
+            if (healthCheckInterval > 0) {
+                el.schedule(new HealthTask(loop, healthCheckInterval));
+            }
+        }
+        return loop;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * give back the connection borrowed by acquire
+     */
+    public void release(final Channel ch) {
+        final NioEventLoop el = ch.getEventLoop();
+        if (el.inEventLoop()) {
+            release0(el, ch);
+        } else {
+            el.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    release0(el, ch);
+                }
+            });
+        }
+    }
+
+    private void release0(NioEventLoop el, Channel ch) {
+        Loop loop = (Loop) el.getAttribute(this);
+        if (loop == null) {
+            return;
+        }
+        Conn c = loop.conns.get(ch.getChannelId());
+        if (c != null && c.pending > 0) {
+            c.pending--;
+        }
+    }
+
+    // stay in the current event loop if possible, the connections are owned by it
+    private NioEventLoop selectEventLoop() {
+        for (int i = 0; i < group.getEventLoopSize(); i++) {
+            NioEventLoop el = group.getEventLoop(i);
+            if (el.inEventLoop()) {
+                return el;
+            }
+        }
+        return group.getNext();
+    }
+
+    /**
+     * the base delay of the retry after a connect failure, doubled by each
+     * successive failure until the max backoff
+     */
+    public void setBackoff(long backoff) {
+        this.backoff = backoff;
+    }
+
+    public void setConnectTimeout(long connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * the interval of the health check, 0 to disable it
+     */
+    public void setHealthCheckInterval(long healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    private static void call(Callback<Channel> callback, Channel ch, Throwable ex) {
+        try {
+            callback.call(ch, ex);
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    public interface ConnectorFactory {
+
+        /**
+         * create a connector with the codec and handle, the connector should
+         * be created by {@link ChannelConnector#ChannelConnector(NioEventLoop, String, int)}
+         */
+        ChannelConnector newConnector(NioEventLoop eventLoop, String host, int port);
+
+    }
+
+    final class Conn extends ChannelEventListenerAdapter {
+
+        Channel                ch;
+        final ChannelConnector connector;
+        int                    pending;
+        final Pool             pool;
+
+        Conn(Pool pool, ChannelConnector connector) {
+            this.pool = pool;
+            this.connector = connector;
+        }
+
+        @Override
+        public void channelClosed(Channel ch) {
+            pool.conns.remove(this);
+            pool.loop.conns.remove(ch.getChannelId());
+            Util.close(connector);
+            pool.ensureMin();
+        }
+
+    }
+
+    final class HealthTask extends DelayTask {
+
+        // the pings of the last check are sent before this task created
+        private final long lastCheck = Util.now();
+        private final Loop loop;
+
+        HealthTask(Loop loop, long delay) {
+            super(delay);
+            this.loop = loop;
+        }
+
+        @Override
+        public void run() {
+            if (loop.closed) {
+                return;
+            }
+            for (Pool pool : loop.pools.values()) {
+                for (Conn c : new ArrayList<>(pool.conns)) {
+                    Channel ch = c.ch;
+                    Frame ping = ch.getCodec().ping(ch);
+                    if (ping == null) {
+                        continue;
+                    }
+                    if (ch.getLastAccessTime() < lastCheck) {
+                        // no pong since the last ping
+                        logger.info("health check failed, close {}", ch);
+                        Util.close(ch);
+                        continue;
+                    }
+                    try {
+                        ch.writeAndFlush(ping);
+                    } catch (Exception e) {
+                        logger.error(e.getMessage(), e);
+                        Util.close(ch);
+                    }
+                }
+            }
+            loop.eventLoop.schedule(new HealthTask(loop, healthCheckInterval));
+        }
+
+    }
+
+    final class Loop {
+
+        boolean                 closed;
+        final IntMap<Conn>      conns = new IntMap<>();
+        final NioEventLoop      eventLoop;
+        final Map<String, Pool> pools = new HashMap<>();
+
+        Loop(NioEventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+
+        void close() {
+            closed = true;
+            for (Pool pool : pools.values()) {
+                pool.close();
+            }
+        }
+
+        Pool getPool(String host, int port) {
+            String key = host + ':' + port;
+            Pool pool = pools.get(key);
+            if (pool == null) {
+                pool = new Pool(this, host, port);
+                pools.put(key, pool);
+                pool.ensureMin();
+            }
+            return pool;
+        }
+
+    }
+
+    final class Pool {
+
+        int                                 connecting;
+        final List<Conn>                    conns   = new ArrayList<>();
+        int                                 failures;
+        final String                        host;
+        Throwable                           lastError;
+        final Loop                          loop;
+        final int                           port;
+        DelayTask                           retryTask;
+        long                                retryTime;
+        final ArrayDeque<Callback<Channel>> waiters = new ArrayDeque<>();
+
+        Pool(Loop loop, String host, int port) {
+            this.loop = loop;
+            this.host = host;
+            this.port = port;
+        }
+
+        void close() {
+            for (;;) {
+                Callback<Channel> w = waiters.poll();
+                if (w == null) {
+                    break;
+                }
+                call(w, null, CLOSED);
+            }
+            if (retryTask != null) {
+                retryTask.cancel();
+            }
+            for (Conn c : new ArrayList<>(conns)) {
+                Util.close(c.connector);
+            }
+        }
+
+        void connect() {
+            final ChannelConnector connector = factory.newConnector(loop.eventLoop, host, port);
+            final Conn c = new Conn(this, connector);
+            connector.addChannelEventListener(c);
+            connecting++;
+            try {
+                connector.connect(new Callback<Channel>() {
+
+                    @Override
+                    public void call(Channel ch, Throwable ex) {
+                        connecting--;
+                        if (ex == null) {
+                            connected(c, ch);
+                        } else {
+                            Util.close(connector);
+                            connectFailed(ex);
+                        }
+                    }
+                }, connectTimeout);
+            } catch (Exception e) {
+                connecting--;
+                Util.close(connector);
+                connectFailed(e);
+            }
+        }
+
+        void connected(Conn c, Channel ch) {
+            if (loop.closed) {
+                Util.close(c.connector);
+                return;
+            }
+            c.ch = ch;
+            conns.add(c);
+            loop.conns.put(ch.getChannelId(), c);
+            failures = 0;
+            retryTime = 0;
+            lastError = null;
+            for (;;) {
+                Callback<Channel> w = waiters.poll();
+                if (w == null) {
+                    break;
+                }
+                Conn s = select();
+                s.pending++;
+                call(w, s.ch, null);
+            }
+        }
+
+        void connectFailed(Throwable ex) {
+            failures++;
+            lastError = ex;
+            long delay = Math.min(maxBackoff, backoff << Math.min(failures - 1, 20));
+            // equal jitter, half of the delay is random
+            delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            retryTime = Util.now() + delay;
+            logger.error("connect to {}:{} failed, retry after {} ms: {}", host, port, delay,
+                    ex.getMessage());
+            if (connecting == 0 && conns.isEmpty()) {
+                for (;;) {
+                    Callback<Channel> w = waiters.poll();
+                    if (w == null) {
+                        break;
+                    }
+                    call(w, null, ex);
+                }
+            }
+            ensureMin();
+        }
+
+        void ensureMin() {
+            if (loop.closed || closed) {
+                return;
+            }
+            long now = Util.now();
+            if (now < retryTime) {
+                if (conns.size() + connecting < minSize && retryTask == null) {
+                    retryTask = new RetryTask(this, retryTime - now);
+                    loop.eventLoop.schedule(retryTask);
+                }
+                return;
+            }
+            for (; conns.size() + connecting < minSize && Util.now() >= retryTime;) {
+                connect();
+            }
+        }
+
+        // open one more connection if no connection is opening
+        void grow() {
+            if (connecting == 0 && conns.size() < maxSize && Util.now() >= retryTime) {
+                connect();
+            }
+        }
+
+        // the open connection with the least pending borrows
+        Conn select() {
+            Conn res = null;
+            for (Conn c : conns) {
+                if (c.ch.isOpen() && (res == null || c.pending < res.pending)) {
+                    res = c;
+                    if (c.pending == 0) {
+                        break;
+                    }
+                }
+            }
+            return res;
+        }
+
+    }
+
+    final class RetryTask extends DelayTask {
+
+        private final Pool pool;
+
+        RetryTask(Pool pool, long delay) {
+            super(delay);
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            pool.retryTask = null;
+            pool.ensureMin();
+        }
+
+    }
+
+}
@@ -16,6 +16,7 @@
 package com.firenio.baseio.component;
 
 import static com.firenio.baseio.Develop.printException;
+import static com.firenio.baseio.component.FastThreadLocal.nextIndexedVariablesIndex;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -30,6 +31,7 @@ import java.nio.channels.spi.SelectorProvider;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -37,7 +39,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.firenio.baseio.Develop;
@@ -61,6 +62,7 @@ import com.firenio.baseio.component.ChannelAcceptor.JavaAcceptorUnsafe;
 import com.firenio.baseio.component.ChannelConnector.EpollConnectorUnsafe;
 import com.firenio.baseio.component.ChannelConnector.JavaConnectorUnsafe;
 import com.firenio.baseio.concurrent.EventLoop;
+import com.firenio.baseio.concurrent.ScmpArrayQueue;
 import com.firenio.baseio.log.Logger;
 import com.firenio.baseio.log.LoggerFactory;
 
@@ -70,28 +72,40 @@ import com.firenio.baseio.log.LoggerFactory;
  */
 public final class NioEventLoop extends EventLoop implements Attributes {
 
-    private static final boolean          CHANNEL_READ_FIRST = Options.isChannelReadFirst();
-    private static final Logger           logger             = newLogger();
-    private static final IOException      NOT_FINISH_CONNECT = NOT_FINISH_CONNECT();
-    private static final IOException      OVER_CH_SIZE_LIMIT = OVER_CH_SIZE_LIMIT();
-    private static final boolean          USE_HAS_TASK       = true;
-
-    private final ByteBufAllocator        alloc;
-    private final Map<Object, Object>     attributes         = new HashMap<>();
-    private final ByteBuf                 buf;
-    private final IntMap<Channel>         channels           = new IntMap<>(4096);
-    private final int                     chSizeLimit;
-    private final DelayedQueue            delayedQueue       = new DelayedQueue();
-    private final BlockingQueue<Runnable> events             = new LinkedBlockingQueue<>();
-    private final NioEventLoopGroup       group;
-    private volatile boolean              hasTask            = false;
-    private final int                     index;
-    private long                          lastIdleTime       = 0;
-    private final AtomicInteger           selecting          = new AtomicInteger();
-    private final boolean                 sharable;
-    private final NioEventLoopUnsafe      unsafe;
-    private final long                    bufAddress;
-    private final boolean                 acceptor;
+    private static final boolean           CHANNEL_READ_FIRST = Options.isChannelReadFirst();
+    private static final Logger            logger             = newLogger();
+    private static final IOException       NOT_FINISH_CONNECT = NOT_FINISH_CONNECT();
+    private static final IOException       OVER_CH_SIZE_LIMIT = OVER_CH_SIZE_LIMIT();
+    private static final boolean           USE_HAS_TASK       = true;
+    private static final int               EVENTS_BATCH       = 256;
+    private static final long              ITERATION_OFFSET   = ITERATION_OFFSET();
+    private static final int               LOOP_INDEX         = nextIndexedVariablesIndex();
+
+    private final ByteBufAllocator         alloc;
+    private final Map<Object, Object>      attributes         = new HashMap<>();
+    private final ByteBuf                  buf;
+    private final IntMap<Channel>          channels           = new IntMap<>(4096);
+    private final int                      chSizeLimit;
+    private final DelayedQueue             delayedQueue       = new DelayedQueue();
+    // events from other threads
+    private final ScmpArrayQueue<Runnable> events;
+    private final Runnable[]               eventsBatch;
+    // events from this event loop, no need to be thread safe
+    private final ArrayDeque<Runnable>     localEvents        = new ArrayDeque<>();
+    private final NioEventLoopGroup        group;
+    private volatile boolean               hasTask            = false;
+    private final int                      index;
+    // written by this event loop and read by the watchdog
+    private long                           iteration;
+    // maintained by the watchdog
+    private volatile long                  lag;
+    private long                           lastIdleTime       = 0;
+    private final NioEventLoopMetrics      metrics;
+    private final AtomicInteger            selecting          = new AtomicInteger();
+    private final boolean                  sharable;
+    private final NioEventLoopUnsafe       unsafe;
+    private final long                     bufAddress;
+    private final boolean                  acceptor;
 
     NioEventLoop(NioEventLoopGroup group, int index, String threadName) throws IOException {
         super(threadName);
@@ -101,8 +115,11 @@ public final class NioEventLoop extends EventLoop implements Attributes {
         this.acceptor = group.isAcceptor();
         this.alloc = group.getNextByteBufAllocator(index);
         this.chSizeLimit = group.getChannelSizeLimit();
+        this.events = new ScmpArrayQueue<>(group.getMaxQueueSize());
+        this.eventsBatch = new Runnable[Math.min(EVENTS_BATCH, events.capacity())];
         this.buf = ByteBuf.direct(group.getChannelReadBuffer());
         this.bufAddress = Unsafe.address(buf.getNioBuffer());
+        this.metrics = new NioEventLoopMetrics(this);
         if (Native.EPOLL_AVAIABLE) {
             this.unsafe = new EpollNioEventLoopUnsafe(this);
         } else {
@@ -191,6 +208,10 @@ public final class NioEventLoop extends EventLoop implements Attributes {
         return channels.get(channelId);
     }
 
+    public int getChannelSize() {
+        return channels.size();
+    }
+
     @SuppressWarnings("unchecked")
     private Stack<Object> getCache0(String key, int max) {
         Stack<Object> cache = (Stack<Object>) getAttribute(key);
@@ -218,9 +239,34 @@ public final class NioEventLoop extends EventLoop implements Attributes {
         return index;
     }
 
+    /**
+     * @return always null, the events are queued by a bounded array queue which
+     * is not a blocking queue
+     */
     @Override
     public BlockingQueue<Runnable> getJobs() {
-        return events;
+        return null;
+    }
+
+    protected long getIteration() {
+        return Unsafe.getLongVolatile(this, ITERATION_OFFSET);
+    }
+
+    /**
+     * @return how long (ms) this event loop has been stuck in the current iteration,
+     * always 0 if the watchdog is not enabled
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    public NioEventLoopMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public int getPendingSize() {
+        return events.size();
     }
 
     protected ByteBuf getReadBuf() {
@@ -249,18 +295,15 @@ public final class NioEventLoop extends EventLoop implements Attributes {
     }
 
     private void shutdown() {
-        if (!events.isEmpty()) {
-            for (;;) {
-                Runnable event = events.poll();
+        for (;;) {
+            Runnable event = events.poll();
+            if (event == null) {
+                event = localEvents.poll();
                 if (event == null) {
                     break;
                 }
-                try {
-                    event.run();
-                } catch (Throwable e) {
-                    logger.error(e.getMessage(), e);
-                }
             }
+            runEvent(event);
         }
         if (!delayedQueue.isEmpty()) {
             for (;;) {
@@ -284,7 +327,12 @@ public final class NioEventLoop extends EventLoop implements Attributes {
     }
 
     private boolean has_task() {
-        return USE_HAS_TASK ? hasTask : !events.isEmpty();
+        return USE_HAS_TASK ? hasTask
+                : !events.isEmpty() || !localEvents.isEmpty();
+    }
+
+    protected boolean isSelecting() {
+        return selecting.get() == 1;
     }
 
     private void clear_has_task() {
@@ -299,10 +347,15 @@ public final class NioEventLoop extends EventLoop implements Attributes {
         final long idle = group.getIdleTime();
         final NioEventLoopUnsafe unsafe = this.unsafe;
         final AtomicInteger selecting = this.selecting;
-        final BlockingQueue<Runnable> events = this.events;
         final DelayedQueue dq = this.delayedQueue;
+        final NioEventLoopMetrics metrics = this.metrics;
         long nextIdle = 0;
         long selectTime = idle;
+        FastThreadLocal.get().setIndexedVariable(LOOP_INDEX, this);
+        // the thread is started in doStart, the state is still starting here
+        for (; isStarting();) {
+            Thread.yield();
+        }
         for (;;) {
             // when this event loop is going to shutdown,we do not handle the last events 
             // because the method "submit" will return false, and if the task is closable,
@@ -330,30 +383,24 @@ public final class NioEventLoop extends EventLoop implements Attributes {
                     selected = unsafe.selectNow();
                 }
                 clear_has_task();
+                Unsafe.putOrderedLong(this, ITERATION_OFFSET, iteration + 1);
+                metrics.selects++;
                 if (selected > 0) {
+                    metrics.selectedEvents += selected;
                     unsafe.accept(selected);
+                } else {
+                    metrics.emptySelects++;
                 }
                 long now = System.currentTimeMillis();
                 if (now >= nextIdle) {
+                    metrics.rotate();
                     channelIdle(now);
                     nextIdle = now + idle;
                     selectTime = idle;
                 } else {
                     selectTime = nextIdle - now;
                 }
-                if (!events.isEmpty()) {
-                    for (;;) {
-                        Runnable event = events.poll();
-                        if (event == null) {
-                            break;
-                        }
-                        try {
-                            event.run();
-                        } catch (Throwable e) {
-                            logger.error(e.getMessage(), e);
-                        }
-                    }
-                }
+                runEvents();
                 if (!dq.isEmpty()) {
                     for (;;) {
                         DelayTask t = dq.peek();
@@ -367,6 +414,7 @@ public final class NioEventLoop extends EventLoop implements Attributes {
                         long delay = t.getDelay();
                         if (now >= delay) {
                             dq.poll();
+                            metrics.tasks++;
                             try {
                                 t.done();
                                 t.run();
@@ -380,6 +428,11 @@ public final class NioEventLoop extends EventLoop implements Attributes {
                         }
                         break;
                     }
+                    // the local events submitted by the tasks (e.g. flush) should not
+                    // wait for the next select
+                    if (USE_HAS_TASK && !localEvents.isEmpty()) {
+                        hasTask = true;
+                    }
                 }
             } catch (Throwable e) {
                 printException(logger, e, 1);
@@ -387,6 +440,48 @@ public final class NioEventLoop extends EventLoop implements Attributes {
         }
     }
 
+    private void runEvent(Runnable event) {
+        metrics.tasks++;
+        try {
+            event.run();
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    private void runEvents() {
+        final ScmpArrayQueue<Runnable> events = this.events;
+        final ArrayDeque<Runnable> localEvents = this.localEvents;
+        if (!events.isEmpty()) {
+            // run at most one queue capacity of events every loop, the remaining
+            // events will be handled after a selectNow
+            final Runnable[] batch = this.eventsBatch;
+            final int max = events.capacity();
+            for (int total = 0; total < max;) {
+                int size = events.drain(batch);
+                if (size == 0) {
+                    break;
+                }
+                for (int i = 0; i < size; i++) {
+                    Runnable event = batch[i];
+                    batch[i] = null;
+                    runEvent(event);
+                }
+                total += size;
+            }
+            if (USE_HAS_TASK && !events.isEmpty()) {
+                hasTask = true;
+            }
+        }
+        for (;;) {
+            Runnable event = localEvents.poll();
+            if (event == null) {
+                break;
+            }
+            runEvent(event);
+        }
+    }
+
     public boolean schedule(final DelayTask task) {
         if (inEventLoop()) {
             return delayedQueue.offer(task);
@@ -406,8 +501,17 @@ public final class NioEventLoop extends EventLoop implements Attributes {
         this.attributes.put(key, value);
     }
 
+    protected void setLag(long lag) {
+        this.lag = lag;
+    }
+
+    @Override
     public boolean submit(Runnable event) {
-        if (super.submit(event)) {
+        if (inEventLoop()) {
+            localEvents.offer(event);
+            return true;
+        }
+        if (offerEvent(event)) {
             wakeup();
             return true;
         } else {
@@ -418,6 +522,35 @@ public final class NioEventLoop extends EventLoop implements Attributes {
         }
     }
 
+    // the events queue is bounded, when the queue is full the producer waits until
+    // this event loop drained some events, except the producer is an event loop
+    // too, the event is rejected then, two event loops waiting for each other
+    // will never wake up
+    private boolean offerEvent(Runnable event) {
+        if (!isRunning()) {
+            return false;
+        }
+        if (events.offer(event)) {
+            return true;
+        }
+        if (inIoThread()) {
+            return false;
+        }
+        for (;;) {
+            Thread.yield();
+            if (!isRunning()) {
+                return false;
+            }
+            if (events.offer(event)) {
+                return true;
+            }
+        }
+    }
+
+    protected void submitLocal(Runnable event) {
+        localEvents.offer(event);
+    }
+
     // FIXME 会不会出现这种情况，数据已经接收到本地，但是还没有被EventLoop处理完
     // 执行stop的时候如果确保不会再有数据进来
     @Override
@@ -429,6 +562,7 @@ public final class NioEventLoop extends EventLoop implements Attributes {
             if (selecting.compareAndSet(0, 1)) {
                 selecting.set(0);
             } else {
+                metrics.wakeups.incrementAndGet();
                 unsafe.wakeup();
             }
         }
@@ -622,6 +756,7 @@ public final class NioEventLoop extends EventLoop implements Attributes {
             }
             Channel ch = new Channel(el, ctx, new EpollChannelUnsafe(epfd, fd, ra, lp, rp));
             channels.put(fd, ch);
+            el.metrics.registered++;
             ctx.getChannelManager().putChannel(ch);
             if (ch.isEnableSsl()) {
                 // fire open event later
@@ -843,6 +978,7 @@ public final class NioEventLoop extends EventLoop implements Attributes {
             sk.attach(new Channel(el, ctx, unsafe));
             Channel ch = (Channel) sk.attachment();
             channels.put(channelId, ch);
+            el.metrics.registered++;
             ctx.getChannelManager().putChannel(ch);
             if (ch.isEnableSsl()) {
                 // fire open event later
@@ -1037,6 +1173,23 @@ public final class NioEventLoop extends EventLoop implements Attributes {
         return s.toString();
     }
 
+    /**
+     * @return true if the current thread is the thread of a NioEventLoop
+     */
+    public static boolean inIoThread() {
+        Thread t = Thread.currentThread();
+        return t instanceof FastThreadLocalThread && ((FastThreadLocalThread) t).getThreadLocal()
+                .getIndexedVariable(LOOP_INDEX) != null;
+    }
+
+    private static long ITERATION_OFFSET() {
+        try {
+            return Unsafe.objectFieldOffset(NioEventLoop.class.getDeclaredField("iteration"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
     private static Logger newLogger() {
         return LoggerFactory.getLogger(NioEventLoop.class);
     }
@@ -19,17 +19,21 @@ import java.io.IOException;
 
 import com.firenio.baseio.buffer.ByteBufAllocator;
 import com.firenio.baseio.buffer.ByteBufAllocatorGroup;
+import com.firenio.baseio.buffer.PooledByteBufAllocator.PoolState;
 import com.firenio.baseio.buffer.UnpooledByteBufAllocator;
 import com.firenio.baseio.common.Util;
 import com.firenio.baseio.concurrent.EventLoopGroup;
 import com.firenio.baseio.concurrent.FixedAtomicInteger;
+import com.firenio.baseio.metrics.MetricsCollector;
+import com.firenio.baseio.metrics.MetricsRegistry;
+import com.firenio.baseio.metrics.MetricsSource;
 
 /**
  * @author wangkai
  * 注意：如需共享group，且group担当acceptor和connector时，一定要先起acceptor，
  * 或者显示调用group.setAcceptor(true)
  */
-public class NioEventLoopGroup extends EventLoopGroup {
+public class NioEventLoopGroup extends EventLoopGroup implements MetricsSource {
 
     private ByteBufAllocatorGroup allocatorGroup;
     private FixedAtomicInteger    channelIds;
@@ -38,6 +42,8 @@ public class NioEventLoopGroup extends EventLoopGroup {
     private int                   channelSizeLimit       = 1024 * 64;
     private boolean               concurrentFrameStack   = true;
     private ChannelContext        context;
+    //记录decode->handle->flush各阶段的耗时分布
+    private boolean               enableLatencyHistogram;
     private boolean               enableMemoryPool       = true;
     //内存池是否使用启用堆外内存
     private boolean               enableMemoryPoolDirect = true;
@@ -48,7 +54,12 @@ public class NioEventLoopGroup extends EventLoopGroup {
     private int                   memoryPoolRate         = 32;
     //内存池单元大小
     private int                   memoryPoolUnit         = 512;
+    //注册到registry的metrics可通过jmx或者http查看
+    private MetricsRegistry       metricsRegistry;
     private boolean               sharable;
+    //event loop卡住多久(ms)打印线程栈, 0不启用watchdog
+    private long                  stallThreshold;
+    private NioEventLoopWatchdog  watchdog;
     //单条连接write(srcs)的数量
     private int                   writeBuffers           = 32;
     private boolean               acceptor;
@@ -83,6 +94,26 @@ public class NioEventLoopGroup extends EventLoopGroup {
         super(name, 1);
     }
 
+    @Override
+    public void collect(MetricsCollector c) {
+        for (int i = 0; i < getEventLoopSize(); i++) {
+            NioEventLoop el = eventLoops[i];
+            if (el == null) {
+                continue;
+            }
+            el.getMetrics().collect(c);
+            ByteBufAllocatorGroup allocatorGroup = this.allocatorGroup;
+            if (allocatorGroup != null) {
+                PoolState s = allocatorGroup.getAllocator(i).getState();
+                String[] tags = new String[] { "loop", el.getThreadName() };
+                c.collect("baseio_buf_pool_units", tags, s.memory);
+                c.collect("baseio_buf_pool_free_units", tags, s.free);
+                c.collect("baseio_buf_pool_max_free_units", tags, s.mfree);
+                c.collect("baseio_buf_pool_used_bufs", tags, s.buf);
+            }
+        }
+    }
+
     @Override
     protected void doStart() throws Exception {
         this.channelIds = new FixedAtomicInteger(0x1000, Integer.MAX_VALUE);
@@ -97,10 +128,21 @@ public class NioEventLoopGroup extends EventLoopGroup {
         }
         Util.start(getAllocatorGroup());
         super.doStart();
+        if (stallThreshold > 0) {
+            this.watchdog = new NioEventLoopWatchdog(this, stallThreshold);
+            Util.start(watchdog);
+        }
+        if (metricsRegistry != null) {
+            metricsRegistry.register(getEventLoopName(), this);
+        }
     }
 
     @Override
     protected void doStop() {
+        if (metricsRegistry != null) {
+            metricsRegistry.unregister(getEventLoopName());
+        }
+        Util.stop(watchdog);
         Util.stop(allocatorGroup);
         super.doStop();
     }
@@ -146,6 +188,10 @@ public class NioEventLoopGroup extends EventLoopGroup {
         return memoryPoolUnit;
     }
 
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
     @Override
     public NioEventLoop getNext() {
         return eventLoops[getNextEventLoopIndex()];
@@ -160,6 +206,10 @@ public class NioEventLoopGroup extends EventLoopGroup {
         }
     }
 
+    public long getStallThreshold() {
+        return stallThreshold;
+    }
+
     public int getWriteBuffers() {
         return writeBuffers;
     }
@@ -174,6 +224,10 @@ public class NioEventLoopGroup extends EventLoopGroup {
         return concurrentFrameStack;
     }
 
+    public boolean isEnableLatencyHistogram() {
+        return enableLatencyHistogram;
+    }
+
     public boolean isEnableMemoryPool() {
         return enableMemoryPool;
     }
@@ -210,6 +264,11 @@ public class NioEventLoopGroup extends EventLoopGroup {
         this.context = context;
     }
 
+    public void setEnableLatencyHistogram(boolean enableLatencyHistogram) {
+        checkNotRunning();
+        this.enableLatencyHistogram = enableLatencyHistogram;
+    }
+
     public void setEnableMemoryPool(boolean enableMemoryPool) {
         checkNotRunning();
         this.enableMemoryPool = enableMemoryPool;
@@ -240,6 +299,16 @@ public class NioEventLoopGroup extends EventLoopGroup {
         this.memoryPoolUnit = memoryPoolUnit;
     }
 
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        checkNotRunning();
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void setStallThreshold(long stallThreshold) {
+        checkNotRunning();
+        this.stallThreshold = stallThreshold;
+    }
+
     public void setWriteBuffers(int writeBuffers) {
         checkNotRunning();
         this.writeBuffers = writeBuffers;
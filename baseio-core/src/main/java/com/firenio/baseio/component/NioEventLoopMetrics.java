@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.firenio.baseio.metrics.Histogram;
+import com.firenio.baseio.metrics.MetricsCollector;
+
+/**
+ * runtime counters of an event loop, most of the counters are plain fields
+ * which only written by the event loop thread, so no allocation and no cas in
+ * the io path, the values read by other threads may be a little stale.
+ * <p>
+ * if {@link NioEventLoopGroup#setEnableLatencyHistogram(boolean)}, every codec
+ * records the latency (ns) histograms of the stages: decode (inside the decode
+ * call which returns the frame), handle (decode returned to accept returned),
+ * flush (accept returned to the response bytes written) and total (decode
+ * started to the response bytes written), the event loop rotates the histograms
+ * every idle time.
+ * <p>
+ * the counters of the codecs are enabled only if a metrics registry is set to
+ * the group or the latency histogram is enabled.
+ *
+ * @author wangkai
+ *
+ */
+public final class NioEventLoopMetrics {
+
+    static final CodecMetrics[]     EMPTY_CODECS = new CodecMetrics[0];
+    static final int                DECODE       = 0;
+    static final int                HANDLE       = 1;
+    static final int                FLUSH        = 2;
+    static final int                TOTAL        = 3;
+    static final String[]           STAGES       = { "decode", "handle", "flush", "total" };
+    static final String[]           QUANTILES    = { "0.5", "0.99", "0.999", "1" };
+    static final double[]           PERCENTILES  = { 50, 99, 99.9, 100 };
+
+    long                            bytesRead;
+    long                            bytesWritten;
+    private volatile CodecMetrics[] codecs       = EMPTY_CODECS;
+    private final NioEventLoop      eventLoop;
+    long                            emptySelects;
+    private final boolean           enabled;
+    private final boolean           latency;
+    long                            partialWrites;
+    long                            registered;
+    long                            selectedEvents;
+    long                            selects;
+    long                            tasks;
+    // wakeup is called by other threads
+    final AtomicLong                wakeups      = new AtomicLong();
+    long                            writes;
+
+    NioEventLoopMetrics(NioEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+        this.latency = eventLoop.getGroup().isEnableLatencyHistogram();
+        this.enabled = latency || eventLoop.getGroup().getMetricsRegistry() != null;
+    }
+
+    public void collect(MetricsCollector c) {
+        String[] tags = new String[] { "loop", eventLoop.getThreadName() };
+        c.collect("baseio_selects_total", tags, selects);
+        c.collect("baseio_empty_selects_total", tags, emptySelects);
+        c.collect("baseio_selected_events_total", tags, selectedEvents);
+        c.collect("baseio_wakeups_total", tags, getWakeups());
+        c.collect("baseio_tasks_total", tags, tasks);
+        c.collect("baseio_read_bytes_total", tags, bytesRead);
+        c.collect("baseio_written_bytes_total", tags, bytesWritten);
+        c.collect("baseio_writes_total", tags, writes);
+        c.collect("baseio_partial_writes_total", tags, partialWrites);
+        c.collect("baseio_channels_registered_total", tags, registered);
+        c.collect("baseio_channels", tags, getChannels());
+        c.collect("baseio_pending_events", tags, eventLoop.getPendingSize());
+        c.collect("baseio_lag_ms", tags, eventLoop.getLag());
+        for (CodecMetrics m : codecs) {
+            String[] ctags = new String[] { "loop", tags[1], "codec", m.getProtocolId() };
+            c.collect("baseio_codec_decodes_total", ctags, m.getDecodes());
+            c.collect("baseio_codec_encodes_total", ctags, m.getEncodes());
+            if (m.latencies != null) {
+                for (int i = 0; i < STAGES.length; i++) {
+                    collect(c, ctags, STAGES[i], m.latencies[i].getInterval());
+                }
+            }
+        }
+    }
+
+    // report the quantiles of the last interval
+    private static void collect(MetricsCollector c, String[] ctags, String stage,
+            Histogram.Snapshot s) {
+        c.collect("baseio_codec_latency_ns_count",
+                new String[] { ctags[0], ctags[1], ctags[2], ctags[3], "stage", stage },
+                s.getCount());
+        for (int i = 0; i < QUANTILES.length; i++) {
+            String[] tags = new String[] { ctags[0], ctags[1], ctags[2], ctags[3], "stage", stage,
+                    "quantile", QUANTILES[i] };
+            c.collect("baseio_codec_latency_ns", tags, s.getValueAtPercentile(PERCENTILES[i]));
+        }
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getChannels() {
+        return eventLoop.getChannelSize();
+    }
+
+    /**
+     * @return the counters of the codec, create it if absent
+     */
+    public CodecMetrics getCodecMetrics(ProtocolCodec codec) {
+        CodecMetrics[] codecs = this.codecs;
+        for (int i = 0; i < codecs.length; i++) {
+            if (codecs[i].codec == codec) {
+                return codecs[i];
+            }
+        }
+        return newCodecMetrics(codec);
+    }
+
+    public CodecMetrics[] getCodecs() {
+        return codecs;
+    }
+
+    public long getEmptySelects() {
+        return emptySelects;
+    }
+
+    public long getPartialWrites() {
+        return partialWrites;
+    }
+
+    public long getRegistered() {
+        return registered;
+    }
+
+    public long getSelectedEvents() {
+        return selectedEvents;
+    }
+
+    public long getSelects() {
+        return selects;
+    }
+
+    public long getTasks() {
+        return tasks;
+    }
+
+    public long getWakeups() {
+        return wakeups.get();
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * @return true if the counters of the codecs are enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isLatency() {
+        return latency;
+    }
+
+    // called by the event loop every idle time
+    void rotate() {
+        if (latency) {
+            for (CodecMetrics m : codecs) {
+                for (Histogram h : m.latencies) {
+                    h.rotate();
+                }
+            }
+        }
+    }
+
+    private synchronized CodecMetrics newCodecMetrics(ProtocolCodec codec) {
+        CodecMetrics[] codecs = this.codecs;
+        for (int i = 0; i < codecs.length; i++) {
+            if (codecs[i].codec == codec) {
+                return codecs[i];
+            }
+        }
+        CodecMetrics m = new CodecMetrics(codec, latency);
+        CodecMetrics[] newCodecs = new CodecMetrics[codecs.length + 1];
+        System.arraycopy(codecs, 0, newCodecs, 0, codecs.length);
+        newCodecs[codecs.length] = m;
+        this.codecs = newCodecs;
+        return m;
+    }
+
+    public static final class CodecMetrics {
+
+        final ProtocolCodec codec;
+        long                decodes;
+        // encodes in the event loop
+        long                encodes;
+        // encodes in the other threads, e.g. the executor threads
+        final AtomicLong    remoteEncodes = new AtomicLong();
+        // decode, handle, flush, total, null if latency histogram not enabled
+        final Histogram[]   latencies;
+
+        CodecMetrics(ProtocolCodec codec, boolean latency) {
+            this.codec = codec;
+            if (latency) {
+                this.latencies = new Histogram[STAGES.length];
+                for (int i = 0; i < latencies.length; i++) {
+                    latencies[i] = new Histogram();
+                }
+            } else {
+                this.latencies = null;
+            }
+        }
+
+        public long getDecodes() {
+            return decodes;
+        }
+
+        public long getEncodes() {
+            return encodes + remoteEncodes.get();
+        }
+
+        /**
+         * @param stage 0: decode, 1: handle, 2: flush, 3: total
+         * @return the latency histogram (ns) of the stage, null if not enabled
+         */
+        public Histogram getLatency(int stage) {
+            return latencies == null ? null : latencies[stage];
+        }
+
+        public String getProtocolId() {
+            return codec.getProtocolId();
+        }
+
+    }
+
+}
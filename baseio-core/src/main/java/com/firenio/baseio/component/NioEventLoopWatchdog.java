@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.component;
+
+import com.firenio.baseio.LifeCycle;
+import com.firenio.baseio.log.Logger;
+import com.firenio.baseio.log.LoggerFactory;
+
+/**
+ * watch the heartbeat of the event loops, print the stack of the event loop's
+ * thread if an event loop does not finish an iteration over the threshold, it is
+ * always because of some blocking operations in the IoEventHandle.
+ *
+ * @author wangkai
+ *
+ */
+public final class NioEventLoopWatchdog extends LifeCycle implements Runnable {
+
+    private static final Logger     logger = LoggerFactory.getLogger(NioEventLoopWatchdog.class);
+
+    private final NioEventLoopGroup group;
+    private final long              interval;
+    private volatile boolean        running;
+    private final long              threshold;
+    private Thread                  thread;
+
+    public NioEventLoopWatchdog(NioEventLoopGroup group, long threshold) {
+        this.group = group;
+        this.threshold = threshold;
+        this.interval = Math.max(10, threshold / 4);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        this.running = true;
+        this.thread = new Thread(this, group.getEventLoopName() + "-watchdog");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    protected void doStop() {
+        this.running = false;
+        this.thread.interrupt();
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public void run() {
+        final int size = group.getEventLoopSize();
+        final long[] iterations = new long[size];
+        final long[] lastChanges = new long[size];
+        final boolean[] reported = new boolean[size];
+        for (; running;) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < size; i++) {
+                NioEventLoop el = group.getEventLoop(i);
+                if (el == null) {
+                    continue;
+                }
+                long iteration = el.getIteration();
+                if (iteration != iterations[i] || el.isSelecting()) {
+                    // the event loop is moving or waiting for events
+                    if (reported[i]) {
+                        reported[i] = false;
+                        logger.warn("event loop [{}] recovered after {}ms",
+                                el.getMonitor().getName(), now - lastChanges[i]);
+                    }
+                    iterations[i] = iteration;
+                    lastChanges[i] = now;
+                    el.setLag(0);
+                    continue;
+                }
+                long lag = now - lastChanges[i];
+                el.setLag(lag);
+                if (lag > threshold && !reported[i]) {
+                    reported[i] = true;
+                    Thread t = el.getMonitor();
+                    if (t != null) {
+                        logger.warn("event loop [{}] stalled over {}ms:\n{}", t.getName(), lag,
+                                stackToString(t.getStackTrace()));
+                    }
+                }
+            }
+        }
+    }
+
+    private static String stackToString(StackTraceElement[] stack) {
+        StringBuilder sb = new StringBuilder(stack.length * 64);
+        for (StackTraceElement e : stack) {
+            sb.append("\tat ");
+            sb.append(e);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+}
@@ -27,6 +27,12 @@ import com.firenio.baseio.common.Util;
  */
 public abstract class ProtocolCodec extends LifeCycle {
 
+    /**
+     * invoked in the event loop after the channel closed, release the resources
+     * held by the attachment here, e.g. an unfinished temp file
+     */
+    protected void channelClosed(Channel ch) throws Exception {}
+
     // 可能会遭受一种攻击，比如最大可接收数据为100，客户端传输到99后暂停，
     // 这样多次以后可能会导致内存溢出
     public abstract Frame decode(Channel ch, ByteBuf src) throws Exception;
@@ -0,0 +1,624 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.component;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.collection.DelayedQueue.DelayTask;
+import com.firenio.baseio.common.Assert;
+import com.firenio.baseio.common.Properties;
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.concurrent.Callback;
+import com.firenio.baseio.log.Logger;
+import com.firenio.baseio.log.LoggerFactory;
+
+/**
+ * layer 4 load balancer, the bytes of a client are relayed to one of the
+ * backends by {@link Channel#relay(Channel)}. the backend channel is opened in
+ * the event loop of the client channel, so a session never crosses threads and
+ * the state of each event loop (connection counts, warm connections) is
+ * accessed without any lock.
+ * <p>
+ * the backend is selected by the strategy:
+ * <ul>
+ * <li>least_conn: the backend with the least active sessions</li>
+ * <li>consistent_hash: by the remote address of the client, a client stays on
+ * the same backend while the backends are not changed</li>
+ * <li>p2c: the less loaded of two random backends</li>
+ * </ul>
+ * the connection counts are of the current event loop. the backends are probed
+ * by connect periodically, a backend is marked down after the continuous
+ * failures and up after the continuous successes. if the connect to the
+ * selected backend failed, the next backend will be tried.
+ * <p>
+ * the backends and the options can be configured by
+ * {@link ConfigurationParser}, e.g. lb.backends=10.0.0.1:8080,10.0.0.2:8080
+ *
+ * @author wangkai
+ *
+ */
+public final class TcpLoadBalancer implements Closeable, Configuration {
+
+    public static final String      CONSISTENT_HASH     = "consistent_hash";
+    public static final String      LEAST_CONNECTIONS   = "least_conn";
+    public static final String      POWER_OF_TWO        = "p2c";
+    static final int                HASH_REPLICAS       = 160;
+    static final Logger             logger              = LoggerFactory
+            .getLogger(TcpLoadBalancer.class);
+
+    private final ChannelAcceptor   acceptor;
+    private final List<Backend>     backendList         = new ArrayList<>();
+    private String                  backends;
+    private volatile boolean        closed;
+    private final RelayCodec        codec               = new RelayCodec();
+    private long                    connectTimeout      = 3000;
+    private final NioEventLoopGroup group;
+    private long                    healthCheckInterval = 5000;
+    private int                     healthyThreshold    = 2;
+    private int[]                   ringHashes;
+    private int[]                   ringNodes;
+    private String                  strategy            = LEAST_CONNECTIONS;
+    private int                     strategyId;
+    private int                     unhealthyThreshold  = 2;
+    private int                     warmSize;
+
+    public TcpLoadBalancer(NioEventLoopGroup group, int port) {
+        Assert.notNull(group, "null group");
+        if (!group.isSharable()) {
+            throw new IllegalArgumentException("the group of load balancer should be sharable");
+        }
+        this.group = group;
+        this.acceptor = new ChannelAcceptor(group, port);
+        // only once, the acceptor may be bound again after closed
+        this.acceptor.addProtocolCodec(codec);
+        this.acceptor.addChannelEventListener(new ClientListener());
+    }
+
+    /**
+     * add the backend, should be invoked before bind
+     */
+    public synchronized void addBackend(String host, int port) {
+        Assert.expectFalse(acceptor.isActive(), "the load balancer is running");
+        Backend b = new Backend(backendList.size(), host, port);
+        backendList.add(b);
+    }
+
+    /**
+     * add the backends like host1:port1,host2:port2
+     */
+    public void addBackends(String backends) {
+        for (String s : backends.split(",")) {
+            String v = s.trim();
+            if (v.isEmpty()) {
+                continue;
+            }
+            int i = v.lastIndexOf(':');
+            if (i == -1) {
+                throw new IllegalArgumentException("illegal backend: " + v);
+            }
+            addBackend(v.substring(0, i), Integer.parseInt(v.substring(i + 1)));
+        }
+    }
+
+    public synchronized void bind() throws Exception {
+        if (acceptor.isActive()) {
+            return;
+        }
+        Assert.expectFalse(backendList.isEmpty(), "no backend");
+        if (LEAST_CONNECTIONS.equals(strategy)) {
+            strategyId = 0;
+        } else if (CONSISTENT_HASH.equals(strategy)) {
+            strategyId = 1;
+            buildRing();
+        } else if (POWER_OF_TWO.equals(strategy)) {
+            strategyId = 2;
+        } else {
+            throw new IllegalArgumentException("unknown strategy: " + strategy);
+        }
+        closed = false;
+        acceptor.bind();
+        if (healthCheckInterval > 0) {
+            group.getEventLoop(0).schedule(new HealthTask(healthCheckInterval));
+        }
+    }
+
+    private void bindSession(Channel client, Upstream u) {
+        u.bound = true;
+        u.node.active++;
+        client.relay(u.ch);
+        client.resumeRead();
+        u.node.refill();
+    }
+
+    // the virtual nodes of the backends on the hash ring
+    private void buildRing() {
+        int size = backendList.size() * HASH_REPLICAS;
+        long[] points = new long[size];
+        int p = 0;
+        for (Backend b : backendList) {
+            String key = b.host + ':' + b.port + '#';
+            for (int i = 0; i < HASH_REPLICAS; i++) {
+                points[p++] = ((long) hash(key + i) << 32) | b.index;
+            }
+        }
+        Arrays.sort(points);
+        int[] hashes = new int[size];
+        int[] nodes = new int[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = (int) (points[i] >> 32);
+            nodes[i] = (int) points[i];
+        }
+        this.ringHashes = hashes;
+        this.ringNodes = nodes;
+    }
+
+    /**
+     * stop accepting and close the client channels and the warm connections,
+     * the backend channels of the sessions are closed by the relays
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        Util.unbind(acceptor);
+        for (int i = 0; i < group.getEventLoopSize(); i++) {
+            final NioEventLoop el = group.getEventLoop(i);
+            el.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    Loop loop = (Loop) el.removeAttribute(TcpLoadBalancer.this);
+                    if (loop != null) {
+                        loop.close();
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void configurationChanged(Properties properties) {
+        if (!Util.isNullOrBlank(backends)) {
+            addBackends(backends);
+        }
+    }
+
+    public ChannelAcceptor getAcceptor() {
+        return acceptor;
+    }
+
+    public List<Backend> getBackends() {
+        return Collections.unmodifiableList(backendList);
+    }
+
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public int getHealthyThreshold() {
+        return healthyThreshold;
+    }
+
+    private Loop getLoop(NioEventLoop el) {
+        Loop loop = (Loop) el.getAttribute(this);
+        if (loop == null) {
+            loop = new Loop(el);
+            el.setAttribute(this, loop);
+            for (Node node : loop.nodes) {
+                node.refill();
+            }
+        }
+        return loop;
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public int getUnhealthyThreshold() {
+        return unhealthyThreshold;
+    }
+
+    public int getWarmSize() {
+        return warmSize;
+    }
+
+    private void open(final Channel client, final Loop loop, final boolean[] tried) {
+        final Node node = select(loop, client, tried);
+        if (node == null) {
+            logger.error("no backend available for {}", client);
+            Util.close(client);
+            return;
+        }
+        tried[node.backend.index] = true;
+        Upstream warm = node.pollWarm();
+        if (warm != null) {
+            bindSession(client, warm);
+            return;
+        }
+        final Upstream u = node.newUpstream();
+        node.connect(u, new Callback<Channel>() {
+
+            @Override
+            public void call(Channel ch, Throwable ex) {
+                if (ex != null) {
+                    logger.error("connect to {} failed: {}", node.backend, ex.getMessage());
+                    open(client, loop, tried);
+                } else if (!client.isOpen()) {
+                    Util.close(u.connector);
+                } else {
+                    u.ch = ch;
+                    bindSession(client, u);
+                }
+            }
+        });
+    }
+
+    private Node select(Loop loop, Channel client, boolean[] tried) {
+        Node[] nodes = loop.nodes;
+        if (strategyId == 1) {
+            int[] hashes = this.ringHashes;
+            int i = Arrays.binarySearch(hashes, hash(client.getRemoteAddr()));
+            if (i < 0) {
+                i = -i - 1;
+            }
+            for (int k = 0; k < hashes.length; k++) {
+                Node node = nodes[ringNodes[(i + k) % hashes.length]];
+                if (node.available(tried)) {
+                    return node;
+                }
+            }
+            return null;
+        }
+        if (strategyId == 2) {
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            Node a = nodes[r.nextInt(nodes.length)];
+            Node b = nodes[r.nextInt(nodes.length)];
+            if (a.available(tried) && b.available(tried)) {
+                return a.active <= b.active ? a : b;
+            }
+            // some of the backends are down, fall back to least connections
+        }
+        // start from the next node in turn to break the ties
+        int start = loop.next++ & 0x7fffffff;
+        Node res = null;
+        for (int k = 0; k < nodes.length; k++) {
+            Node node = nodes[(start + k) % nodes.length];
+            if (node.available(tried) && (res == null || node.active < res.active)) {
+                res = node;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * the connect timeout of the backends and the health checks
+     */
+    public void setConnectTimeout(long connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * the interval of the health check, 0 to disable it
+     */
+    public void setHealthCheckInterval(long healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    /**
+     * the continuous successful checks to mark a backend up
+     */
+    public void setHealthyThreshold(int healthyThreshold) {
+        this.healthyThreshold = healthyThreshold;
+    }
+
+    /**
+     * the strategy of the backend selection, {@link #LEAST_CONNECTIONS},
+     * {@link #CONSISTENT_HASH} or {@link #POWER_OF_TWO}
+     */
+    public void setStrategy(String strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * the continuous failed checks to mark a backend down
+     */
+    public void setUnhealthyThreshold(int unhealthyThreshold) {
+        this.unhealthyThreshold = unhealthyThreshold;
+    }
+
+    /**
+     * the connected backend channels kept of each backend in each event loop,
+     * a new client is relayed to a warm channel without waiting for the
+     * connect, 0 to disable it
+     */
+    public void setWarmSize(int warmSize) {
+        this.warmSize = warmSize;
+    }
+
+    // fnv-1a with the final mix of murmur3
+    static int hash(String key) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    public static final class Backend {
+
+        private int              falls;
+        private volatile boolean healthy = true;
+        final String             host;
+        final int                index;
+        final int                port;
+        private int              rises;
+
+        Backend(int index, String host, int port) {
+            this.index = index;
+            this.host = host;
+            this.port = port;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        @Override
+        public String toString() {
+            return host + ':' + port;
+        }
+
+    }
+
+    final class ClientListener extends ChannelEventListenerAdapter {
+
+        @Override
+        public void channelOpened(Channel ch) {
+            // hold the bytes until the backend connected
+            ch.pauseRead();
+            Loop loop = getLoop(ch.getEventLoop());
+            open(ch, loop, new boolean[loop.nodes.length]);
+        }
+
+    }
+
+    final class HealthTask extends DelayTask {
+
+        HealthTask(long delay) {
+            super(delay);
+        }
+
+        private void probe(final Backend b, final NioEventLoop el) {
+            final ChannelConnector connector = new ChannelConnector(el, b.host, b.port);
+            connector.setPrintConfig(false);
+            connector.addProtocolCodec(codec);
+            try {
+                connector.connect(new Callback<Channel>() {
+
+                    @Override
+                    public void call(Channel ch, Throwable ex) {
+                        Util.close(connector);
+                        if (ex == null) {
+                            b.falls = 0;
+                            if (!b.healthy && ++b.rises >= healthyThreshold) {
+                                b.rises = 0;
+                                b.healthy = true;
+                                logger.info("backend {} is up", b);
+                            }
+                        } else {
+                            b.rises = 0;
+                            if (b.healthy && ++b.falls >= unhealthyThreshold) {
+                                b.falls = 0;
+                                b.healthy = false;
+                                logger.error("backend {} is down: {}", b, ex.getMessage());
+                            }
+                        }
+                    }
+                }, connectTimeout);
+            } catch (Exception e) {
+                Util.close(connector);
+                logger.error(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+            NioEventLoop el = group.getEventLoop(0);
+            for (Backend b : backendList) {
+                probe(b, el);
+            }
+            el.schedule(new HealthTask(healthCheckInterval));
+        }
+
+    }
+
+    final class Loop {
+
+        final NioEventLoop eventLoop;
+        int                next;
+        final Node[]       nodes;
+
+        Loop(NioEventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+            this.nodes = new Node[backendList.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new Node(this, backendList.get(i));
+            }
+        }
+
+        void close() {
+            for (Node node : nodes) {
+                for (;;) {
+                    Upstream u = node.warm.poll();
+                    if (u == null) {
+                        break;
+                    }
+                    Util.close(u.connector);
+                }
+            }
+        }
+
+    }
+
+    // the state of a backend in the event loop
+    final class Node {
+
+        int                        active;
+        final Backend              backend;
+        final Loop                 loop;
+        final ArrayDeque<Upstream> warm = new ArrayDeque<>();
+        int                        warming;
+
+        Node(Loop loop, Backend backend) {
+            this.loop = loop;
+            this.backend = backend;
+        }
+
+        boolean available(boolean[] tried) {
+            return backend.healthy && !tried[backend.index];
+        }
+
+        void connect(Upstream u, Callback<Channel> callback) {
+            try {
+                u.connector.connect(callback, connectTimeout);
+            } catch (Exception e) {
+                Util.close(u.connector);
+                callback.call(null, e);
+            }
+        }
+
+        Upstream newUpstream() {
+            ChannelConnector connector = new ChannelConnector(loop.eventLoop, backend.host,
+                    backend.port);
+            connector.setPrintConfig(false);
+            connector.addProtocolCodec(codec);
+            Upstream u = new Upstream(this, connector);
+            connector.addChannelEventListener(u);
+            return u;
+        }
+
+        Upstream pollWarm() {
+            for (;;) {
+                Upstream u = warm.poll();
+                if (u == null || u.ch.isOpen()) {
+                    return u;
+                }
+            }
+        }
+
+        // open the warm channels up to the warm size
+        void refill() {
+            int n = warmSize - warm.size() - warming;
+            for (int i = 0; i < n && !closed && backend.healthy; i++) {
+                final Upstream u = newUpstream();
+                warming++;
+                connect(u, new Callback<Channel>() {
+
+                    @Override
+                    public void call(Channel ch, Throwable ex) {
+                        warming--;
+                        if (ex != null) {
+                            Util.close(u.connector);
+                        } else if (closed) {
+                            Util.close(u.connector);
+                        } else {
+                            u.ch = ch;
+                            warm.offer(u);
+                        }
+                    }
+                });
+            }
+        }
+
+    }
+
+    // the bytes are relayed, nothing to decode
+    static final class RelayCodec extends ProtocolCodec {
+
+        @Override
+        public Frame decode(Channel ch, ByteBuf src) {
+            return null;
+        }
+
+        @Override
+        public ByteBuf encode(Channel ch, Frame frame) {
+            return null;
+        }
+
+        @Override
+        public String getProtocolId() {
+            return "tcp-lb";
+        }
+
+        @Override
+        public int headerLength() {
+            return 0;
+        }
+
+    }
+
+    final class Upstream extends ChannelEventListenerAdapter {
+
+        boolean                bound;
+        Channel                ch;
+        final ChannelConnector connector;
+        final Node             node;
+
+        Upstream(Node node, ChannelConnector connector) {
+            this.node = node;
+            this.connector = connector;
+        }
+
+        @Override
+        public void channelClosed(Channel ch) {
+            if (bound) {
+                node.active--;
+            } else {
+                node.warm.remove(this);
+            }
+            Util.close(connector);
+        }
+
+    }
+
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.collection.DelayedQueue.DelayTask;
+import com.firenio.baseio.collection.IntArray;
+import com.firenio.baseio.collection.IntHashSet;
+
+/**
+ * topic registry for pub/sub, the subscribers of a topic are sharded by the
+ * event loops, each shard is a channel id set owned by its event loop, so the
+ * subscribe, unsubscribe and fan out of a shard always run in that event loop
+ * without any lock.
+ * <p>
+ * a frame is encoded once per publish, then one task will be submitted to each
+ * event loop which has subscribers of the topic, the closed channels will be
+ * removed from the shard lazily.
+ * <p>
+ * a subscriber is slow if its write backlog reach the slowBacklog, the message
+ * to a slow subscriber will be dropped (SLOW_DROP), or conflated
+ * (SLOW_CONFLATE): only the latest message of the topic is kept and delivered
+ * when the subscriber catches up.
+ *
+ * @author wangkai
+ *
+ */
+public final class TopicRegistry {
+
+    public static final int                    SLOW_CONFLATE  = 1;
+    public static final int                    SLOW_DROP      = 0;
+
+    private final AtomicLong                   dropped        = new AtomicLong();
+    private final NioEventLoopGroup            group;
+    private int                                retryInterval  = 16;
+    private int                                slowBacklog    = 64;
+    private int                                slowPolicy     = SLOW_DROP;
+    private final ConcurrentMap<String, Topic> topics         = new ConcurrentHashMap<>();
+    private final Map<String, Topic>           readOnlyTopics = Collections.unmodifiableMap(topics);
+
+    public TopicRegistry(NioEventLoopGroup group) {
+        this.group = group;
+    }
+
+    /**
+     * @return the count of the messages dropped or conflated for the slow
+     * subscribers
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public NioEventLoopGroup getGroup() {
+        return group;
+    }
+
+    private Topic getOrNewTopic(String name) {
+        Topic topic = topics.get(name);
+        if (topic == null) {
+            topic = new Topic(name, group.getEventLoopSize());
+            Topic old = topics.putIfAbsent(name, topic);
+            if (old != null) {
+                topic = old;
+            }
+        }
+        return topic;
+    }
+
+    public int getRetryInterval() {
+        return retryInterval;
+    }
+
+    public int getSlowBacklog() {
+        return slowBacklog;
+    }
+
+    public int getSlowPolicy() {
+        return slowPolicy;
+    }
+
+    public Topic getTopic(String name) {
+        return topics.get(name);
+    }
+
+    public Map<String, Topic> getTopics() {
+        return readOnlyTopics;
+    }
+
+    /**
+     * publish the encoded buf to the subscribers of the topic, the buf will be
+     * released by the registry
+     */
+    public void publish(String name, ByteBuf buf) {
+        Topic topic = topics.get(name);
+        if (topic == null) {
+            buf.release();
+            return;
+        }
+        publish(topic, buf);
+    }
+
+    /**
+     * encode the frame once by the codec of the encoder, and publish it, the
+     * encoder is any channel with the same codec as the subscribers, e.g. the
+     * channel of the publisher
+     */
+    public void publish(String name, Frame frame, Channel encoder) throws Exception {
+        Topic topic = topics.get(name);
+        if (topic == null) {
+            return;
+        }
+        publish(topic, encoder.encode(frame));
+    }
+
+    private void publish(Topic topic, ByteBuf buf) {
+        try {
+            TopicShard[] shards = topic.shards;
+            for (int i = 0; i < shards.length; i++) {
+                TopicShard shard = shards[i];
+                if (shard.size == 0) {
+                    continue;
+                }
+                NioEventLoop el = group.getEventLoop(i);
+                // each task holds a reference of the buf
+                PublishTask task = new PublishTask(this, el, shard, buf.duplicate());
+                if (el.inEventLoop()) {
+                    task.run();
+                } else if (!el.submit(task)) {
+                    task.buf.release();
+                }
+            }
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * remove the topic, the subscribers and the pending message of the slow
+     * subscribers are cleared in the event loops
+     */
+    public void removeTopic(String name) {
+        Topic topic = topics.remove(name);
+        if (topic == null) {
+            return;
+        }
+        TopicShard[] shards = topic.shards;
+        for (int i = 0; i < shards.length; i++) {
+            final TopicShard shard = shards[i];
+            NioEventLoop el = group.getEventLoop(i);
+            if (el.inEventLoop()) {
+                shard.clear();
+            } else if (!el.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    shard.clear();
+                }
+            })) {
+                // the event loop is stopped
+                shard.clear();
+            }
+        }
+    }
+
+    public void setRetryInterval(int retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    public void setSlowBacklog(int slowBacklog) {
+        this.slowBacklog = slowBacklog;
+    }
+
+    public void setSlowPolicy(int slowPolicy) {
+        this.slowPolicy = slowPolicy;
+    }
+
+    public void subscribe(Channel ch, String name) {
+        final NioEventLoop el = ch.getEventLoop();
+        if (el.getGroup() != group) {
+            throw new IllegalArgumentException("channel not in this group: " + ch);
+        }
+        final Topic topic = getOrNewTopic(name);
+        final TopicShard shard = topic.shards[el.getIndex()];
+        final int channelId = ch.getChannelId();
+        if (el.inEventLoop()) {
+            shard.add(channelId);
+        } else {
+            el.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    shard.add(channelId);
+                }
+            });
+        }
+    }
+
+    public void unsubscribe(Channel ch, String name) {
+        final Topic topic = topics.get(name);
+        if (topic == null) {
+            return;
+        }
+        final NioEventLoop el = ch.getEventLoop();
+        final TopicShard shard = topic.shards[el.getIndex()];
+        final int channelId = ch.getChannelId();
+        if (el.inEventLoop()) {
+            shard.remove(channelId);
+        } else {
+            el.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    shard.remove(channelId);
+                }
+            });
+        }
+    }
+
+    public static final class Topic {
+
+        private final String       name;
+        private final TopicShard[] shards;
+
+        Topic(String name, int eventLoopSize) {
+            this.name = name;
+            this.shards = new TopicShard[eventLoopSize];
+            for (int i = 0; i < eventLoopSize; i++) {
+                shards[i] = new TopicShard();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the approximate count of the subscribers
+         */
+        public int getSubscriberSize() {
+            int size = 0;
+            for (TopicShard s : shards) {
+                size += s.size;
+            }
+            return size;
+        }
+
+    }
+
+    static final class PublishTask implements Runnable {
+
+        final ByteBuf       buf;
+        final NioEventLoop  el;
+        final TopicRegistry registry;
+        final TopicShard    shard;
+
+        PublishTask(TopicRegistry registry, NioEventLoop el, TopicShard shard, ByteBuf buf) {
+            this.registry = registry;
+            this.el = el;
+            this.shard = shard;
+            this.buf = buf;
+        }
+
+        @Override
+        public void run() {
+            try {
+                shard.publish(registry, el, buf);
+            } finally {
+                buf.release();
+            }
+        }
+
+    }
+
+    static final class RetryTask extends DelayTask {
+
+        final NioEventLoop  el;
+        final TopicRegistry registry;
+        final TopicShard    shard;
+
+        RetryTask(TopicRegistry registry, NioEventLoop el, TopicShard shard) {
+            super(registry.retryInterval);
+            this.registry = registry;
+            this.el = el;
+            this.shard = shard;
+        }
+
+        @Override
+        public void run() {
+            shard.retry(registry, el);
+        }
+
+    }
+
+    // all the fields only accessed in the event loop, except the size
+    static final class TopicShard {
+
+        final IntArray   deads = new IntArray();
+        final IntArray   done  = new IntArray();
+        final IntHashSet ids   = new IntHashSet();
+        // iterating the ids or slows, the write/flush in the loop may close the
+        // channel and unsubscribe it, the removes are deferred to the deads
+        boolean          iterating;
+        // the latest message for the slow subscribers, only used in conflate policy
+        ByteBuf          latest;
+        // the topic is removed
+        boolean          removed;
+        boolean          retrying;
+        volatile int     size;
+        final IntHashSet slows = new IntHashSet();
+
+        void add(int channelId) {
+            if (removed) {
+                return;
+            }
+            ids.add(channelId);
+            size = ids.size();
+        }
+
+        void clear() {
+            removed = true;
+            ids.clear();
+            slows.clear();
+            size = 0;
+            if (latest != null) {
+                latest.release();
+                latest = null;
+            }
+        }
+
+        private boolean isSlow(TopicRegistry registry, Channel ch) {
+            return ch.getWriteBacklog() >= registry.slowBacklog;
+        }
+
+        void publish(TopicRegistry registry, NioEventLoop el, ByteBuf buf) {
+            if (removed) {
+                return;
+            }
+            final IntHashSet ids = this.ids;
+            final boolean conflate = registry.slowPolicy == SLOW_CONFLATE;
+            boolean conflated = false;
+            iterating = true;
+            for (int i = 0, cap = ids.capacity(); i < cap; i++) {
+                int id = ids.indexKey(i);
+                if (id == IntHashSet.FREE) {
+                    continue;
+                }
+                Channel ch = el.getChannel(id);
+                if (ch == null || !ch.isOpen()) {
+                    deads.add(id);
+                    continue;
+                }
+                if (isSlow(registry, ch)) {
+                    registry.dropped.incrementAndGet();
+                    if (conflate) {
+                        slows.add(id);
+                        conflated = true;
+                    }
+                    continue;
+                }
+                if (conflate) {
+                    // the subscriber caught up, the pending message is stale
+                    slows.remove(id);
+                }
+                ch.write(buf.duplicate());
+                ch.flush();
+            }
+            iterating = false;
+            removeDeads();
+            if (removed) {
+                // cleared by the write listeners
+                return;
+            }
+            if (conflated) {
+                if (latest != null) {
+                    latest.release();
+                }
+                latest = buf.duplicate();
+                if (!retrying) {
+                    retrying = el.schedule(new RetryTask(registry, el, this));
+                }
+            } else if (latest != null && slows.isEmpty()) {
+                latest.release();
+                latest = null;
+            }
+        }
+
+        void remove(int channelId) {
+            if (iterating) {
+                deads.add(channelId);
+                return;
+            }
+            ids.remove(channelId);
+            slows.remove(channelId);
+            size = ids.size();
+        }
+
+        private void removeDeads() {
+            IntArray deads = this.deads;
+            if (deads.isEmpty()) {
+                return;
+            }
+            for (int i = 0, size = deads.size(); i < size; i++) {
+                remove(deads.get(i));
+            }
+            deads.clear();
+        }
+
+        void retry(TopicRegistry registry, NioEventLoop el) {
+            final IntHashSet slows = this.slows;
+            final ByteBuf latest = this.latest;
+            this.retrying = false;
+            if (removed) {
+                return;
+            }
+            if (latest == null) {
+                slows.clear();
+                return;
+            }
+            final IntArray done = this.done;
+            iterating = true;
+            for (int i = 0, cap = slows.capacity(); i < cap; i++) {
+                int id = slows.indexKey(i);
+                if (id == IntHashSet.FREE) {
+                    continue;
+                }
+                Channel ch = el.getChannel(id);
+                if (ch == null || !ch.isOpen()) {
+                    deads.add(id);
+                    continue;
+                }
+                if (isSlow(registry, ch)) {
+                    continue;
+                }
+                ch.write(latest.duplicate());
+                ch.flush();
+                done.add(id);
+            }
+            iterating = false;
+            removeDeads();
+            for (int i = 0, size = done.size(); i < size; i++) {
+                slows.remove(done.get(i));
+            }
+            done.clear();
+            if (removed) {
+                // cleared by the write listeners, the latest is released
+                return;
+            }
+            if (slows.isEmpty()) {
+                latest.release();
+                this.latest = null;
+            } else {
+                retrying = el.schedule(new RetryTask(registry, el, this));
+            }
+        }
+
+    }
+
+}
@@ -65,6 +65,10 @@ public abstract class EventLoop extends LifeCycle implements Runnable {
         return getGroup().getMaxQueueSize();
     }
 
+    /**
+     * @return the thread of this event loop, null if this event loop does not
+     * own a thread
+     */
     public Thread getMonitor() {
         return monitor;
     }
@@ -73,6 +77,10 @@ public abstract class EventLoop extends LifeCycle implements Runnable {
         return getJobs().size();
     }
 
+    public String getThreadName() {
+        return threadName;
+    }
+
     public boolean inEventLoop() {
         return inEventLoop(Thread.currentThread());
     }
@@ -81,6 +89,14 @@ public abstract class EventLoop extends LifeCycle implements Runnable {
         return getMonitor() == thread;
     }
 
+    /**
+     * @return true if the producers should slow down, e.g. channels will pause
+     * reading until this event loop is idle
+     */
+    public boolean isBusy() {
+        return false;
+    }
+
     @Override
     public void run() {
         for (; isRunning();) {
@@ -100,6 +116,14 @@ public abstract class EventLoop extends LifeCycle implements Runnable {
         return !(!isRunning() && jobs.remove(job));
     }
 
+    /**
+     * the job will be executed once this event loop is not busy, it may be executed
+     * immediately in the caller thread
+     */
+    public void whenIdle(Runnable job) {
+        job.run();
+    }
+
     static class DefaultEventLoopGroup extends EventLoopGroup {
 
         private EventLoop eventLoop;
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.concurrent;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.log.Logger;
+import com.firenio.baseio.log.LoggerFactory;
+
+/**
+ * executor group which keeps the order of jobs submitted to the same event loop
+ * <p>
+ * every call of {@link #getNext()} returns a new serial lane, the caller should
+ * hold the lane (each channel holds one lane), jobs of a lane run one by one, the
+ * jobs of different lanes are not ordered. the lanes are hashed onto the worker
+ * queues, and an idle worker will steal lanes from the other workers.
+ *
+ * @author wangkai
+ *
+ */
+public class OrderedExecutorEventLoopGroup extends EventLoopGroup {
+
+    // max jobs of a lane run in one schedule, give the other lanes a chance
+    private static final int    LANE_BATCH = 64;
+    private static final Logger logger     = newLogger();
+
+    private final AtomicInteger laneIndex  = new AtomicInteger();
+    private SerialEventLoop[]   homeLanes;
+    private Worker[]            workers;
+
+    public OrderedExecutorEventLoopGroup() {
+        this("event-process");
+    }
+
+    public OrderedExecutorEventLoopGroup(String eventLoopName) {
+        this(eventLoopName, 1024 * 4);
+    }
+
+    public OrderedExecutorEventLoopGroup(String eventLoopName, int maxQueueSize) {
+        this(eventLoopName, Util.availableProcessors() * 2, maxQueueSize);
+    }
+
+    public OrderedExecutorEventLoopGroup(String name, int eventLoopSize, int maxQueueSize) {
+        super(name, eventLoopSize, maxQueueSize);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        int eventLoopSize = getEventLoopSize();
+        this.workers = new Worker[eventLoopSize];
+        this.homeLanes = new SerialEventLoop[eventLoopSize];
+        for (int i = 0; i < eventLoopSize; i++) {
+            workers[i] = new Worker(this, i);
+            homeLanes[i] = new SerialEventLoop(this, i);
+        }
+        for (int i = 0; i < eventLoopSize; i++) {
+            Util.exec(workers[i], getEventLoopName() + "-" + i);
+        }
+    }
+
+    @Override
+    protected void doStop() {
+        Worker[] workers = this.workers;
+        for (Worker w : workers) {
+            w.stop();
+        }
+        // a running worker may offer its lane back, drain the lanes after it exited
+        for (Worker w : workers) {
+            w.awaitExit();
+        }
+        // run the remaining jobs in the stopping thread
+        for (Worker w : workers) {
+            for (;;) {
+                SerialEventLoop lane = w.lanes.poll();
+                if (lane == null) {
+                    break;
+                }
+                lane.runJobs(Integer.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * @return the serial lane homed on the worker with the specified index, the
+     * same lane is returned for the same index
+     */
+    @Override
+    public SerialEventLoop getEventLoop(int index) {
+        return homeLanes[index % homeLanes.length];
+    }
+
+    /**
+     * @return a new serial lane, jobs submit to the same lane will be executed in
+     * order, the caller should hold the lane for the jobs need to be ordered
+     */
+    @Override
+    public SerialEventLoop getNext() {
+        int index = laneIndex.getAndIncrement() & Integer.MAX_VALUE;
+        return new SerialEventLoop(this, index % getEventLoopSize());
+    }
+
+    private void schedule(SerialEventLoop lane, int home) {
+        Worker[] workers = this.workers;
+        Worker w = workers[home];
+        w.lanes.offer(lane);
+        if (w.waiting) {
+            LockSupport.unpark(w.thread);
+            return;
+        }
+        // the home worker is busy, wake up an idle worker to steal it
+        for (int i = 1; i < workers.length; i++) {
+            Worker o = workers[(home + i) % workers.length];
+            if (o.waiting) {
+                LockSupport.unpark(o.thread);
+                return;
+            }
+        }
+    }
+
+    private SerialEventLoop steal(int index) {
+        Worker[] workers = this.workers;
+        for (int i = 1; i < workers.length; i++) {
+            SerialEventLoop lane = workers[(index + i) % workers.length].lanes.poll();
+            if (lane != null) {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    public static final class SerialEventLoop extends EventLoop {
+
+        private final OrderedExecutorEventLoopGroup   group;
+        private final int                             home;
+        private final ConcurrentLinkedQueue<Runnable> jobs      = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger                   pending   = new AtomicInteger();
+        private final AtomicInteger                   scheduled = new AtomicInteger();
+
+        SerialEventLoop(OrderedExecutorEventLoopGroup group, int home) {
+            super(group.getEventLoopName());
+            this.group = group;
+            this.home = home;
+        }
+
+        @Override
+        public OrderedExecutorEventLoopGroup getGroup() {
+            return group;
+        }
+
+        /**
+         * @return always null, the jobs of a lane are queued
+         * by a concurrent linked queue
+         */
+        @Override
+        protected BlockingQueue<Runnable> getJobs() {
+            return null;
+        }
+
+        @Override
+        public int getPendingSize() {
+            return pending.get();
+        }
+
+        @Override
+        public boolean inEventLoop() {
+            return false;
+        }
+
+        @Override
+        public boolean inEventLoop(Thread thread) {
+            return false;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return group.isRunning();
+        }
+
+        /**
+         * run the pending jobs of this lane in the caller thread, do nothing if
+         * the lane is being scheduled by a worker
+         */
+        @Override
+        public void run() {
+            if (scheduled.compareAndSet(0, 1) && runJobs(Integer.MAX_VALUE)) {
+                group.schedule(this, home);
+            }
+        }
+
+        // run at most max jobs, return true if this lane need to be scheduled again
+        boolean runJobs(int max) {
+            for (int i = 0; i < max; i++) {
+                Runnable job = jobs.poll();
+                if (job == null) {
+                    break;
+                }
+                pending.decrementAndGet();
+                runJob(job);
+            }
+            scheduled.set(0);
+            return !jobs.isEmpty() && scheduled.compareAndSet(0, 1);
+        }
+
+        @Override
+        public boolean submit(Runnable job) {
+            if (!group.isRunning()) {
+                return false;
+            }
+            if (pending.incrementAndGet() > group.getMaxQueueSize()) {
+                pending.decrementAndGet();
+                return false;
+            }
+            jobs.offer(job);
+            if (scheduled.compareAndSet(0, 1)) {
+                group.schedule(this, home);
+            }
+            return true;
+        }
+
+    }
+
+    static final class Worker implements Runnable {
+
+        final CountDownLatch                         exited  = new CountDownLatch(1);
+        final OrderedExecutorEventLoopGroup          group;
+        final int                                    index;
+        final ConcurrentLinkedQueue<SerialEventLoop> lanes   = new ConcurrentLinkedQueue<>();
+        volatile boolean                             running = true;
+        volatile Thread                              thread;
+        volatile boolean                             waiting;
+
+        Worker(OrderedExecutorEventLoopGroup group, int index) {
+            this.group = group;
+            this.index = index;
+        }
+
+        // the worker does not wait for itself when the group is stopped by its job
+        void awaitExit() {
+            if (thread == Thread.currentThread()) {
+                return;
+            }
+            try {
+                exited.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private SerialEventLoop next() {
+            SerialEventLoop lane = lanes.poll();
+            if (lane == null) {
+                lane = group.steal(index);
+            }
+            return lane;
+        }
+
+        @Override
+        public void run() {
+            this.thread = Thread.currentThread();
+            try {
+                loop();
+            } finally {
+                exited.countDown();
+            }
+        }
+
+        private void loop() {
+            for (; running;) {
+                SerialEventLoop lane = next();
+                if (lane == null) {
+                    waiting = true;
+                    lane = next();
+                    if (lane == null) {
+                        LockSupport.parkNanos(this, 1000L * 1000 * 1000);
+                        waiting = false;
+                        continue;
+                    }
+                    waiting = false;
+                }
+                for (; lane.runJobs(LANE_BATCH);) {
+                    if (!lanes.isEmpty()) {
+                        // let the other lanes of this worker run first
+                        lanes.offer(lane);
+                        break;
+                    }
+                }
+            }
+            // the group may be stopped by a job of this worker, which does not wait
+            // for this worker, run the lanes offered back after the stop
+            for (;;) {
+                SerialEventLoop lane = lanes.poll();
+                if (lane == null) {
+                    break;
+                }
+                lane.runJobs(Integer.MAX_VALUE);
+            }
+        }
+
+        void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+    }
+
+    private static Logger newLogger() {
+        return LoggerFactory.getLogger(OrderedExecutorEventLoopGroup.class);
+    }
+
+    private static void runJob(Runnable job) {
+        try {
+            job.run();
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.concurrent;
+
+import com.firenio.baseio.common.Unsafe;
+
+/**
+ * bounded array queue, single consumer and multi producer
+ * <p>
+ * producers claim a slot by cas the producer index and then publish the element
+ * with an ordered store, the consumer treats a null slot as "not published yet",
+ * the consumer index is only written by the consumer thread.
+ *
+ * @author wangkai
+ *
+ */
+public final class ScmpArrayQueue<V> extends ScmpArrayQueuePad2 {
+
+    private static final long ARRAY_BASE;
+    private static final int  ARRAY_SHIFT;
+    private static final long CONSUMER_INDEX;
+    private static final long PRODUCER_INDEX;
+
+    static {
+        try {
+            int scale = Unsafe.arrayIndexScale(Object[].class);
+            if (scale == 4) {
+                ARRAY_SHIFT = 2;
+            } else if (scale == 8) {
+                ARRAY_SHIFT = 3;
+            } else {
+                throw new Error("unknown pointer size: " + scale);
+            }
+            ARRAY_BASE = Unsafe.arrayBaseOffset(Object[].class);
+            CONSUMER_INDEX = Unsafe.objectFieldOffset(
+                    ScmpArrayQueueConsumerIndex.class.getDeclaredField("consumerIndex"));
+            PRODUCER_INDEX = Unsafe.objectFieldOffset(
+                    ScmpArrayQueueProducerIndex.class.getDeclaredField("producerIndex"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    private final Object[]    buffer;
+    private final int         capacity;
+    private final int         mask;
+
+    public ScmpArrayQueue(int capacity) {
+        if (capacity < 2) {
+            capacity = 2;
+        }
+        int cap = Integer.highestOneBit(capacity);
+        if (cap < capacity) {
+            cap <<= 1;
+        }
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.buffer = new Object[cap];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * drain the published elements into dst, the consumer index will be published
+     * only once for the whole batch
+     *
+     * @return the count of the drained elements
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(V[] dst) {
+        final Object[] buffer = this.buffer;
+        final int mask = this.mask;
+        final long cIndex = consumerIndex;
+        final int limit = dst.length;
+        int i = 0;
+        for (; i < limit; i++) {
+            long offset = offset(cIndex + i, mask);
+            Object v = Unsafe.getObjectVolatile(buffer, offset);
+            if (v == null) {
+                break;
+            }
+            Unsafe.putObject(buffer, offset, null);
+            dst[i] = (V) v;
+        }
+        if (i > 0) {
+            Unsafe.putOrderedLong(this, CONSUMER_INDEX, cIndex + i);
+        }
+        return i;
+    }
+
+    public boolean isEmpty() {
+        return consumerIndex == producerIndex;
+    }
+
+    public boolean offer(V v) {
+        if (v == null) {
+            throw new NullPointerException();
+        }
+        final int capacity = this.capacity;
+        long pIndex;
+        for (;;) {
+            pIndex = producerIndex;
+            if (pIndex - consumerIndex >= capacity) {
+                return false;
+            }
+            if (Unsafe.compareAndSwapLong(this, PRODUCER_INDEX, pIndex, pIndex + 1)) {
+                break;
+            }
+        }
+        Unsafe.putOrderedObject(buffer, offset(pIndex, mask), v);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V poll() {
+        final Object[] buffer = this.buffer;
+        final long cIndex = consumerIndex;
+        final long offset = offset(cIndex, mask);
+        Object v = Unsafe.getObjectVolatile(buffer, offset);
+        if (v == null) {
+            if (cIndex == producerIndex) {
+                return null;
+            }
+            // the slot has been claimed by a producer but not published yet
+            do {
+                v = Unsafe.getObjectVolatile(buffer, offset);
+            } while (v == null);
+        }
+        Unsafe.putObject(buffer, offset, null);
+        Unsafe.putOrderedLong(this, CONSUMER_INDEX, cIndex + 1);
+        return (V) v;
+    }
+
+    public int size() {
+        // read consumer index first, then the size will never be negative
+        long cIndex = consumerIndex;
+        long size = producerIndex - cIndex;
+        if (size > capacity) {
+            return capacity;
+        }
+        return (int) size;
+    }
+
+    private static long offset(long index, int mask) {
+        return ARRAY_BASE + ((index & mask) << ARRAY_SHIFT);
+    }
+
+}
+
+// the fields of a super class are always laid out before the fields of its sub
+// classes, so the paddings are declared in a class hierarchy, the order of the
+// fields in a class is not guaranteed by the jvm
+
+abstract class ScmpArrayQueuePad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class ScmpArrayQueueProducerIndex extends ScmpArrayQueuePad0 {
+    volatile long producerIndex;
+}
+
+abstract class ScmpArrayQueuePad1 extends ScmpArrayQueueProducerIndex {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class ScmpArrayQueueConsumerIndex extends ScmpArrayQueuePad1 {
+    volatile long consumerIndex;
+}
+
+abstract class ScmpArrayQueuePad2 extends ScmpArrayQueueConsumerIndex {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
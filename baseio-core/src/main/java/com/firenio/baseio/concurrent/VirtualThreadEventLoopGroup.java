@@ -0,0 +1,351 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.firenio.baseio.log.Logger;
+import com.firenio.baseio.log.LoggerFactory;
+
+/**
+ * executor group for blocking handles, every job runs in its own virtual thread
+ * (jdk 21+), or in a thread pool of at most maxThreads threads when virtual
+ * thread is not available
+ * <p>
+ * the in flight jobs never exceed maxInflight, the job submitted at the limit is
+ * rejected. the group is busy when the in flight jobs reach maxInflight, the
+ * channels which submit jobs to a busy group will pause reading, and resume
+ * reading when the in flight jobs drop to the half of maxInflight.
+ * <p>
+ * if ordered is true, every call of {@link #getNext()} returns a new serial lane,
+ * jobs of the same lane (channel) run one by one.
+ *
+ * @author wangkai
+ *
+ */
+public class VirtualThreadEventLoopGroup extends EventLoopGroup {
+
+    private static final Logger                   logger      = newLogger();
+
+    private ExecutorService                       executor;
+    private final ConcurrentLinkedQueue<Runnable> idleJobs    = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger                   inflight    = new AtomicInteger();
+    private int                                   maxInflight;
+    private int                                   maxThreads  = 256;
+    private final boolean                         ordered;
+    private VirtualThreadEventLoop                sharedEventLoop;
+    private boolean                               virtual;
+
+    public VirtualThreadEventLoopGroup() {
+        this("virtual-process");
+    }
+
+    public VirtualThreadEventLoopGroup(String eventLoopName) {
+        this(eventLoopName, 1024 * 16, false);
+    }
+
+    public VirtualThreadEventLoopGroup(String eventLoopName, int maxInflight, boolean ordered) {
+        super(eventLoopName, 1, maxInflight);
+        this.maxInflight = maxInflight;
+        this.ordered = ordered;
+    }
+
+    private void afterRun() {
+        int inflight = this.inflight.decrementAndGet();
+        if (inflight <= (maxInflight >>> 1) && !idleJobs.isEmpty()) {
+            fireIdle();
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        this.executor = newVirtualThreadExecutor();
+        this.virtual = executor != null;
+        if (executor == null) {
+            this.executor = newThreadPoolExecutor(Math.min(maxThreads, maxInflight));
+            logger.info("virtual thread not available, use thread pool instead");
+        }
+        this.sharedEventLoop = new VirtualThreadEventLoop(this);
+    }
+
+    @Override
+    protected void doStop() {
+        executor.shutdown();
+        fireIdle();
+    }
+
+    private boolean execute(Runnable job) {
+        try {
+            executor.execute(job);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void fireIdle() {
+        for (;;) {
+            Runnable job = idleJobs.poll();
+            if (job == null) {
+                break;
+            }
+            try {
+                job.run();
+            } catch (Throwable e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public VirtualThreadEventLoop getEventLoop(int index) {
+        return getNext();
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public int getMaxInflight() {
+        return maxInflight;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * @return a new serial lane if ordered, otherwise the shared event loop
+     */
+    @Override
+    public VirtualThreadEventLoop getNext() {
+        if (ordered) {
+            return new VirtualThreadEventLoop(this);
+        }
+        return sharedEventLoop;
+    }
+
+    public boolean isBusy() {
+        return inflight.get() >= maxInflight;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @return true if the jobs run in virtual threads, only valid after started
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public void setMaxInflight(int maxInflight) {
+        checkNotRunning();
+        this.maxInflight = maxInflight;
+    }
+
+    /**
+     * the max threads of the thread pool used when virtual thread is not
+     * available
+     */
+    public void setMaxThreads(int maxThreads) {
+        checkNotRunning();
+        this.maxThreads = maxThreads;
+    }
+
+    // reserve an in flight slot, false if the in flight jobs reach maxInflight
+    private boolean tryAcquire() {
+        for (;;) {
+            int inflight = this.inflight.get();
+            if (inflight >= maxInflight) {
+                return false;
+            }
+            if (this.inflight.compareAndSet(inflight, inflight + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void whenIdle(Runnable job) {
+        idleJobs.offer(job);
+        // re-check, the in flight jobs may drop before the job offered
+        if (inflight.get() <= (maxInflight >>> 1) || !isRunning()) {
+            fireIdle();
+        }
+    }
+
+    private static Logger newLogger() {
+        return LoggerFactory.getLogger(VirtualThreadEventLoopGroup.class);
+    }
+
+    private ExecutorService newThreadPoolExecutor(int threads) {
+        final String name = getEventLoopName();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                    private final AtomicInteger index = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, name + "-" + index.getAndIncrement());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    public static final class VirtualThreadEventLoop extends EventLoop {
+
+        private final VirtualThreadEventLoopGroup     group;
+        // only used in ordered mode
+        private final ConcurrentLinkedQueue<Runnable> jobs;
+        private final AtomicInteger                   scheduled;
+
+        VirtualThreadEventLoop(VirtualThreadEventLoopGroup group) {
+            super(group.getEventLoopName());
+            this.group = group;
+            if (group.isOrdered()) {
+                this.jobs = new ConcurrentLinkedQueue<>();
+                this.scheduled = new AtomicInteger();
+            } else {
+                this.jobs = null;
+                this.scheduled = null;
+            }
+        }
+
+        @Override
+        public VirtualThreadEventLoopGroup getGroup() {
+            return group;
+        }
+
+        /**
+         * @return always null, the jobs are handed to the
+         * executor directly, or queued by a lane in ordered mode
+         */
+        @Override
+        protected BlockingQueue<Runnable> getJobs() {
+            return null;
+        }
+
+        @Override
+        public int getPendingSize() {
+            return group.getInflight();
+        }
+
+        @Override
+        public boolean inEventLoop() {
+            return false;
+        }
+
+        @Override
+        public boolean inEventLoop(Thread thread) {
+            return false;
+        }
+
+        @Override
+        public boolean isBusy() {
+            return group.isBusy();
+        }
+
+        @Override
+        public boolean isRunning() {
+            return group.isRunning();
+        }
+
+        // drain the lane in the virtual thread
+        @Override
+        public void run() {
+            final VirtualThreadEventLoopGroup group = this.group;
+            final ConcurrentLinkedQueue<Runnable> jobs = this.jobs;
+            for (;;) {
+                Runnable job = jobs.poll();
+                if (job == null) {
+                    scheduled.set(0);
+                    if (jobs.isEmpty() || !scheduled.compareAndSet(0, 1)) {
+                        return;
+                    }
+                    continue;
+                }
+                runJob(group, job);
+            }
+        }
+
+        @Override
+        public boolean submit(final Runnable job) {
+            final VirtualThreadEventLoopGroup group = this.group;
+            if (!group.isRunning() || !group.tryAcquire()) {
+                return false;
+            }
+            if (jobs == null) {
+                if (group.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        runJob(group, job);
+                    }
+                })) {
+                    return true;
+                }
+            } else {
+                jobs.offer(job);
+                if (!scheduled.compareAndSet(0, 1) || group.execute(this)) {
+                    return true;
+                }
+                jobs.remove(job);
+                scheduled.set(0);
+            }
+            group.afterRun();
+            return false;
+        }
+
+        @Override
+        public void whenIdle(Runnable job) {
+            group.whenIdle(job);
+        }
+
+        private static void runJob(VirtualThreadEventLoopGroup group, Runnable job) {
+            try {
+                job.run();
+            } catch (Throwable e) {
+                logger.error(e.getMessage(), e);
+            } finally {
+                group.afterRun();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author wangkai
+ *
+ */
+@Name("com.firenio.baseio.BufPoolExhausted")
+@Label("Buf Pool Exhausted")
+@Category({ "Baseio", "Buffer" })
+@Description("all the pooled allocators of the group are exhausted, fall back to heap buf")
+public final class BufPoolExhaustedEvent extends Event {
+
+    @Label("Direct")
+    boolean direct;
+
+    @Label("Group Size")
+    int     groupSize;
+
+    @Label("Request Size")
+    @DataAmount
+    int     limit;
+
+    static void emit(int limit, int groupSize, boolean direct) {
+        BufPoolExhaustedEvent e = new BufPoolExhaustedEvent();
+        if (e.isEnabled()) {
+            e.limit = limit;
+            e.groupSize = groupSize;
+            e.direct = direct;
+            e.commit();
+        }
+    }
+
+}
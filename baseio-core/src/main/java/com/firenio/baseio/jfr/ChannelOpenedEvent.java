@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.jfr;
+
+import com.firenio.baseio.component.Channel;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author wangkai
+ *
+ */
+@Name("com.firenio.baseio.ChannelOpened")
+@Label("Channel Opened")
+@Category({ "Baseio", "Channel" })
+@Description("channel opened, after the ssl handshake if ssl enabled")
+@StackTrace(false)
+public final class ChannelOpenedEvent extends Event {
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Codec")
+    String codec;
+
+    static void emit(Channel ch) {
+        ChannelOpenedEvent e = new ChannelOpenedEvent();
+        if (e.isEnabled()) {
+            e.channel = ch.getDesc();
+            e.codec = ch.getCodecId();
+            e.commit();
+        }
+    }
+
+}
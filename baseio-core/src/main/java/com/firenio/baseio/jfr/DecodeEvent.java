@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.jfr;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.ProtocolCodec;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * @author wangkai
+ *
+ */
+@Name("com.firenio.baseio.Decode")
+@Label("Slow Decode")
+@Category({ "Baseio", "Codec" })
+@Description("decode cost over the threshold")
+@StackTrace(false)
+@Threshold("1 ms")
+public final class DecodeEvent extends Event {
+
+    // no event created per call when the event is not enabled by a recording
+    private static final EventType TYPE = EventType.getEventType(DecodeEvent.class);
+
+    @Label("Channel")
+    String  channel;
+
+    @Label("Codec")
+    String  codec;
+
+    @Label("Decoded")
+    boolean decoded;
+
+    static Frame decode(ProtocolCodec codec, Channel ch, ByteBuf src) throws Exception {
+        if (!TYPE.isEnabled()) {
+            return codec.decode(ch, src);
+        }
+        DecodeEvent e = new DecodeEvent();
+        e.begin();
+        Frame f = codec.decode(ch, src);
+        e.end();
+        if (e.shouldCommit()) {
+            e.channel = ch.getDesc();
+            e.codec = codec.getProtocolId();
+            e.decoded = f != null;
+            e.commit();
+        }
+        return f;
+    }
+
+}
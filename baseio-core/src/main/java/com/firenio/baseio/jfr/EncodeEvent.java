@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.jfr;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.ProtocolCodec;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * @author wangkai
+ *
+ */
+@Name("com.firenio.baseio.Encode")
+@Label("Slow Encode")
+@Category({ "Baseio", "Codec" })
+@Description("encode cost over the threshold")
+@Threshold("1 ms")
+public final class EncodeEvent extends Event {
+
+    // no event created per call when the event is not enabled by a recording
+    private static final EventType TYPE = EventType.getEventType(EncodeEvent.class);
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Codec")
+    String codec;
+
+    static ByteBuf encode(ProtocolCodec codec, Channel ch, Frame frame) throws Exception {
+        if (!TYPE.isEnabled()) {
+            return codec.encode(ch, frame);
+        }
+        EncodeEvent e = new EncodeEvent();
+        e.begin();
+        ByteBuf buf = codec.encode(ch, frame);
+        e.end();
+        if (e.shouldCommit()) {
+            e.channel = ch.getDesc();
+            e.codec = codec.getProtocolId();
+            e.commit();
+        }
+        return buf;
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.jfr;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.ProtocolCodec;
+
+/**
+ * the emitter by the jdk.jfr events, only loaded by reflection when jdk.jfr is
+ * available, and not compiled by the jdk before 11
+ *
+ * @author wangkai
+ *
+ */
+final class JdkJfrEmitter implements JfrEmitter {
+
+    @Override
+    public void bufPoolExhausted(int limit, int groupSize, boolean direct) {
+        BufPoolExhaustedEvent.emit(limit, groupSize, direct);
+    }
+
+    @Override
+    public void channelClosed(Channel ch) {
+        ChannelClosedEvent.emit(ch);
+    }
+
+    @Override
+    public void channelOpened(Channel ch) {
+        ChannelOpenedEvent.emit(ch);
+    }
+
+    @Override
+    public Frame decode(ProtocolCodec codec, Channel ch, ByteBuf src) throws Exception {
+        return DecodeEvent.decode(codec, ch, src);
+    }
+
+    @Override
+    public ByteBuf encode(ProtocolCodec codec, Channel ch, Frame frame) throws Exception {
+        return EncodeEvent.encode(codec, ch, frame);
+    }
+
+    @Override
+    public void sslHandshake(Channel ch, long cost) {
+        SslHandshakeEvent.emit(ch, cost);
+    }
+
+    @Override
+    public void writeBacklogOverflow(Channel ch, int backlog, int maxBacklog) {
+        WriteBacklogOverflowEvent.emit(ch, backlog, maxBacklog);
+    }
+
+}
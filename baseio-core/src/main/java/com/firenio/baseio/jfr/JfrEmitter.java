@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.jfr;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.ProtocolCodec;
+
+/**
+ * the jfr events without any jdk.jfr type, so {@link JfrEvents} can be
+ * compiled and loaded where jdk.jfr is not available
+ *
+ * @author wangkai
+ *
+ */
+interface JfrEmitter {
+
+    void bufPoolExhausted(int limit, int groupSize, boolean direct);
+
+    void channelClosed(Channel ch);
+
+    void channelOpened(Channel ch);
+
+    Frame decode(ProtocolCodec codec, Channel ch, ByteBuf src) throws Exception;
+
+    ByteBuf encode(ProtocolCodec codec, Channel ch, Frame frame) throws Exception;
+
+    void sslHandshake(Channel ch, long cost);
+
+    void writeBacklogOverflow(Channel ch, int backlog, int maxBacklog);
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.jfr;
+
+import com.firenio.baseio.Options;
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.ProtocolCodec;
+
+/**
+ * entry of the baseio jfr events, the callers should check {@link #ENABLED}
+ * before calling, then nothing will be paid when jfr is not available (jdk 7/8)
+ * or disabled by {@link Options#setEnableJfr(boolean)}.
+ * <p>
+ * this class does not refer to any jdk.jfr type, the events are emitted by an
+ * emitter loaded by reflection, and the decode/encode events are not created
+ * unless they are enabled by a recording. the events can be enabled/configured
+ * in the jfr settings by the names "com.firenio.baseio.*".
+ *
+ * @author wangkai
+ *
+ */
+public final class JfrEvents {
+
+    private static final JfrEmitter EMITTER = newEmitter();
+    public static final boolean     ENABLED = EMITTER != null;
+
+    public static void bufPoolExhausted(int limit, int groupSize, boolean direct) {
+        EMITTER.bufPoolExhausted(limit, groupSize, direct);
+    }
+
+    public static void channelClosed(Channel ch) {
+        EMITTER.channelClosed(ch);
+    }
+
+    public static void channelOpened(Channel ch) {
+        EMITTER.channelOpened(ch);
+    }
+
+    /**
+     * decode with a DecodeEvent, the event will be committed if the decode costs
+     * over the threshold (default 1 ms)
+     */
+    public static Frame decode(ProtocolCodec codec, Channel ch, ByteBuf src) throws Exception {
+        return EMITTER.decode(codec, ch, src);
+    }
+
+    /**
+     * encode with a EncodeEvent, the event will be committed if the encode costs
+     * over the threshold (default 1 ms)
+     */
+    public static ByteBuf encode(ProtocolCodec codec, Channel ch, Frame frame) throws Exception {
+        return EMITTER.encode(codec, ch, frame);
+    }
+
+    private static JfrEmitter newEmitter() {
+        if (!Options.isEnableJfr()) {
+            return null;
+        }
+        try {
+            Class.forName("jdk.jfr.Event");
+            Class<?> c = Class.forName("com.firenio.baseio.jfr.JdkJfrEmitter");
+            return (JfrEmitter) c.newInstance();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    public static void sslHandshake(Channel ch, long cost) {
+        EMITTER.sslHandshake(ch, cost);
+    }
+
+    public static void writeBacklogOverflow(Channel ch, int backlog, int maxBacklog) {
+        EMITTER.writeBacklogOverflow(ch, backlog, maxBacklog);
+    }
+
+}
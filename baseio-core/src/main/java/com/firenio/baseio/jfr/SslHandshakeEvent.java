@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.jfr;
+
+import com.firenio.baseio.component.Channel;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * @author wangkai
+ *
+ */
+@Name("com.firenio.baseio.SslHandshake")
+@Label("Ssl Handshake")
+@Category({ "Baseio", "Channel" })
+@Description("ssl handshake finished, the cost is from the channel created")
+@StackTrace(false)
+public final class SslHandshakeEvent extends Event {
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Cost")
+    @Timespan(Timespan.MILLISECONDS)
+    long   cost;
+
+    static void emit(Channel ch, long cost) {
+        SslHandshakeEvent e = new SslHandshakeEvent();
+        if (e.isEnabled()) {
+            e.channel = ch.getDesc();
+            e.cost = cost;
+            e.commit();
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.jfr;
+
+import com.firenio.baseio.component.Channel;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author wangkai
+ *
+ */
+@Name("com.firenio.baseio.WriteBacklogOverflow")
+@Label("Write Backlog Overflow")
+@Category({ "Baseio", "Channel" })
+@Description("the write backlog of the channel is over the max, the channel will be closed")
+public final class WriteBacklogOverflowEvent extends Event {
+
+    @Label("Backlog")
+    int    backlog;
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Max Backlog")
+    int    maxBacklog;
+
+    static void emit(Channel ch, int backlog, int maxBacklog) {
+        WriteBacklogOverflowEvent e = new WriteBacklogOverflowEvent();
+        if (e.isEnabled()) {
+            e.channel = ch.getDesc();
+            e.backlog = backlog;
+            e.maxBacklog = maxBacklog;
+            e.commit();
+        }
+    }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.firenio.baseio.LifeCycle;
+import com.firenio.baseio.common.DateUtil;
+import com.firenio.baseio.common.FileUtil;
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.concurrent.ScmpArrayQueue;
+
+/**
+ * async logger printer, the caller threads only offer the preformatted entries
+ * into a lock free ring, a background writer encodes the entries into a reused
+ * byte buffer and writes them to the file, no lock and no garbage on the writer
+ * side.
+ * <p>
+ * the file will be rolled to "name.yyyy-MM-dd-HH-mm-ss" when the file size is
+ * over maxFileSize or the rollInterval (aligned to the local time, eg. one day)
+ * reached, 0 means disabled.
+ * <p>
+ * when the ring is full, the entry will be dropped (FULL_DROP), or the caller
+ * waits for the writer (FULL_BLOCK), or dropped and a line with the dropped
+ * count will be written when the writer catches up (FULL_COUNT).
+ *
+ * @author wangkai
+ *
+ */
+public class AsyncLoggerPrinter extends LifeCycle implements LoggerPrinter, Runnable {
+
+    public static final int              FULL_BLOCK   = 1;
+    public static final int              FULL_COUNT   = 2;
+    public static final int              FULL_DROP    = 0;
+
+    private byte[]                       buf;
+    private int                          bufferSize   = 1024 * 64;
+    private final AtomicLong             dropped      = new AtomicLong();
+    private final File                   file;
+    private long                         fileSize;
+    private int                          fullPolicy   = FULL_COUNT;
+    private long                         maxFileSize;
+    private long                         nextRollTime = Long.MAX_VALUE;
+    private FileOutputStream             out;
+    private int                          pos;
+    private final ScmpArrayQueue<Object> queue;
+    private long                         reportedDropped;
+    private long                         rollInterval;
+    private volatile boolean             running;
+    private Thread                       shutdownHook;
+    private Thread                       thread;
+    private volatile boolean             waiting;
+
+    public AsyncLoggerPrinter(File file) {
+        this(file, 1024 * 64);
+    }
+
+    public AsyncLoggerPrinter(File file, int capacity) {
+        this.file = file;
+        this.queue = new ScmpArrayQueue<>(capacity);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (!file.exists()) {
+            FileUtil.createDirectory(file.getParentFile());
+        }
+        this.buf = new byte[bufferSize];
+        this.out = new FileOutputStream(file, true);
+        this.fileSize = file.length();
+        this.nextRollTime = nextRollTime(System.currentTimeMillis());
+        this.running = true;
+        this.thread = new Thread(this, "async-logger-" + file.getName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+        // write the remaining entries before the jvm exit
+        this.shutdownHook = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                AsyncLoggerPrinter.this.stop();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    @Override
+    protected void doStop() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // stopping by the shutdown hook
+        }
+        this.running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            fileSize += pos;
+            pos = 0;
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return the count of the dropped entries since started
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getFullPolicy() {
+        return fullPolicy;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public int getPendingSize() {
+        return queue.size();
+    }
+
+    public long getRollInterval() {
+        return rollInterval;
+    }
+
+    private long nextRollTime(long now) {
+        long interval = rollInterval;
+        if (interval <= 0) {
+            return Long.MAX_VALUE;
+        }
+        long offset = TimeZone.getDefault().getOffset(now);
+        return ((now + offset) / interval + 1) * interval - offset;
+    }
+
+    private void offer(Object entry) {
+        if (queue.offer(entry)) {
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+            return;
+        }
+        if (fullPolicy == FULL_BLOCK) {
+            for (; running;) {
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(1000 * 10);
+                if (queue.offer(entry)) {
+                    return;
+                }
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    @Override
+    public void println(String msg) {
+        offer(msg);
+    }
+
+    @Override
+    public void printThrowable(Throwable t) {
+        offer(t);
+    }
+
+    private void roll() throws IOException {
+        flush();
+        out.close();
+        String time = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss").format(new Date());
+        File dst = new File(file.getParentFile(), file.getName() + "." + time);
+        for (int i = 1; dst.exists(); i++) {
+            dst = new File(file.getParentFile(), file.getName() + "." + time + "." + i);
+        }
+        if (!file.renameTo(dst)) {
+            SysLoggerPrinter.get().println("failed to roll log file: " + file);
+        }
+        this.out = new FileOutputStream(file, true);
+        this.fileSize = file.length();
+    }
+
+    private void rollIfNecessary() throws IOException {
+        if (maxFileSize > 0 && fileSize + pos >= maxFileSize) {
+            roll();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= nextRollTime) {
+            nextRollTime = nextRollTime(now);
+            roll();
+        }
+    }
+
+    @Override
+    public void run() {
+        final ScmpArrayQueue<Object> queue = this.queue;
+        final Object[] batch = new Object[256];
+        for (;;) {
+            try {
+                int size = queue.drain(batch);
+                if (size == 0) {
+                    flush();
+                    if (!running) {
+                        if (queue.isEmpty()) {
+                            break;
+                        }
+                        continue;
+                    }
+                    waiting = true;
+                    if (queue.isEmpty()) {
+                        LockSupport.parkNanos(this, 1000L * 1000 * 100);
+                    }
+                    waiting = false;
+                    rollIfNecessary();
+                    continue;
+                }
+                for (int i = 0; i < size; i++) {
+                    write(batch[i]);
+                    batch[i] = null;
+                }
+                if (fullPolicy == FULL_COUNT) {
+                    long dropped = this.dropped.get();
+                    if (dropped != reportedDropped) {
+                        write(DateUtil.get().formatYyyy_MM_dd_HH_mm_ss_SSS(new Date()) + " [WARN] AsyncLoggerPrinter - "
+                                + (dropped - reportedDropped) + " log entries dropped");
+                        reportedDropped = dropped;
+                    }
+                }
+                rollIfNecessary();
+            } catch (Throwable e) {
+                SysLoggerPrinter.get().printThrowable(e);
+            }
+        }
+        Util.close(out);
+    }
+
+    public void setBufferSize(int bufferSize) {
+        checkNotRunning();
+        this.bufferSize = Math.max(bufferSize, 256);
+    }
+
+    public void setFullPolicy(int fullPolicy) {
+        checkNotRunning();
+        this.fullPolicy = fullPolicy;
+    }
+
+    public void setMaxFileSize(long maxFileSize) {
+        checkNotRunning();
+        this.maxFileSize = maxFileSize;
+    }
+
+    public void setRollInterval(long rollInterval) {
+        checkNotRunning();
+        this.rollInterval = rollInterval;
+    }
+
+    private void write(Object entry) throws IOException {
+        String msg;
+        if (entry instanceof Throwable) {
+            msg = DebugUtil.exception2string((Throwable) entry);
+        } else {
+            msg = (String) entry;
+        }
+        // encode utf-8 into the reused buf
+        final int limit = buf.length - 4;
+        for (int i = 0, len = msg.length(); i < len; i++) {
+            if (pos > limit) {
+                flush();
+            }
+            byte[] buf = this.buf;
+            char c = msg.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(msg.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, msg.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xe0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        if (pos == buf.length) {
+            flush();
+        }
+        buf[pos++] = '\n';
+    }
+
+}
@@ -84,10 +84,28 @@ public class LoggerFactory {
     }
 
     public static void setInternalLogFile(File internalLogFile) throws IOException {
+        setInternalLogFile(internalLogFile, false);
+    }
+
+    /**
+     * @param async write the log file by a started {@link AsyncLoggerPrinter}
+     */
+    public static void setInternalLogFile(File internalLogFile, boolean async)
+            throws IOException {
         LoggerFactory.internalLogFile = internalLogFile;
         LoggerPrinter[] printers = new LoggerPrinter[2];
         printers[0] = SysLoggerPrinter.get();
-        printers[1] = new FileLoggerPrinter(internalLogFile);
+        if (async) {
+            AsyncLoggerPrinter p = new AsyncLoggerPrinter(internalLogFile);
+            try {
+                p.start();
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            printers[1] = p;
+        } else {
+            printers[1] = new FileLoggerPrinter(internalLogFile);
+        }
         printer = new CompoundLoggerPrinter(printers);
     }
 
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * hdr style histogram with log-linear buckets, every power of 2 range is split
+ * into 16 linear sub buckets (about 6% relative error), values over 2^41 are
+ * counted in the last bucket.
+ * <p>
+ * recording is lock free and can be called by any thread, {@link #rotate()}
+ * takes an interval snapshot which contains the values recorded since the last
+ * rotate.
+ *
+ * @author wangkai
+ *
+ */
+public final class Histogram {
+
+    static final int              MAX_MSB   = 40;
+    static final int              SUB_BITS  = 4;
+    static final int              SUB_COUNT = 1 << SUB_BITS;
+    static final int              SUB_MASK  = SUB_COUNT - 1;
+    static final int              BUCKETS   = SUB_COUNT + ((MAX_MSB - SUB_BITS + 1) << SUB_BITS);
+    static final Snapshot         EMPTY     = new Snapshot(new long[BUCKETS]);
+
+    private final AtomicLongArray counts    = new AtomicLongArray(BUCKETS);
+    private volatile Snapshot     interval  = EMPTY;
+    private long[]                last      = new long[BUCKETS];
+
+    public Snapshot getInterval() {
+        return interval;
+    }
+
+    public void record(long value) {
+        counts.incrementAndGet(index(value));
+    }
+
+    public void record(long value, long count) {
+        counts.addAndGet(index(value), count);
+    }
+
+    /**
+     * take a snapshot of the values recorded since the last rotate, the snapshot
+     * can be read by {@link #getInterval()} until next rotate
+     */
+    public synchronized Snapshot rotate() {
+        long[] last = this.last;
+        long[] current = new long[BUCKETS];
+        long[] delta = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            current[i] = c;
+            delta[i] = c - last[i];
+        }
+        this.last = current;
+        this.interval = new Snapshot(delta);
+        return interval;
+    }
+
+    /**
+     * @return a snapshot of all the values recorded
+     */
+    public Snapshot snapshot() {
+        long[] current = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            current[i] = counts.get(i);
+        }
+        return new Snapshot(current);
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) >>> SUB_BITS;
+        long sub = (index - SUB_COUNT) & SUB_MASK;
+        return ((SUB_COUNT + sub) << shift) + (1L << shift) - 1;
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        if (msb > MAX_MSB) {
+            return BUCKETS - 1;
+        }
+        int shift = msb - SUB_BITS;
+        int sub = (int) (value >>> shift) & SUB_MASK;
+        return SUB_COUNT + (shift << SUB_BITS) + sub;
+    }
+
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long   count;
+
+        Snapshot(long[] counts) {
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                count += counts[i];
+            }
+            this.count = count;
+            this.counts = counts;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        public double getMean() {
+            if (count == 0) {
+                return 0;
+            }
+            double total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    total += (double) highestValue(i) * counts[i];
+                }
+            }
+            return total / count;
+        }
+
+        /**
+         * @param percentile 0 ~ 100, eg: 99.9
+         * @return the highest value of the bucket which the percentile located in
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(percentile / 100 * count);
+            if (target < 1) {
+                target = 1;
+            }
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                total += counts[i];
+                if (total >= target) {
+                    return highestValue(i);
+                }
+            }
+            return getMax();
+        }
+
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.firenio.baseio.log.Logger;
+import com.firenio.baseio.log.LoggerFactory;
+
+/**
+ * export every source as a dynamic mbean named
+ * "com.firenio.baseio:type=Metrics,name=${source name}", the attribute name is
+ * the metric name joined with the tag values, eg:
+ * "baseio_selects_total.nio-processor-0"
+ *
+ * @author wangkai
+ *
+ */
+public class JmxMetricsRegistry extends MetricsRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(JmxMetricsRegistry.class);
+
+    private final String        domain;
+    private final MBeanServer   server;
+
+    public JmxMetricsRegistry() {
+        this("com.firenio.baseio");
+    }
+
+    public JmxMetricsRegistry(String domain) {
+        this(domain, ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxMetricsRegistry(String domain, MBeanServer server) {
+        this.domain = domain;
+        this.server = server;
+    }
+
+    private ObjectName newObjectName(String name) throws Exception {
+        return new ObjectName(domain + ":type=Metrics,name=" + ObjectName.quote(name));
+    }
+
+    @Override
+    public void register(String name, MetricsSource source) {
+        super.register(name, source);
+        try {
+            ObjectName on = newObjectName(name);
+            if (server.isRegistered(on)) {
+                server.unregisterMBean(on);
+            }
+            server.registerMBean(new SourceMBean(source), on);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void unregister(String name) {
+        super.unregister(name);
+        try {
+            ObjectName on = newObjectName(name);
+            if (server.isRegistered(on)) {
+                server.unregisterMBean(on);
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    static final class SourceMBean implements DynamicMBean, MetricsCollector {
+
+        private final MetricsSource source;
+        private Map<String, Long>   values;
+
+        SourceMBean(MetricsSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public void collect(String name, String[] tags, long value) {
+            StringBuilder sb = new StringBuilder(name);
+            if (tags != null) {
+                for (int i = 1; i < tags.length; i += 2) {
+                    sb.append('.');
+                    sb.append(tags[i]);
+                }
+            }
+            values.put(sb.toString(), value);
+        }
+
+        private synchronized Map<String, Long> collect() {
+            this.values = new LinkedHashMap<>();
+            source.collect(this);
+            return values;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long v = collect().get(attribute);
+            if (v == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return v;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = collect();
+            AttributeList list = new AttributeList(attributes.length);
+            for (String a : attributes) {
+                Long v = values.get(a);
+                if (v != null) {
+                    list.add(new Attribute(a, v));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Long> values = collect();
+            MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (String name : values.keySet()) {
+                attrs[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+            }
+            return new MBeanInfo(source.getClass().getName(), null, attrs, null, null, null);
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature)
+                throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("read only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+    }
+
+}
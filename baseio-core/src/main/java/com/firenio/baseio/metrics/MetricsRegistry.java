@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * registry of the metrics sources, the components register their sources when
+ * started and unregister when stopped, extend this class to export the sources
+ * to other monitor systems, see {@link JmxMetricsRegistry}
+ *
+ * @author wangkai
+ *
+ */
+public class MetricsRegistry {
+
+    private final Map<String, MetricsSource> sources = new ConcurrentSkipListMap<>();
+
+    public void collect(MetricsCollector c) {
+        for (MetricsSource s : sources.values()) {
+            s.collect(c);
+        }
+    }
+
+    public MetricsSource getSource(String name) {
+        return sources.get(name);
+    }
+
+    public Map<String, MetricsSource> getSources() {
+        return sources;
+    }
+
+    public void register(String name, MetricsSource source) {
+        sources.put(name, source);
+    }
+
+    /**
+     * @return the metrics of all the sources in plain text, one metric per line
+     */
+    public String scrape() {
+        PlainTextMetricsCollector c = new PlainTextMetricsCollector();
+        collect(c);
+        return c.toString();
+    }
+
+    public void unregister(String name) {
+        sources.remove(name);
+    }
+
+}
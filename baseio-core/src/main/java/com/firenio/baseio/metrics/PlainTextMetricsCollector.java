@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.firenio.baseio.metrics;
+
+/**
+ * format the metrics as the prometheus text format, eg:
+ * <pre>
+ * baseio_selects_total{loop="nio-processor-0"} 10086
+ * </pre>
+ *
+ * @author wangkai
+ *
+ */
+public class PlainTextMetricsCollector implements MetricsCollector {
+
+    private final StringBuilder sb;
+
+    public PlainTextMetricsCollector() {
+        this(1024 * 4);
+    }
+
+    public PlainTextMetricsCollector(int capacity) {
+        this.sb = new StringBuilder(capacity);
+    }
+
+    @Override
+    public void collect(String name, String[] tags, long value) {
+        StringBuilder sb = this.sb;
+        sb.append(name);
+        if (tags != null && tags.length > 0) {
+            sb.append('{');
+            for (int i = 0; i < tags.length; i += 2) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(tags[i]);
+                sb.append("=\"");
+                sb.append(tags[i + 1]);
+                sb.append('"');
+            }
+            sb.append('}');
+        }
+        sb.append(' ');
+        sb.append(value);
+        sb.append('\n');
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+
+}
@@ -15,16 +15,30 @@
  */
 package sample.baseio.http11;
 
+import static com.firenio.baseio.common.ByteUtil.b;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.HashMap;
 import java.util.Map;
 
 import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.codec.http11.HttpCompression;
 import com.firenio.baseio.codec.http11.HttpContentType;
 import com.firenio.baseio.codec.http11.HttpFrame;
 import com.firenio.baseio.codec.http11.HttpHeader;
+import com.firenio.baseio.codec.http11.HttpRange;
 import com.firenio.baseio.codec.http11.HttpStatic;
 import com.firenio.baseio.codec.http11.HttpStatus;
 import com.firenio.baseio.codec.http11.WebSocketCodec;
@@ -42,11 +56,18 @@ import com.firenio.baseio.log.LoggerFactory;
 //FIXME limit too large file
 public class HttpFrameHandle extends IoEventHandle {
 
-    private Charset                 charset        = Util.UTF8;
-    private String                  welcome        = "/";
-    private Map<String, HttpEntity> htmlCache      = new HashMap<>();
-    private Logger                  logger         = LoggerFactory.getLogger(getClass());
-    private ScanFileFilter          scanFileFilter = new IgnoreDotStartFile();
+    static final byte[]             ACCEPT_RANGES_BYTES = b("bytes");
+    static final byte[]             BYTERANGES_TYPE     = b(
+            "multipart/byteranges; boundary=" + HttpEntity.BOUNDARY);
+
+    private Charset                 charset             = Util.UTF8;
+    private String                  welcome             = "/";
+    private Map<String, HttpEntity> htmlCache           = new HashMap<>();
+    private Logger                  logger              = LoggerFactory.getLogger(getClass());
+    private ScanFileFilter          scanFileFilter      = new IgnoreDotStartFile();
+    // the file entities by the path, marked stale by the watcher
+    private Map<Path, HttpEntity>   watchEntities       = new HashMap<>();
+    private WatchService            watcher;
 
     @Override
     public void accept(Channel ch, Frame frame) throws Exception {
@@ -71,28 +92,38 @@ public class HttpFrameHandle extends IoEventHandle {
                 return;
             }
         }
-        File file = entity.getFile();
-        if (file != null && file.lastModified() > entity.getLastModify()) {
+        if (isStale(entity)) {
             synchronized (entity) {
-                reloadEntity(entity, ch.getContext(), status);
+                if (isStale(entity)) {
+                    reloadEntity(entity, ch.getContext(), status);
+                }
             }
-            writeAndFlush(ch, f, entity);
-            return;
         }
-        String ims = f.getRequestHeader(HttpHeader.If_Modified_Since);
-        long imsTime = -1;
-        if (!Util.isNullOrBlank(ims)) {
-            imsTime = DateUtil.get().parseHttp(ims).getTime();
-        }
-        if (imsTime < entity.getLastModifyGTMTime()) {
-            writeAndFlush(ch, f, entity);
+        // the validators and the content of the same version
+        Snapshot s = entity.getSnapshot();
+        if (isNotModified(f, s)) {
+            f.setStatus(HttpStatus.C304);
+            f.setResponseHeader(HttpHeader.ETag, s.etagBytes);
+            f.setResponseHeader(HttpHeader.Last_Modified, s.lastModifyGTMBytes);
+            ch.writeAndFlush(f);
             return;
         }
-        f.setStatus(HttpStatus.C304);
-        ch.writeAndFlush(f);
+        String range = f.getRequestHeader(HttpHeader.Range);
+        if (range != null && isRangeFresh(f, s)) {
+            long[] ranges = HttpRange.parse(range, s.binary.length);
+            if (ranges != null) {
+                writeRanges(ch, f, entity, s, ranges);
+                return;
+            }
+        }
+        writeAndFlush(ch, f, entity, s);
     }
 
-    public void destroy(ChannelContext context) {}
+    public void destroy(ChannelContext context) {
+        if (watcher != null) {
+            Util.close(watcher);
+        }
+    }
 
     @Override
     public void exceptionCaught(Channel ch, Frame frame, Exception ex) {
@@ -160,6 +191,50 @@ public class HttpFrameHandle extends IoEventHandle {
         return scanFileFilter;
     }
 
+    private boolean isStale(HttpEntity entity) {
+        if (entity.isStale()) {
+            return true;
+        }
+        // no change notification, check the file
+        File file = entity.getFile();
+        return watcher == null && file.isFile() && file.lastModified() > entity.getLastModify();
+    }
+
+    // the strong validators are compared, no date is parsed
+    private static boolean isNotModified(HttpFrame f, Snapshot s) {
+        String inm = f.getRequestHeader(HttpHeader.If_None_Match);
+        if (inm != null) {
+            String etag = s.etag;
+            if ("*".equals(inm.trim())) {
+                return true;
+            }
+            for (int i = 0; i < inm.length();) {
+                int e = inm.indexOf(',', i);
+                if (e == -1) {
+                    e = inm.length();
+                }
+                String tag = inm.substring(i, e).trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals(etag)) {
+                    return true;
+                }
+                i = e + 1;
+            }
+            return false;
+        }
+        // the client sends the Last-Modified back as is
+        String ims = f.getRequestHeader(HttpHeader.If_Modified_Since);
+        return ims != null && ims.equals(s.lastModifyGTM);
+    }
+
+    // the range is ignored if the If-Range does not match
+    private static boolean isRangeFresh(HttpFrame f, Snapshot s) {
+        String ifRange = f.getRequestHeader(HttpHeader.If_Range);
+        return ifRange == null || ifRange.equals(s.etag) || ifRange.equals(s.lastModifyGTM);
+    }
+
     public void initialize(ChannelContext context, String rootPath, String mode) throws Exception {
         String welcome = context.getProperties().getProperty("app.welcome");
         String userPath = context.getProperties().getProperty("app.webRoot");
@@ -181,7 +256,21 @@ public class HttpFrameHandle extends IoEventHandle {
         mapping.put("txt", HttpContentType.text_plain_utf8);
         mapping.put("ico", HttpContentType.image_png);
         if (rootFile.exists()) {
+            try {
+                watcher = FileSystems.getDefault().newWatchService();
+            } catch (IOException e) {
+                logger.warn("watch service not available: {}", e.getMessage());
+            }
             scanFolder(scanFileFilter, rootFile, mapping, "");
+            if (watcher != null) {
+                Util.exec(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        watch();
+                    }
+                }, "http-file-watcher");
+            }
         }
     }
 
@@ -206,8 +295,11 @@ public class HttpFrameHandle extends IoEventHandle {
     private void reloadEntity(HttpEntity entity, ChannelContext context, HttpStatus status)
             throws IOException {
         File file = entity.getFile();
-        entity.setBinary(FileUtil.readBytesByFile(file));
-        entity.setLastModify(file.lastModified());
+        // clear the flag first, a change while reading will mark it again
+        entity.setStale(false);
+        // the time before the read, a change while reading is newer
+        long lastModify = file.lastModified();
+        entity.setContent(FileUtil.readBytesByFile(file), lastModify);
     }
 
     private void scanFolder(ScanFileFilter filter, File file, Map<String, HttpContentType> mapping,
@@ -220,7 +312,9 @@ public class HttpFrameHandle extends IoEventHandle {
             HttpEntity entity = new HttpEntity();
             entity.setContentType(contentType);
             entity.setFile(file);
+            entity.setStale(true);
             htmlCache.put(path, entity);
+            watchEntities.put(file.toPath().toAbsolutePath(), entity);
             logger.info("mapping static url:{}", path);
         } else if (file.isDirectory()) {
             String staticName = path;
@@ -230,6 +324,10 @@ public class HttpFrameHandle extends IoEventHandle {
             if ("".equals(staticName)) {
                 staticName = "/";
             }
+            if (watcher != null) {
+                file.toPath().toAbsolutePath().register(watcher, ENTRY_CREATE, ENTRY_MODIFY,
+                        ENTRY_DELETE);
+            }
             File[] fs = file.listFiles();
             StringBuilder b = new StringBuilder(HttpUtil.HTML_HEADER);
             b.append("      <div style=\"margin-left:20px;\">\n");
@@ -279,8 +377,7 @@ public class HttpFrameHandle extends IoEventHandle {
             HttpEntity entity = new HttpEntity();
             entity.setContentType(HttpContentType.text_html_utf8);
             entity.setFile(file);
-            entity.setLastModify(System.currentTimeMillis());
-            entity.setBinary(b.toString().getBytes(charset));
+            entity.setContent(b.toString().getBytes(charset), System.currentTimeMillis());
             htmlCache.put(staticName, entity);
         }
     }
@@ -302,55 +399,173 @@ public class HttpFrameHandle extends IoEventHandle {
         this.scanFileFilter = scanFileFilter;
     }
 
-    private void writeAndFlush(Channel ch, HttpFrame frame, HttpEntity entity) throws Exception {
+    private void watch() {
+        for (;;) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> e : key.pollEvents()) {
+                if (e.kind() == OVERFLOW) {
+                    for (HttpEntity entity : watchEntities.values()) {
+                        entity.setStale(true);
+                    }
+                    continue;
+                }
+                HttpEntity entity = watchEntities.get(dir.resolve((Path) e.context()));
+                if (entity != null) {
+                    entity.setStale(true);
+                }
+            }
+            key.reset();
+        }
+    }
+
+    private void writeAndFlush(Channel ch, HttpFrame frame, HttpEntity entity, Snapshot s)
+            throws Exception {
+        // kept by the HttpCacheHandle (if any) until the file modified
+        frame.setCacheable(entity.getFile());
         frame.setContentType(entity.getContentType());
-        frame.setResponseHeader(HttpHeader.Last_Modified, entity.getLastModifyGTMBytes());
-        frame.setContent(entity.content.duplicate());
+        frame.setResponseHeader(HttpHeader.Last_Modified, s.lastModifyGTMBytes);
+        frame.setResponseHeader(HttpHeader.ETag, s.etagBytes);
+        frame.setResponseHeader(HttpHeader.Accept_Ranges, ACCEPT_RANGES_BYTES);
+        ByteBuf gzipContent = s.gzipContent;
+        if (gzipContent != null) {
+            frame.setResponseHeader(HttpHeader.Vary, HttpCompression.ACCEPT_ENCODING);
+            String ae = frame.getRequestHeader(HttpHeader.Accept_Encoding);
+            if (HttpCompression.negotiate(ae) == HttpCompression.GZIP) {
+                // the precompressed variant, no cpu cost per request
+                frame.setResponseHeader(HttpHeader.Content_Encoding, HttpCompression.GZIP_BYTES);
+                frame.setContent(gzipContent.duplicate());
+                ch.writeAndFlush(frame);
+                return;
+            }
+        }
+        frame.setContent(s.content.duplicate());
         ch.writeAndFlush(frame);
     }
 
+    // the parts are the views of the entity, no copy of the content
+    private void writeRanges(Channel ch, HttpFrame f, HttpEntity entity, Snapshot s,
+            long[] ranges) throws Exception {
+        byte[] data = s.binary;
+        int length = data.length;
+        f.setResponseHeader(HttpHeader.ETag, s.etagBytes);
+        f.setResponseHeader(HttpHeader.Last_Modified, s.lastModifyGTMBytes);
+        if (ranges.length == 0) {
+            f.setStatus(HttpStatus.C416);
+            f.setResponseHeader(HttpHeader.Content_Range, b("bytes */" + length));
+            ch.writeAndFlush(f);
+            return;
+        }
+        f.setStatus(HttpStatus.C206);
+        if (ranges.length == 2) {
+            int first = (int) ranges[0];
+            int last = (int) ranges[1];
+            f.setContentType(entity.getContentType());
+            f.setResponseHeader(HttpHeader.Content_Range,
+                    b("bytes " + first + "-" + last + "/" + length));
+            f.setContent(new ByteBuf[] { ByteBuf.wrap(data, first, last - first + 1) });
+            ch.writeAndFlush(f);
+            return;
+        }
+        String type = entity.getContentType().getValue();
+        ByteBuf[] bufs = new ByteBuf[ranges.length + 1];
+        for (int i = 0; i < ranges.length; i += 2) {
+            int first = (int) ranges[i];
+            int last = (int) ranges[i + 1];
+            String head = "\r\n--" + HttpEntity.BOUNDARY + "\r\nContent-Type: " + type
+                    + "\r\nContent-Range: bytes " + first + "-" + last + "/" + length + "\r\n\r\n";
+            bufs[i] = ByteBuf.wrap(b(head));
+            bufs[i + 1] = ByteBuf.wrap(data, first, last - first + 1);
+        }
+        bufs[ranges.length] = ByteBuf.wrap(b("\r\n--" + HttpEntity.BOUNDARY + "--\r\n"));
+        f.setContentType(HttpContentType.none);
+        f.setResponseHeader(HttpHeader.Content_Type, BYTERANGES_TYPE);
+        f.setContent(bufs);
+        ch.writeAndFlush(f);
+    }
+
     static class HttpEntity {
 
-        private ByteBuf         content;
-        private HttpContentType contentType;
-        private File            file;
-        private long            lastModify;
-        private String          lastModifyGTM;
-        private byte[]          lastModifyGTMBytes;
-        private long            lastModifyGTMTime;
+        static final String BOUNDARY      = "BASEIO_BYTERANGES";
+        static final int    GZIP_MIN_SIZE = 256;
+
+        private HttpContentType   contentType;
+        private File              file;
+        private volatile Snapshot snapshot;
+        private volatile boolean  stale;
+
+        public byte[] getBinary() {
+            return snapshot.binary;
+        }
 
         public ByteBuf getContent() {
-            return content;
+            return snapshot.content;
         }
 
         public HttpContentType getContentType() {
             return contentType;
         }
 
+        /**
+         * the strong validator, computed when the content or the time changed
+         */
+        public String getETag() {
+            return snapshot.etag;
+        }
+
+        public byte[] getETagBytes() {
+            return snapshot.etagBytes;
+        }
+
         public File getFile() {
             return file;
         }
 
+        public ByteBuf getGzipContent() {
+            return snapshot.gzipContent;
+        }
+
         public long getLastModify() {
-            return lastModify;
+            Snapshot s = snapshot;
+            return s == null ? 0 : s.lastModify;
         }
 
         public String getLastModifyGTM() {
-            return lastModifyGTM;
+            return snapshot.lastModifyGTM;
         }
 
         public byte[] getLastModifyGTMBytes() {
-            return lastModifyGTMBytes;
+            return snapshot.lastModifyGTMBytes;
         }
 
         public long getLastModifyGTMTime() {
-            return lastModifyGTMTime;
+            return snapshot.lastModifyGTMTime;
         }
 
-        public void setBinary(byte[] readBytesByFile) {
-            ByteBuf content = ByteBuf.wrap(readBytesByFile);
-            content.position(content.limit());
-            this.content = content;
+        /**
+         * the content and its validators, read it once per request
+         */
+        public Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        public boolean isStale() {
+            return stale;
+        }
+
+        public void setContent(byte[] binary, long lastModify) {
+            ByteBuf gzip = null;
+            if (contentType != null && contentType.isCompressible()
+                    && binary.length >= GZIP_MIN_SIZE) {
+                gzip = ByteBuf.wrap(HttpCompression.gzip(binary));
+                gzip.position(gzip.limit());
+            }
+            this.snapshot = new Snapshot(binary, gzip, lastModify);
         }
 
         public void setContentType(HttpContentType contentType) {
@@ -361,12 +576,42 @@ public class HttpFrameHandle extends IoEventHandle {
             this.file = file;
         }
 
-        public void setLastModify(long lastModify) {
+        public void setStale(boolean stale) {
+            this.stale = stale;
+        }
+
+    }
+
+    /**
+     * the content of a version of the entity and its validators, built before
+     * published, a reader never sees the new content with the old validators
+     */
+    static final class Snapshot {
+
+        final byte[]  binary;
+        final ByteBuf content;
+        final String  etag;
+        final byte[]  etagBytes;
+        final ByteBuf gzipContent;
+        final long    lastModify;
+        final String  lastModifyGTM;
+        final byte[]  lastModifyGTMBytes;
+        final long    lastModifyGTMTime;
+
+        Snapshot(byte[] binary, ByteBuf gzipContent, long lastModify) {
             DateUtil format = DateUtil.get();
+            ByteBuf content = ByteBuf.wrap(binary);
+            content.position(content.limit());
+            this.binary = binary;
+            this.content = content;
+            this.gzipContent = gzipContent;
             this.lastModify = lastModify;
             this.lastModifyGTMBytes = format.formatHttpBytes(lastModify);
             this.lastModifyGTM = new String(lastModifyGTMBytes);
             this.lastModifyGTMTime = format.parseHttp(lastModifyGTM).getTime();
+            this.etag = "\"" + Long.toHexString(lastModify) + "-"
+                    + Integer.toHexString(binary.length) + "\"";
+            this.etagBytes = b(etag);
         }
 
     }
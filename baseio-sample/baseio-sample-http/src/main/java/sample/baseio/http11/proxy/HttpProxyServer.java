@@ -15,8 +15,6 @@
  */
 package sample.baseio.http11.proxy;
 
-import java.io.IOException;
-
 import com.firenio.baseio.buffer.ByteBuf;
 import com.firenio.baseio.codec.http11.ClientHttpCodec;
 import com.firenio.baseio.codec.http11.ClientHttpFrame;
@@ -66,6 +64,23 @@ public class HttpProxyServer {
                     s.host = arr[0];
                     s.port = Integer.parseInt(arr[1]);
                     s.handshakeFinished = true;
+                    // hold the tunnel bytes until the target connected
+                    ch_src.pauseRead();
+                    NioEventLoop el = ch_src.getEventLoop();
+                    ChannelConnector context = new ChannelConnector(el, s.host, s.port);
+                    context.addProtocolCodec(new HttpProxyConnectCodec());
+                    context.setPrintConfig(false);
+                    context.addChannelEventListener(new LoggerChannelOpenListener());
+                    s.connector = context;
+                    context.connect((ch_target, ex) -> {
+                        if (ex == null) {
+                            ch_src.relay(ch_target);
+                            ch_src.resumeRead();
+                        } else {
+                            HttpProxyAttr.remove(ch_src);
+                            Util.close(ch_src);
+                        }
+                    });
                 } else {
                     String host = f.getHost();
                     String[] arr = host.split(":");
@@ -161,56 +176,9 @@ public class HttpProxyServer {
     static class HttpProxyCodec extends HttpCodec {
 
         @Override
-        public Frame decode(final Channel ch_src, ByteBuf src) throws Exception {
-            HttpProxyAttr s = HttpProxyAttr.get(ch_src);
-            if (s.handshakeFinished) {
-                if (s.connector == null || !s.connector.isConnected()) {
-                    NioEventLoop el = ch_src.getEventLoop();
-                    ChannelConnector context = new ChannelConnector(el, s.host, s.port);
-                    context.addProtocolCodec(new ProtocolCodec() {
-
-                        @Override
-                        public Frame decode(Channel ch, ByteBuf src) throws IOException {
-                            ByteBuf buf = ch_src.alloc().allocate(src.remaining());
-                            buf.put(src);
-                            ch_src.writeAndFlush(buf.flip());
-                            return null;
-                        }
-
-                        @Override
-                        public ByteBuf encode(Channel ch, Frame frame) throws IOException {
-                            return null;
-                        }
-
-                        @Override
-                        public String getProtocolId() {
-                            return "http-proxy-connect";
-                        }
-
-                        @Override
-                        public int headerLength() {
-                            return 0;
-                        }
-                    });
-                    context.setPrintConfig(false);
-                    context.addChannelEventListener(new LoggerChannelOpenListener());
-                    ByteBuf buf = ch_src.alloc().allocate(src.remaining());
-                    buf.put(src);
-                    s.connector = context;
-                    s.connector.connect((ch_target, ex) -> {
-                        if (ex == null) {
-                            ch_target.writeAndFlush(buf.flip());
-                        } else {
-                            buf.release();
-                            HttpProxyAttr.remove(ch_src);
-                            Util.close(ch_src);
-                        }
-                    });
-                } else {
-                    ByteBuf buf = ch_src.alloc().allocate(src.remaining());
-                    buf.put(src);
-                    s.connector.getChannel().writeAndFlush(buf.flip());
-                }
+        public Frame decode(Channel ch_src, ByteBuf src) throws Exception {
+            if (HttpProxyAttr.get(ch_src).handshakeFinished) {
+                // keep the bytes, they will be relayed to the target
                 return null;
             }
             return super.decode(ch_src, src);
@@ -230,6 +198,31 @@ public class HttpProxyServer {
 
     }
 
+    // the bytes are relayed, nothing to decode
+    static class HttpProxyConnectCodec extends ProtocolCodec {
+
+        @Override
+        public Frame decode(Channel ch, ByteBuf src) {
+            return null;
+        }
+
+        @Override
+        public ByteBuf encode(Channel ch, Frame frame) {
+            return null;
+        }
+
+        @Override
+        public String getProtocolId() {
+            return "http-proxy-connect";
+        }
+
+        @Override
+        public int headerLength() {
+            return 0;
+        }
+
+    }
+
     public static class HttpProxyAttr extends HttpAttachment {
 
         public ChannelConnector connector;
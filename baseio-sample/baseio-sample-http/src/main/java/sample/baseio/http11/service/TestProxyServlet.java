@@ -15,12 +15,11 @@
  */
 package sample.baseio.http11.service;
 
-import java.util.Iterator;
+import java.util.List;
 
 import org.springframework.stereotype.Service;
 
-import com.firenio.baseio.buffer.PooledByteBufAllocator;
-import com.firenio.baseio.buffer.PooledByteBufAllocator.BufDebug;
+import com.firenio.baseio.buffer.ByteBufLeakDetector;
 import com.firenio.baseio.codec.http11.HttpFrame;
 import com.firenio.baseio.component.Channel;
 
@@ -31,17 +30,11 @@ public class TestProxyServlet extends HttpFrameAcceptor {
 
     @Override
     protected void doAccept(Channel ch, HttpFrame frame) throws Exception {
-        synchronized (PooledByteBufAllocator.BUF_DEBUGS) {
-            Iterator<BufDebug> it = PooledByteBufAllocator.BUF_DEBUGS.values().iterator();
-            if (it.hasNext()) {
-                BufDebug d = it.next();
-                if (d != null) {
-                    Exception e = d.e;
-                    if (e != null) {
-                        throw e;
-                    }
-                }
-            }
+        List<String> trails = ByteBufLeakDetector.getTrackedTrails();
+        if (!trails.isEmpty()) {
+            frame.setString(trails.get(0));
+            ch.writeAndFlush(frame);
+            return;
         }
         frame.setString("not found");
         ch.writeAndFlush(frame);
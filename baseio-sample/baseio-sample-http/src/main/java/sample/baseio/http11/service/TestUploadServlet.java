@@ -15,6 +15,8 @@
  */
 package sample.baseio.http11.service;
 
+import java.io.File;
+
 import org.springframework.stereotype.Service;
 
 import com.firenio.baseio.codec.http11.HttpContentType;
@@ -33,6 +35,10 @@ public class TestUploadServlet extends HttpFrameAcceptor {
             res = "yes server already accept your message :) " + frame.getRequestParams()
                     + " </BR><PRE style='font-size: 18px;color: #FF9800;'>"
                     + new String((byte[]) frame.getContent()) + "</PRE>";
+        } else if (frame.getBodyFile() != null) {
+            File file = frame.getBodyFile();
+            res = "yes server already accept your file :) " + file.length() + " bytes";
+            file.delete();
         } else {
             res = "yes server already accept your message :) " + frame.getRequestParams();
         }
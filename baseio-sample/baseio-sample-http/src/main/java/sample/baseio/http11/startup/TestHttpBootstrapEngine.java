@@ -19,6 +19,7 @@ import com.firenio.baseio.DevelopConfig;
 import com.firenio.baseio.LifeCycle;
 import com.firenio.baseio.LifeCycleListener;
 import com.firenio.baseio.Options;
+import com.firenio.baseio.codec.http11.HttpCacheHandle;
 import com.firenio.baseio.codec.http11.HttpCodec;
 import com.firenio.baseio.codec.http11.HttpDateUtil;
 import com.firenio.baseio.codec.http11.WebSocketChannelListener;
@@ -62,7 +63,8 @@ public class TestHttpBootstrapEngine implements BootstrapEngine {
         ChannelAcceptor context = new ChannelAcceptor(group);
         ConfigurationParser.parseConfiguration("server.", context, properties);
         ConfigurationParser.parseConfiguration("server.", group, properties);
-        context.setIoEventHandle(handle);
+        // the static files are served from the encoded responses cached in memory
+        context.setIoEventHandle(new HttpCacheHandle(handle, 1024 * 1024 * 64, 0));
         context.addChannelEventListener(new WebSocketChannelListener());
         context.addChannelIdleEventListener(new ChannelAliveListener());
         context.addChannelEventListener(new LoggerChannelOpenListener());
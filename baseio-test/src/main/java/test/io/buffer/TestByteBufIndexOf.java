@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.io.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.buffer.ByteBufAllocator;
+
+import junit.framework.Assert;
+
+/**
+ * indexOf and indexOfAny (scan by SwarUtil) of the heap, direct, unsafe and
+ * duplicated bufs, compared with the plain loops
+ *
+ * @author wangkai
+ *
+ */
+public class TestByteBufIndexOf {
+
+    static final byte[] alphabet = { 0x00, (byte) 0x80, (byte) 0xff, 0x7f, 0x01, '\r', '\n' };
+
+    static final int    maxLen   = 17;
+
+    static List<ByteBuf> bufs(byte[] data) throws Exception {
+        ByteBufAllocator heap = TestAllocUtil.heap();
+        ByteBufAllocator direct = TestAllocUtil.direct();
+        // the pooled bufs are not at the start of the memory
+        heap.allocate(3);
+        direct.allocate(3);
+        List<ByteBuf> bufs = new ArrayList<>();
+        bufs.add(ByteBuf.heap(data.length));
+        bufs.add(ByteBuf.direct(data.length));
+        bufs.add(ByteBuf.unsafe(data.length));
+        bufs.add(heap.allocate(data.length));
+        bufs.add(direct.allocate(data.length));
+        for (ByteBuf buf : bufs) {
+            buf.put(data);
+            buf.flip();
+        }
+        for (int i = 0, size = bufs.size(); i < size; i++) {
+            bufs.add(bufs.get(i).duplicate());
+        }
+        return bufs;
+    }
+
+    static int indexOf(byte[] data, byte b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int indexOf(byte[] data, byte[] bytes, int off, int len) {
+        if (bytes.length == 0) {
+            return -1;
+        }
+        for (int i = off; i <= off + len - bytes.length; i++) {
+            int j = 0;
+            for (; j < bytes.length && data[i + j] == bytes[j]; j++) {}
+            if (j == bytes.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int indexOfAny(byte[] data, byte[] set, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            for (byte b : set) {
+                if (data[i] == b) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    static void release(List<ByteBuf> bufs) {
+        for (ByteBuf buf : bufs) {
+            buf.release();
+        }
+    }
+
+    static int rel(ByteBuf buf, int abs) {
+        return abs == -1 ? -1 : abs - buf.absPos();
+    }
+
+    // every position of the match in [off, off + len), the pattern bytes are
+    // also placed just out of the range
+    @Test
+    public void testIndexOf() throws Exception {
+        for (byte b : alphabet) {
+            byte other = (byte) (b == 0x01 ? 0x02 : 0x01);
+            for (int len = 0; len <= maxLen; len++) {
+                for (int off = 0; off < 8; off++) {
+                    for (int k = -1; k < len; k++) {
+                        byte[] data = new byte[off + len + 9];
+                        java.util.Arrays.fill(data, other);
+                        if (off > 0) {
+                            data[off - 1] = b;
+                        }
+                        data[off + len] = b;
+                        if (k >= 0) {
+                            data[off + k] = b;
+                        }
+                        List<ByteBuf> bufs = bufs(data);
+                        for (ByteBuf buf : bufs) {
+                            int r = rel(buf, buf.indexOf(b, buf.absPos() + off, len));
+                            Assert.assertEquals(k == -1 ? -1 : off + k, r);
+                        }
+                        release(bufs);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOfAny() throws Exception {
+        byte[][] sets = { { 0x00 }, { (byte) 0x80, (byte) 0xff }, { '\r', '\n', ':' },
+                { 0x7f, 0x00, (byte) 0x80, (byte) 0xff }, { 1, 2, 3, 4, 5 } };
+        Random r = new Random(1);
+        for (byte[] set : sets) {
+            for (int len = 0; len <= maxLen; len++) {
+                for (int off = 0; off < 8; off++) {
+                    for (int round = 0; round < 8; round++) {
+                        byte[] data = new byte[off + len + 8];
+                        for (int i = 0; i < data.length; i++) {
+                            data[i] = (byte) ('a' + r.nextInt(26));
+                        }
+                        // a match in the tail bytes, and out of the range
+                        if (len > 0 && round > 0) {
+                            data[off + len - 1 - r.nextInt(Math.min(len, 8))] = set[r
+                                    .nextInt(set.length)];
+                        }
+                        data[off + len] = set[0];
+                        int expect = indexOfAny(data, set, off, len);
+                        List<ByteBuf> bufs = bufs(data);
+                        for (ByteBuf buf : bufs) {
+                            int p = buf.indexOfAny(set, buf.absPos() + off, len);
+                            Assert.assertEquals(expect, rel(buf, p));
+                        }
+                        release(bufs);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOfBytes() throws Exception {
+        byte[] bytes = { '\r', '\n', '\r', '\n' };
+        Random r = new Random(2);
+        for (int len = 0; len <= maxLen; len++) {
+            for (int off = 0; off < 8; off++) {
+                for (int round = 0; round < 16; round++) {
+                    byte[] data = new byte[off + len + 8];
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = alphabet[r.nextInt(alphabet.length)];
+                    }
+                    // the match across the limit must not be found
+                    System.arraycopy(bytes, 0, data, off + len - Math.min(len, 2), 4);
+                    int expect = indexOf(data, bytes, off, len);
+                    List<ByteBuf> bufs = bufs(data);
+                    for (ByteBuf buf : bufs) {
+                        int p = buf.indexOf(bytes, buf.absPos() + off, len);
+                        Assert.assertEquals(expect, rel(buf, p));
+                        Assert.assertEquals(-1, buf.indexOf(new byte[0], buf.absPos(), len));
+                    }
+                    release(bufs);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOfRandom() throws Exception {
+        Random r = new Random(3);
+        for (int round = 0; round < 2000; round++) {
+            int len = r.nextInt(64);
+            int off = r.nextInt(8);
+            byte[] data = new byte[off + len + 8];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = alphabet[r.nextInt(alphabet.length)];
+            }
+            byte b = (byte) r.nextInt(256);
+            int expect = indexOf(data, b, off, len);
+            List<ByteBuf> bufs = bufs(data);
+            for (ByteBuf buf : bufs) {
+                Assert.assertEquals(expect, rel(buf, buf.indexOf(b, buf.absPos() + off, len)));
+            }
+            release(bufs);
+        }
+    }
+
+}
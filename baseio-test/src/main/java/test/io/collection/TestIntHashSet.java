@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.io.collection;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.firenio.baseio.collection.IntHashSet;
+
+import junit.framework.Assert;
+
+/**
+ * @author wangkai
+ *
+ */
+public class TestIntHashSet {
+
+    static void v(IntHashSet set, Set<Integer> expect) {
+        Assert.assertEquals(expect.size(), set.size());
+        Assert.assertEquals(expect.isEmpty(), set.isEmpty());
+        Set<Integer> keys = new HashSet<>();
+        for (int i = 0, cap = set.capacity(); i < cap; i++) {
+            int k = set.indexKey(i);
+            if (k != IntHashSet.FREE) {
+                Assert.assertTrue("duplicated key: " + k, keys.add(k));
+            }
+        }
+        Assert.assertEquals(expect, keys);
+        for (Integer k : expect) {
+            Assert.assertTrue("lost key: " + k, set.contains(k));
+        }
+    }
+
+    @Test
+    public void testAddRemove() throws Exception {
+        IntHashSet set = new IntHashSet();
+        Assert.assertTrue(set.add(1));
+        Assert.assertFalse(set.add(1));
+        Assert.assertTrue(set.contains(1));
+        Assert.assertFalse(set.remove(2));
+        Assert.assertTrue(set.remove(1));
+        Assert.assertFalse(set.remove(1));
+        Assert.assertFalse(set.contains(1));
+        Assert.assertTrue(set.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddFree() throws Exception {
+        new IntHashSet().add(IntHashSet.FREE);
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        IntHashSet set = new IntHashSet();
+        for (int i = 0; i < 100; i++) {
+            set.add(i);
+        }
+        set.clear();
+        v(set, new HashSet<Integer>());
+        set.add(7);
+        Assert.assertTrue(set.contains(7));
+    }
+
+    @Test
+    public void testRehash() throws Exception {
+        IntHashSet set = new IntHashSet();
+        Set<Integer> expect = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            set.add(i * 16);
+            expect.add(i * 16);
+        }
+        Assert.assertTrue(set.capacity() >= 1000);
+        v(set, expect);
+    }
+
+    // remove with the backward shift, the other keys of the probe chains
+    // (including the chains wrapped to the head of the table) must be kept
+    @Test
+    public void testRemoveShift() throws Exception {
+        Random r = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            IntHashSet set = new IntHashSet(16);
+            Set<Integer> expect = new HashSet<>();
+            // at most 12 keys in 16 slots, no rehash, long chains
+            for (int i = 0; i < 2000; i++) {
+                int k = r.nextInt(24);
+                if (r.nextBoolean() && expect.size() < 12) {
+                    Assert.assertEquals(expect.add(k), set.add(k));
+                } else {
+                    Assert.assertEquals(expect.remove(k), set.remove(k));
+                }
+                Assert.assertEquals(16, set.capacity());
+            }
+            v(set, expect);
+        }
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        Random r = new Random(2);
+        IntHashSet set = new IntHashSet();
+        Set<Integer> expect = new HashSet<>();
+        for (int i = 0; i < 100000; i++) {
+            int k = r.nextInt(4096);
+            if (r.nextInt(3) != 0) {
+                Assert.assertEquals(expect.add(k), set.add(k));
+            } else {
+                Assert.assertEquals(expect.remove(k), set.remove(k));
+            }
+        }
+        v(set, expect);
+    }
+
+}
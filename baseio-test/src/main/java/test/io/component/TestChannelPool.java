@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.io.component;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.firenio.baseio.codec.lengthvalue.LengthValueCodec;
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.ChannelAcceptor;
+import com.firenio.baseio.component.ChannelConnector;
+import com.firenio.baseio.component.ChannelEventListenerAdapter;
+import com.firenio.baseio.component.ChannelPool;
+import com.firenio.baseio.component.ChannelPool.ConnectorFactory;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.IoEventHandle;
+import com.firenio.baseio.component.NioEventLoop;
+import com.firenio.baseio.component.NioEventLoopGroup;
+import com.firenio.baseio.concurrent.Callback;
+import com.firenio.baseio.concurrent.Waiter;
+
+import junit.framework.Assert;
+
+/**
+ * @author wangkai
+ *
+ */
+public class TestChannelPool {
+
+    static final String host       = "127.0.0.1";
+    static final int    port       = 8312;
+    // nothing listens on it
+    static final int    deadPort   = 8313;
+
+    ChannelAcceptor     context;
+    final AtomicInteger connectors = new AtomicInteger();
+    NioEventLoopGroup   group;
+    final AtomicInteger opened     = new AtomicInteger();
+    ChannelPool         pool;
+
+    @After
+    public void clean() throws Exception {
+        Util.close(pool);
+        Util.stop(group);
+        Util.unbind(context);
+    }
+
+    @Before
+    public void init() throws Exception {
+        context = new ChannelAcceptor(port);
+        context.setPrintConfig(false);
+        context.addProtocolCodec(new LengthValueCodec());
+        context.setIoEventHandle(new IoEventHandle() {
+
+            @Override
+            public void accept(Channel ch, Frame frame) throws Exception {}
+        });
+        context.addChannelEventListener(new ChannelEventListenerAdapter() {
+
+            @Override
+            public void channelOpened(Channel ch) throws Exception {
+                opened.incrementAndGet();
+            }
+        });
+        context.bind();
+        group = new NioEventLoopGroup(true, 1);
+        pool = new ChannelPool(group, new ConnectorFactory() {
+
+            @Override
+            public ChannelConnector newConnector(NioEventLoop eventLoop, String host,
+                    int port) {
+                connectors.incrementAndGet();
+                ChannelConnector c = new ChannelConnector(eventLoop, host, port);
+                c.setPrintConfig(false);
+                c.addProtocolCodec(new LengthValueCodec());
+                c.setIoEventHandle(new IoEventHandle() {
+
+                    @Override
+                    public void accept(Channel ch, Frame frame) throws Exception {}
+                });
+                return c;
+            }
+        });
+        pool.setHealthCheckInterval(0);
+    }
+
+    static void waitFor(AtomicInteger v, int expect) throws Exception {
+        for (int i = 0; i < 100 && v.get() != expect; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(expect, v.get());
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        Channel ch = pool.acquire(host, port);
+        Assert.assertTrue(ch.isOpen());
+        pool.release(ch);
+        for (int i = 0; i < 10; i++) {
+            Channel c = pool.acquire(host, port);
+            Assert.assertSame(ch, c);
+            pool.release(c);
+        }
+        waitFor(opened, 1);
+        Assert.assertEquals(1, connectors.get());
+    }
+
+    @Test
+    public void testGrow() throws Exception {
+        pool.setMaxSize(2);
+        Channel c1 = pool.acquire(host, port);
+        // the busy connection is shared while one more is opening
+        Channel c2 = pool.acquire(host, port);
+        Assert.assertSame(c1, c2);
+        waitFor(opened, 2);
+        Thread.sleep(100);
+        // the new connection has no pending borrow
+        Channel c3 = pool.acquire(host, port);
+        Assert.assertNotSame(c1, c3);
+        // full, the least pending one
+        Channel c4 = pool.acquire(host, port);
+        Assert.assertSame(c3, c4);
+        Thread.sleep(100);
+        Assert.assertEquals(2, opened.get());
+        Assert.assertEquals(2, connectors.get());
+    }
+
+    @Test
+    public void testMinSize() throws Exception {
+        pool.setMinSize(3);
+        pool.release(pool.acquire(host, port));
+        waitFor(opened, 3);
+    }
+
+    @Test
+    public void testChannelClosed() throws Exception {
+        Channel c1 = pool.acquire(host, port);
+        pool.release(c1);
+        Util.close(c1);
+        Thread.sleep(100);
+        Channel c2 = pool.acquire(host, port);
+        Assert.assertNotSame(c1, c2);
+        Assert.assertTrue(c2.isOpen());
+        Assert.assertEquals(2, connectors.get());
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        pool.setBackoff(400);
+        pool.setMaxBackoff(400);
+        try {
+            pool.acquire(host, deadPort);
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(1, connectors.get());
+        // backing off, fail fast without connecting
+        try {
+            pool.acquire(host, deadPort);
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(1, connectors.get());
+        Thread.sleep(500);
+        try {
+            pool.acquire(host, deadPort);
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(2, connectors.get());
+    }
+
+    @Test
+    public void testBlockingInEventLoop() throws Exception {
+        final Waiter<Throwable> w = new Waiter<>();
+        pool.acquire(host, port, new Callback<Channel>() {
+
+            @Override
+            public void call(Channel ch, Throwable ex) {
+                try {
+                    pool.acquire(host, port);
+                    w.call(null, null);
+                } catch (Exception e) {
+                    w.call(e, null);
+                }
+            }
+        });
+        Assert.assertFalse(w.await(3000));
+        Assert.assertTrue(w.getResponse() instanceof IOException);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        Channel ch = pool.acquire(host, port);
+        pool.close();
+        for (int i = 0; i < 100 && ch.isOpen(); i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertFalse(ch.isOpen());
+        try {
+            pool.acquire(host, port);
+            Assert.fail();
+        } catch (ClosedChannelException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.io.component;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.firenio.baseio.codec.lengthvalue.LengthValueCodec;
+import com.firenio.baseio.codec.lengthvalue.LengthValueFrame;
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.ChannelAcceptor;
+import com.firenio.baseio.component.ChannelEventListenerAdapter;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.IoEventHandle;
+import com.firenio.baseio.component.NioEventLoopGroup;
+import com.firenio.baseio.component.TcpLoadBalancer;
+
+import junit.framework.Assert;
+
+/**
+ * @author wangkai
+ *
+ */
+public class TestTcpLoadBalancer {
+
+    static final String         host     = "127.0.0.1";
+    static final int            port     = 8316;
+    // the ports of the backends
+    static final int[]          ports    = { 8317, 8318, 8319 };
+
+    final List<ChannelAcceptor> backends = new ArrayList<>();
+    final List<Socket>          clients  = new ArrayList<>();
+    // the closed channels of all the backends
+    final AtomicInteger         closed   = new AtomicInteger();
+    NioEventLoopGroup           group;
+    TcpLoadBalancer             lb;
+    final AtomicInteger[]       opened   = new AtomicInteger[ports.length];
+
+    @After
+    public void clean() throws Exception {
+        for (Socket s : clients) {
+            Util.close(s);
+        }
+        Util.close(lb);
+        Util.stop(group);
+        for (ChannelAcceptor a : backends) {
+            Util.unbind(a);
+        }
+    }
+
+    // the backend i answers "b" + i + ":" + the message
+    void backend(final int i) throws Exception {
+        opened[i] = new AtomicInteger();
+        ChannelAcceptor a = new ChannelAcceptor(ports[i]);
+        a.setPrintConfig(false);
+        a.addProtocolCodec(new LengthValueCodec());
+        a.setIoEventHandle(new IoEventHandle() {
+
+            @Override
+            public void accept(Channel ch, Frame f) throws Exception {
+                String text = f.getStringContent();
+                LengthValueFrame res = new LengthValueFrame();
+                res.setContent(ch.allocate());
+                res.write("b" + i + ":" + text, ch);
+                ch.writeAndFlush(res);
+            }
+        });
+        a.addChannelEventListener(new ChannelEventListenerAdapter() {
+
+            @Override
+            public void channelClosed(Channel ch) {
+                closed.incrementAndGet();
+            }
+
+            @Override
+            public void channelOpened(Channel ch) throws Exception {
+                opened[i].incrementAndGet();
+            }
+        });
+        a.bind();
+        backends.add(a);
+    }
+
+    // the backends 0 to count, and the port of the backend count is dead
+    void lb(String strategy, int count, boolean dead) throws Exception {
+        for (int i = 0; i < count; i++) {
+            backend(i);
+        }
+        group = new NioEventLoopGroup(true, 1);
+        lb = new TcpLoadBalancer(group, port);
+        lb.getAcceptor().setPrintConfig(false);
+        lb.setStrategy(strategy);
+        lb.setHealthCheckInterval(0);
+        for (int i = 0; i < count; i++) {
+            lb.addBackend(host, ports[i]);
+        }
+        if (dead) {
+            lb.addBackend(host, ports[count]);
+        }
+        lb.bind();
+    }
+
+    Socket connect() throws IOException {
+        Socket s = new Socket(host, port);
+        s.setSoTimeout(3000);
+        clients.add(s);
+        return s;
+    }
+
+    static String send(Socket s, String text) throws IOException {
+        DataOutputStream out = new DataOutputStream(s.getOutputStream());
+        byte[] data = text.getBytes();
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+        DataInputStream in = new DataInputStream(s.getInputStream());
+        byte[] res = new byte[in.readInt()];
+        in.readFully(res);
+        return new String(res);
+    }
+
+    // the backend of the answer
+    static String backendOf(String res) {
+        return res.substring(0, res.indexOf(':'));
+    }
+
+    static void waitFor(AtomicInteger v, int expect) throws Exception {
+        for (int i = 0; i < 100 && v.get() != expect; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(expect, v.get());
+    }
+
+    @Test
+    public void testRelay() throws Exception {
+        lb(TcpLoadBalancer.LEAST_CONNECTIONS, 2, false);
+        Socket s = connect();
+        String b = backendOf(send(s, "hello"));
+        StringBuilder big = new StringBuilder();
+        while (big.length() < 1024 * 7) {
+            big.append("0123456789");
+        }
+        // a session stays on its backend
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(b + ":" + big, send(s, big.toString()));
+        }
+    }
+
+    @Test
+    public void testLeastConnections() throws Exception {
+        lb(TcpLoadBalancer.LEAST_CONNECTIONS, 2, false);
+        int[] counts = new int[2];
+        List<Socket> b0 = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Socket s = connect();
+            String b = backendOf(send(s, "hello"));
+            counts[b.charAt(1) - '0']++;
+            if (b.equals("b0")) {
+                b0.add(s);
+            }
+        }
+        Assert.assertEquals(3, counts[0]);
+        Assert.assertEquals(3, counts[1]);
+        // the closed sessions are not counted, the new ones go to the idle backend
+        for (Socket s : b0) {
+            Util.close(s);
+        }
+        Thread.sleep(100);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("b0", backendOf(send(connect(), "hello")));
+        }
+    }
+
+    @Test
+    public void testConsistentHash() throws Exception {
+        lb(TcpLoadBalancer.CONSISTENT_HASH, 3, false);
+        Set<String> res = new HashSet<>();
+        // the clients of the same address
+        for (int i = 0; i < 6; i++) {
+            res.add(backendOf(send(connect(), "hello")));
+        }
+        Assert.assertEquals(1, res.size());
+    }
+
+    @Test
+    public void testPowerOfTwo() throws Exception {
+        lb(TcpLoadBalancer.POWER_OF_TWO, 3, false);
+        for (int i = 0; i < 9; i++) {
+            Assert.assertEquals("hello", send(connect(), "hello").substring(3));
+        }
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        lb(TcpLoadBalancer.LEAST_CONNECTIONS, 1, true);
+        // the dead backend is tried and the next one is selected
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("b0:hello", send(connect(), "hello"));
+        }
+    }
+
+    @Test
+    public void testHealthCheck() throws Exception {
+        group = new NioEventLoopGroup(true, 1);
+        lb = new TcpLoadBalancer(group, port);
+        lb.getAcceptor().setPrintConfig(false);
+        lb.setHealthCheckInterval(100);
+        lb.addBackend(host, ports[0]);
+        lb.bind();
+        TcpLoadBalancer.Backend b = lb.getBackends().get(0);
+        for (int i = 0; i < 50 && b.isHealthy(); i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertFalse(b.isHealthy());
+        backend(0);
+        for (int i = 0; i < 50 && !b.isHealthy(); i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertTrue(b.isHealthy());
+        Assert.assertEquals("b0:hello", send(connect(), "hello"));
+    }
+
+    @Test
+    public void testWarm() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            backend(i);
+        }
+        group = new NioEventLoopGroup(true, 1);
+        lb = new TcpLoadBalancer(group, port);
+        lb.getAcceptor().setPrintConfig(false);
+        lb.setHealthCheckInterval(0);
+        lb.setWarmSize(2);
+        lb.addBackend(host, ports[0]);
+        lb.addBackend(host, ports[1]);
+        lb.bind();
+        AtomicInteger total = new AtomicInteger();
+        // two warm of each backend, and the first session
+        send(connect(), "hello");
+        Thread.sleep(100);
+        total.set(opened[0].get() + opened[1].get());
+        Assert.assertEquals(5, total.get());
+        // the session takes a warm one, and it is refilled
+        send(connect(), "hello");
+        Thread.sleep(100);
+        total.set(opened[0].get() + opened[1].get());
+        Assert.assertEquals(6, total.get());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        lb(TcpLoadBalancer.LEAST_CONNECTIONS, 1, false);
+        Socket s = connect();
+        Assert.assertEquals("b0:hello", send(s, "hello"));
+        lb.close();
+        // the session is closed at both sides
+        Assert.assertEquals(-1, s.getInputStream().read());
+        waitFor(closed, 1);
+        try {
+            connect();
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+}
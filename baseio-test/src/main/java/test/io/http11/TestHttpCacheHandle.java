@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.io.http11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.codec.http11.HttpCacheHandle;
+import com.firenio.baseio.codec.http11.HttpCodec;
+import com.firenio.baseio.codec.http11.HttpDateUtil;
+import com.firenio.baseio.codec.http11.HttpFrame;
+import com.firenio.baseio.codec.http11.HttpHeader;
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.ChannelAcceptor;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.IoEventHandle;
+
+import junit.framework.Assert;
+
+/**
+ * @author wangkai
+ *
+ */
+public class TestHttpCacheHandle {
+
+    static final int    port    = 8310;
+
+    final AtomicInteger count   = new AtomicInteger();
+    ChannelAcceptor     context;
+    File                file;
+    Socket              socket;
+
+    @After
+    public void clean() throws Exception {
+        Util.close(socket);
+        Util.unbind(context);
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Before
+    public void init() throws Exception {
+        HttpDateUtil.start();
+        file = File.createTempFile("cache", ".txt");
+    }
+
+    // the body is "url?query@host#count" padded to the size
+    void server(long maxSize, long ttl, final int size) throws Exception {
+        IoEventHandle handle = new IoEventHandle() {
+
+            @Override
+            public void accept(Channel ch, Frame frame) throws Exception {
+                HttpFrame f = (HttpFrame) frame;
+                String url = f.getRequestURL();
+                StringBuilder b = new StringBuilder(url);
+                b.append('?').append(f.getRequestParam("x"));
+                b.append('@').append(f.getRequestHeader(HttpHeader.Host));
+                b.append('#').append(count.incrementAndGet());
+                while (b.length() < size) {
+                    b.append('.');
+                }
+                byte[] data = b.toString().getBytes();
+                if (url.equals("/buf")) {
+                    ByteBuf buf = ch.alloc().allocate(data.length);
+                    buf.put(data);
+                    f.setContent(buf);
+                } else if (url.equals("/dup")) {
+                    // a read only view, e.g. of the static content
+                    ByteBuf buf = ByteBuf.wrap(data);
+                    buf.position(buf.limit());
+                    f.setContent(buf.duplicate());
+                } else {
+                    f.setContent(data);
+                }
+                f.setDate(HttpDateUtil.getDateLine());
+                f.setCacheable(url.equals("/file") ? file : null);
+                ch.writeAndFlush(f);
+            }
+        };
+        context = new ChannelAcceptor(port);
+        context.setPrintConfig(false);
+        context.addProtocolCodec(new HttpCodec());
+        context.setIoEventHandle(new HttpCacheHandle(handle, maxSize, ttl));
+        context.bind();
+        socket = new Socket("127.0.0.1", port);
+    }
+
+    // [date, body]
+    String[] get(String path, String host) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes());
+        out.flush();
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        for (int c; !head.toString().endsWith("\r\n\r\n");) {
+            c = in.read();
+            Assert.assertTrue(c != -1);
+            head.write(c);
+        }
+        String date = null;
+        int len = 0;
+        for (String line : head.toString().split("\r\n")) {
+            int i = line.indexOf(':');
+            if (i == -1) {
+                continue;
+            }
+            String name = line.substring(0, i).trim();
+            String value = line.substring(i + 1).trim();
+            if (name.equalsIgnoreCase("Date")) {
+                date = value;
+            } else if (name.equalsIgnoreCase("Content-Length")) {
+                len = Integer.parseInt(value);
+            }
+        }
+        byte[] body = new byte[len];
+        for (int i = 0; i < len;) {
+            int n = in.read(body, i, len - i);
+            Assert.assertTrue(n != -1);
+            i += n;
+        }
+        return new String[] { date, new String(body) };
+    }
+
+    String body(String path, String host) throws IOException {
+        return get(path, host)[1];
+    }
+
+    static String trim(String body) {
+        int i = body.indexOf('.');
+        return i == -1 ? body : body.substring(0, i);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        server(1024 * 1024, 0, 0);
+        Assert.assertEquals("/a?1@h1#1", body("/a?x=1", "h1"));
+        Assert.assertEquals("/a?1@h1#1", body("/a?x=1", "h1"));
+        Assert.assertEquals("/a?2@h1#2", body("/a?x=2", "h1"));
+        Assert.assertEquals("/a?1@h2#3", body("/a?x=1", "h2"));
+        Assert.assertEquals("/a?2@h1#2", body("/a?x=2", "h1"));
+        Assert.assertEquals("/a?1@h2#3", body("/a?x=1", "h2"));
+        Assert.assertEquals(3, count.get());
+    }
+
+    @Test
+    public void testByteBufBody() throws Exception {
+        server(1024 * 1024, 0, 1024 * 16);
+        String b1 = body("/buf", "h");
+        Assert.assertEquals(1024 * 16, b1.length());
+        Assert.assertEquals("/buf?null@h#1", trim(b1));
+        Assert.assertEquals(b1, body("/buf", "h"));
+        String b2 = body("/dup", "h");
+        Assert.assertEquals(1024 * 16, b2.length());
+        Assert.assertEquals("/dup?null@h#2", trim(b2));
+        Assert.assertEquals(b2, body("/dup", "h"));
+        Assert.assertEquals(2, count.get());
+    }
+
+    @Test
+    public void testDate() throws Exception {
+        server(1024 * 1024, 0, 0);
+        String[] r1 = get("/a", "h");
+        Assert.assertNotNull(r1[0]);
+        Thread.sleep(1100);
+        String[] r2 = get("/a", "h");
+        Assert.assertEquals(r1[1], r2[1]);
+        Assert.assertEquals(1, count.get());
+        Assert.assertFalse(r1[0].equals(r2[0]));
+        Assert.assertEquals(r1[0].length(), r2[0].length());
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        server(1024 * 1024, 500, 0);
+        Assert.assertEquals("/a?null@h#1", body("/a", "h"));
+        Assert.assertEquals("/a?null@h#1", body("/a", "h"));
+        Thread.sleep(1100);
+        Assert.assertEquals("/a?null@h#2", body("/a", "h"));
+        Assert.assertEquals("/a?null@h#2", body("/a", "h"));
+    }
+
+    @Test
+    public void testFileModified() throws Exception {
+        server(1024 * 1024, 0, 0);
+        Assert.assertEquals("/file?null@h#1", body("/file", "h"));
+        Assert.assertEquals("/file?null@h#1", body("/file", "h"));
+        Thread.sleep(1100);
+        Assert.assertEquals("/file?null@h#1", body("/file", "h"));
+        Assert.assertTrue(file.setLastModified(file.lastModified() - 10000));
+        Thread.sleep(1100);
+        Assert.assertEquals("/file?null@h#2", body("/file", "h"));
+        Assert.assertEquals("/file?null@h#2", body("/file", "h"));
+    }
+
+    @Test
+    public void testLru() throws Exception {
+        // two entries (head and 1k body) fit in the limit
+        server(1024 * 2 + 512, 0, 1024);
+        Assert.assertEquals("/a?null@h#1", trim(body("/a", "h")));
+        Assert.assertEquals("/b?null@h#2", trim(body("/b", "h")));
+        Assert.assertEquals("/a?null@h#1", trim(body("/a", "h")));
+        Assert.assertEquals("/c?null@h#3", trim(body("/c", "h")));
+        Assert.assertEquals("/a?null@h#1", trim(body("/a", "h")));
+        Assert.assertEquals("/c?null@h#3", trim(body("/c", "h")));
+        Assert.assertEquals("/b?null@h#4", trim(body("/b", "h")));
+        Assert.assertEquals("/a?null@h#5", trim(body("/a", "h")));
+    }
+
+}
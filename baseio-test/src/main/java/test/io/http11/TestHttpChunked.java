@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.io.http11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.codec.http11.HttpChunkFrame;
+import com.firenio.baseio.codec.http11.HttpCodec;
+import com.firenio.baseio.codec.http11.HttpFrame;
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.ChannelAcceptor;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.IoEventHandle;
+
+import junit.framework.Assert;
+
+/**
+ * @author wangkai
+ *
+ */
+public class TestHttpChunked {
+
+    static final int port = 8311;
+
+    // the body of "hello chunked world", with an extension and a trailer
+    static final String body = "5;ext=1\r\nhello\r\n8\r\n chunked\r\n6\r\n world\r\n0\r\n"
+            + "X-Trailer: 1\r\n\r\n";
+
+    ChannelAcceptor context;
+    Socket          socket;
+
+    @After
+    public void clean() throws Exception {
+        Util.close(socket);
+        Util.unbind(context);
+    }
+
+    // echo the aggregated body, or the streamed chunks when the last arrives
+    void server(boolean streamBody) throws Exception {
+        IoEventHandle handle = new IoEventHandle() {
+
+            StringBuilder chunks = new StringBuilder();
+
+            @Override
+            public void accept(Channel ch, Frame frame) throws Exception {
+                if (frame instanceof HttpChunkFrame) {
+                    HttpChunkFrame c = (HttpChunkFrame) frame;
+                    if (c.getContent() != null) {
+                        chunks.append(new String(c.getArrayContent()));
+                        chunks.append('|');
+                    }
+                    if (c.isLast()) {
+                        HttpFrame f = c.getHead();
+                        f.setContent(chunks.toString().getBytes());
+                        chunks.setLength(0);
+                        ch.writeAndFlush(f);
+                    }
+                    return;
+                }
+                HttpFrame f = (HttpFrame) frame;
+                if (f.isStreaming()) {
+                    return;
+                }
+                if (f.getRequestURL().equals("/chunked")) {
+                    f.setChunked(true);
+                    ch.writeAndFlush(f);
+                    ch.writeAndFlush(new HttpChunkFrame("hello".getBytes()));
+                    ByteBuf buf = ch.alloc().allocate(8);
+                    buf.put(" chunked".getBytes());
+                    ch.writeAndFlush(new HttpChunkFrame(buf));
+                    ch.writeAndFlush(new HttpChunkFrame());
+                    return;
+                }
+                byte[] content = f.getArrayContent();
+                f.setContent(content == null ? new byte[0] : content);
+                ch.writeAndFlush(f);
+            }
+        };
+        HttpCodec codec = new HttpCodec();
+        codec.setStreamBody(streamBody);
+        context = new ChannelAcceptor(port);
+        context.setPrintConfig(false);
+        context.addProtocolCodec(codec);
+        context.setIoEventHandle(handle);
+        context.bind();
+        socket = new Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+    }
+
+    // write the request in pieces of the size, to split the chunks across reads
+    String post(String body, int piece) throws Exception {
+        String head = "POST /echo HTTP/1.1\r\nHost: h\r\nTransfer-Encoding: chunked\r\n\r\n";
+        byte[] data = (head + body).getBytes();
+        OutputStream out = socket.getOutputStream();
+        for (int i = 0; i < data.length; i += piece) {
+            out.write(data, i, Math.min(piece, data.length - i));
+            out.flush();
+            Thread.sleep(5);
+        }
+        return read(socket.getInputStream());
+    }
+
+    static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        for (int c; !head.toString().endsWith("\r\n\r\n");) {
+            c = in.read();
+            if (c == -1) {
+                return null;
+            }
+            head.write(c);
+        }
+        int len = 0;
+        for (String line : head.toString().split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                len = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        byte[] body = new byte[len];
+        for (int i = 0; i < len;) {
+            int n = in.read(body, i, len - i);
+            Assert.assertTrue(n != -1);
+            i += n;
+        }
+        return new String(body);
+    }
+
+    @Test
+    public void testAggregate() throws Exception {
+        server(false);
+        Assert.assertEquals("hello chunked world", post(body, 1024));
+        Assert.assertEquals("hello chunked world", post(body, 3));
+        Assert.assertEquals("hello chunked world", post(body, 1));
+        Assert.assertEquals("", post("0\r\n\r\n", 1024));
+        Assert.assertEquals("0123456789abcdef", post("10\r\n0123456789abcdef\r\n0\r\n\r\n", 2));
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        server(true);
+        Assert.assertEquals("hello| chunked| world|", post(body, 1024));
+        String r = post(body, 4);
+        Assert.assertEquals("hello chunked world", r.replace("|", ""));
+        Assert.assertEquals("", post("0\r\n\r\n", 1024));
+    }
+
+    @Test
+    public void testIllegal() throws Exception {
+        String[] bads = { "zz\r\nhello\r\n0\r\n\r\n", "\r\nhello\r\n0\r\n\r\n",
+                "5\r\nhelloXX\r\n0\r\n\r\n", "fffffffff\r\n" };
+        for (String bad : bads) {
+            server(false);
+            // the connection is closed by the decode error
+            Assert.assertNull(bad, post(bad, 1024));
+            clean();
+        }
+    }
+
+    @Test
+    public void testEncode() throws Exception {
+        server(false);
+        URL url = new URL("http://127.0.0.1:" + port + "/chunked");
+        HttpURLConnection c = (HttpURLConnection) url.openConnection();
+        Assert.assertEquals("chunked", c.getHeaderField("Transfer-Encoding"));
+        Assert.assertEquals(-1, c.getContentLength());
+        InputStream in = c.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int b; (b = in.read()) != -1;) {
+            out.write(b);
+        }
+        Assert.assertEquals("hello chunked", out.toString());
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.io.http11;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.firenio.baseio.TimeoutException;
+import com.firenio.baseio.codec.http11.ClientHttpFrame;
+import com.firenio.baseio.codec.http11.HttpClient;
+import com.firenio.baseio.codec.http11.HttpCodec;
+import com.firenio.baseio.codec.http11.HttpConnection;
+import com.firenio.baseio.codec.http11.HttpFrame;
+import com.firenio.baseio.common.Util;
+import com.firenio.baseio.component.Channel;
+import com.firenio.baseio.component.ChannelAcceptor;
+import com.firenio.baseio.component.ChannelEventListenerAdapter;
+import com.firenio.baseio.component.Frame;
+import com.firenio.baseio.component.IoEventHandle;
+import com.firenio.baseio.component.NioEventLoopGroup;
+import com.firenio.baseio.concurrent.Callback;
+import com.firenio.baseio.concurrent.Waiter;
+
+import junit.framework.Assert;
+
+/**
+ * @author wangkai
+ *
+ */
+public class TestHttpClient {
+
+    static final String host     = "127.0.0.1";
+    static final int    port     = 8314;
+    // nothing listens on it
+    static final int    deadPort = 8315;
+
+    HttpClient          client;
+    ChannelAcceptor     context;
+    NioEventLoopGroup   group;
+    final AtomicInteger opened   = new AtomicInteger();
+
+    @After
+    public void clean() throws Exception {
+        Util.close(client);
+        Util.stop(group);
+        Util.unbind(context);
+    }
+
+    // echo the url, "/slow" is answered after 500ms, "/close" closes the connection
+    @Before
+    public void init() throws Exception {
+        context = new ChannelAcceptor(port);
+        context.setPrintConfig(false);
+        context.addProtocolCodec(new HttpCodec());
+        context.setIoEventHandle(new IoEventHandle() {
+
+            @Override
+            public void accept(final Channel ch, Frame frame) throws Exception {
+                final HttpFrame f = (HttpFrame) frame;
+                String url = f.getRequestURL();
+                f.setContent(url.getBytes());
+                if (url.equals("/close")) {
+                    f.setConnection(HttpConnection.CLOSE);
+                } else if (url.equals("/slow")) {
+                    Util.exec(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            Util.sleep(500);
+                            try {
+                                ch.writeAndFlush(f);
+                            } catch (Exception e) {
+                                // the channel may be closed by the client
+                            }
+                        }
+                    });
+                    return;
+                }
+                ch.writeAndFlush(f);
+            }
+        });
+        context.addChannelEventListener(new ChannelEventListenerAdapter() {
+
+            @Override
+            public void channelOpened(Channel ch) throws Exception {
+                opened.incrementAndGet();
+            }
+        });
+        context.bind();
+        group = new NioEventLoopGroup(true, 1);
+        client = new HttpClient(group);
+    }
+
+    String get(String url) throws Exception {
+        return new String(client.request(host, port, new ClientHttpFrame(url)).getArrayContent());
+    }
+
+    // send the requests at once, and return the bodies in the order of the responses
+    List<String> getAll(int count) throws Exception {
+        final List<String> res = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            client.request(host, port, new ClientHttpFrame("/" + i),
+                    new Callback<ClientHttpFrame>() {
+
+                        @Override
+                        public void call(ClientHttpFrame f, Throwable ex) {
+                            res.add(ex == null ? new String(f.getArrayContent()) : ex.toString());
+                            latch.countDown();
+                        }
+                    });
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return res;
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("/a" + i, get("/a" + i));
+        }
+        Assert.assertEquals(1, opened.get());
+    }
+
+    @Test
+    public void testMaxConnections() throws Exception {
+        client.setMaxConnections(4);
+        List<String> res = getAll(50);
+        Assert.assertEquals(50, res.size());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertTrue(res.contains("/" + i));
+        }
+        Assert.assertTrue(opened.get() <= 4);
+    }
+
+    @Test
+    public void testPipelining() throws Exception {
+        client.setPipelining(true);
+        client.setMaxConnections(1);
+        List<String> res = getAll(50);
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals("/" + i, res.get(i));
+        }
+        Assert.assertEquals(1, opened.get());
+    }
+
+    @Test
+    public void testConnectionClose() throws Exception {
+        Assert.assertEquals("/close", get("/close"));
+        Assert.assertEquals("/a", get("/a"));
+        Assert.assertEquals(2, opened.get());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        client.setRequestTimeout(200);
+        try {
+            get("/slow");
+            Assert.fail();
+        } catch (TimeoutException e) {
+            // expected
+        }
+        // the hung connection is closed, a new one is opened
+        Assert.assertEquals("/a", get("/a"));
+        Assert.assertEquals(2, opened.get());
+    }
+
+    @Test
+    public void testConnectFailed() throws Exception {
+        try {
+            client.request(host, deadPort, new ClientHttpFrame("/a"));
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBlockingInEventLoop() throws Exception {
+        final Waiter<Throwable> w = new Waiter<>();
+        client.request(host, port, new ClientHttpFrame("/a"), new Callback<ClientHttpFrame>() {
+
+            @Override
+            public void call(ClientHttpFrame f, Throwable ex) {
+                try {
+                    client.request(host, port, new ClientHttpFrame("/b"));
+                    w.call(null, null);
+                } catch (Exception e) {
+                    w.call(e, null);
+                }
+            }
+        });
+        Assert.assertFalse(w.await(3000));
+        Assert.assertTrue(w.getResponse() instanceof IOException);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        Assert.assertEquals("/a", get("/a"));
+        client.close();
+        try {
+            get("/b");
+            Assert.fail();
+        } catch (ClosedChannelException e) {
+            // expected
+        }
+    }
+
+}
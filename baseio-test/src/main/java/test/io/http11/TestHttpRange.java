@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.io.http11;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.firenio.baseio.codec.http11.HttpRange;
+
+import junit.framework.Assert;
+
+/**
+ * @author wangkai
+ *
+ */
+public class TestHttpRange {
+
+    static void v(String range, long length, long... expect) {
+        long[] r = HttpRange.parse(range, length);
+        Assert.assertNotNull(range, r);
+        Assert.assertEquals(range, Arrays.toString(expect), Arrays.toString(r));
+    }
+
+    static void invalid(String range, long length) {
+        Assert.assertNull(range, HttpRange.parse(range, length));
+    }
+
+    @Test
+    public void testSingle() throws Exception {
+        v("bytes=0-99", 1000, 0, 99);
+        v("bytes=100-", 1000, 100, 999);
+        v("bytes=-100", 1000, 900, 999);
+        v("bytes=0-0", 1000, 0, 0);
+        v("bytes= 10-19 ", 1000, 10, 19);
+        // the last is capped to the length
+        v("bytes=900-2000", 1000, 900, 999);
+        v("bytes=-2000", 1000, 0, 999);
+    }
+
+    @Test
+    public void testMultiple() throws Exception {
+        v("bytes=0-0,-1", 1000, 0, 0, 999, 999);
+        v("bytes=0-9, 20-29, 40-", 50, 0, 9, 20, 29, 40, 49);
+        // the unsatisfiable ones are skipped
+        v("bytes=0-9,2000-3000", 1000, 0, 9);
+        StringBuilder b = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < 16; i++) {
+            b.append(',').append(i).append('-').append(i);
+        }
+        Assert.assertEquals(32, HttpRange.parse(b.toString(), 1000).length);
+        b.append(",16-16");
+        invalid(b.toString(), 1000);
+    }
+
+    @Test
+    public void testUnsatisfiable() throws Exception {
+        v("bytes=1000-", 1000);
+        v("bytes=1000-2000", 1000);
+        v("bytes=-0", 1000);
+        v("bytes=0-", 0);
+        v("bytes=-10", 0);
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        invalid(null, 1000);
+        invalid("", 1000);
+        invalid("items=0-9", 1000);
+        invalid("bytes=9-0", 1000);
+        invalid("bytes=20-10", 5);
+        invalid("bytes=a-b", 1000);
+        invalid("bytes=10", 1000);
+        invalid("bytes=-", 1000);
+        invalid("bytes=--10", 1000);
+        invalid("bytes=0-9,x", 1000);
+    }
+
+}
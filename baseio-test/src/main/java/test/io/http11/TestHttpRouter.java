@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.io.http11;
+
+import org.junit.Test;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.codec.http11.HttpRouter;
+import com.firenio.baseio.codec.http11.HttpRouter.Route;
+
+import junit.framework.Assert;
+
+/**
+ * @author wangkai
+ *
+ */
+public class TestHttpRouter {
+
+    static final String[] patterns = { "/", "/user/list", "/user/{id}", "/user/{id}/info",
+            "/user/{id}/{tab}", "/users", "/static/*", "/static/img/logo.png", "/a/{x}/b/*",
+            "/us" };
+
+    static HttpRouter<String> router() {
+        HttpRouter<String> r = new HttpRouter<>();
+        for (String p : patterns) {
+            r.add(p, p);
+        }
+        return r;
+    }
+
+    // match the path by the string and by the bytes in the middle of a buf
+    static void v(HttpRouter<String> r, String path, String expect, String... params) {
+        Route<String> m = r.match(path);
+        Assert.assertEquals(path, expect, m == null ? null : m.getHandler());
+        byte[] bytes = ("GET " + path + " HTTP/1.1").getBytes();
+        ByteBuf buf = ByteBuf.wrap(bytes);
+        int[] captures = new int[r.getMaxParams() << 1];
+        int pos = buf.absPos();
+        m = r.match(buf, pos + 4, path.length(), captures);
+        Assert.assertEquals(path, expect, m == null ? null : m.getHandler());
+        Assert.assertEquals(pos, buf.absPos());
+        if (m == null) {
+            return;
+        }
+        Assert.assertEquals(params.length, m.getParamNames().length);
+        for (int i = 0; i < params.length; i++) {
+            int s = captures[i << 1] - buf.absPos();
+            int e = captures[(i << 1) + 1] - buf.absPos();
+            Assert.assertEquals(params[i], new String(bytes, s, e - s));
+        }
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        HttpRouter<String> r = router();
+        Assert.assertEquals(patterns.length, r.size());
+        Assert.assertEquals(2, r.getMaxParams());
+        String[] bads = { "/user/{uid}", "/x/*/y", "/x/{}", "/x/{id" };
+        for (String bad : bads) {
+            try {
+                r.add(bad, bad);
+                Assert.fail(bad);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        Route<String> m = r.match("/a/1/b/c");
+        Assert.assertEquals(0, m.getParamIndex("x"));
+        Assert.assertEquals(1, m.getParamIndex("*"));
+        Assert.assertEquals(-1, m.getParamIndex("y"));
+        Assert.assertEquals("/a/{x}/b/*", m.getPattern());
+    }
+
+    @Test
+    public void testMatch() throws Exception {
+        HttpRouter<String> r = router();
+        v(r, "/", "/");
+        v(r, "/user/list", "/user/list");
+        v(r, "/user/42", "/user/{id}", "42");
+        v(r, "/user/42/info", "/user/{id}/info", "42");
+        v(r, "/user/42/posts", "/user/{id}/{tab}", "42", "posts");
+        v(r, "/users", "/users");
+        v(r, "/us", "/us");
+        v(r, "/u", null);
+        v(r, "/user/", null);
+        v(r, "/user/42/info/x", null);
+        v(r, "/a/1/c", null);
+    }
+
+    // the static segments take precedence over the captures, and the captures
+    // over the wildcard
+    @Test
+    public void testPrecedence() throws Exception {
+        HttpRouter<String> r = router();
+        v(r, "/user/list/info", "/user/{id}/info", "list");
+        v(r, "/static/img/logo.png", "/static/img/logo.png");
+        v(r, "/static/img/logo.pn", "/static/*", "img/logo.pn");
+        v(r, "/static/", "/static/*", "");
+        v(r, "/a/1/b/rest/of", "/a/{x}/b/*", "1", "rest/of");
+    }
+
+    // the path is matched raw, the captures are the raw bytes
+    @Test
+    public void testRaw() throws Exception {
+        HttpRouter<String> r = router();
+        v(r, "/user/a%20b%2Fc/info", "/user/{id}/info", "a%20b%2Fc");
+    }
+
+}
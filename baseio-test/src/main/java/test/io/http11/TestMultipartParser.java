@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.io.http11;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import com.firenio.baseio.buffer.ByteBuf;
+import com.firenio.baseio.codec.http11.HttpPart;
+import com.firenio.baseio.codec.http11.MultipartParser;
+import com.firenio.baseio.codec.http11.MultipartParser.PartCollector;
+
+import junit.framework.Assert;
+
+/**
+ * @author wangkai
+ *
+ */
+public class TestMultipartParser {
+
+    static final String boundary = "----WebKitFormBoundaryKA6dsRskWA4CdJek";
+
+    static byte[] body(byte[] file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("preamble\r\n");
+        sb.append("--").append(boundary).append("\r\n");
+        sb.append("Content-Disposition: form-data; name=\"name\"\r\n\r\n");
+        sb.append("baseio\r\n");
+        sb.append("--").append(boundary).append("\r\n");
+        sb.append("Content-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n");
+        sb.append("Content-Type: application/octet-stream\r\n\r\n");
+        byte[] head = sb.toString().getBytes("ISO-8859-1");
+        byte[] tail = ("\r\n--" + boundary + "--\r\nepilogue").getBytes("ISO-8859-1");
+        byte[] body = new byte[head.length + file.length + tail.length];
+        System.arraycopy(head, 0, body, 0, head.length);
+        System.arraycopy(file, 0, body, head.length, file.length);
+        System.arraycopy(tail, 0, body, head.length + file.length, tail.length);
+        return body;
+    }
+
+    // the file content contains the prefixes of the delimiter
+    static byte[] file() throws IOException {
+        String s = "\r\n--" + boundary.substring(0, 10) + "\r\n-\r\n--"
+                + boundary.substring(0, boundary.length() - 1) + "x";
+        byte[] b = new byte[1000];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) i;
+        }
+        byte[] p = s.getBytes("ISO-8859-1");
+        System.arraycopy(p, 0, b, 100, p.length);
+        return b;
+    }
+
+    static void parse(MultipartParser parser, byte[] body, int step) throws IOException {
+        for (int i = 0; i < body.length; i += step) {
+            parser.parse(ByteBuf.wrap(body, i, Math.min(step, body.length - i)));
+        }
+    }
+
+    static void v(PartCollector c, byte[] file) {
+        Assert.assertEquals(2, c.getParts().size());
+        HttpPart name = c.getPart("name");
+        Assert.assertFalse(name.isFile());
+        Assert.assertEquals("baseio", new String(name.getContent()));
+        HttpPart part = c.getPart("file");
+        Assert.assertTrue(part.isFile());
+        Assert.assertEquals("a.bin", part.getFilename());
+        Assert.assertEquals("application/octet-stream", part.getContentType());
+        Assert.assertEquals(file.length, part.getSize());
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        byte[] file = file();
+        byte[] body = body(file);
+        int[] steps = { body.length, 1, 2, 3, 7, 64 };
+        for (int step : steps) {
+            PartCollector c = new PartCollector();
+            MultipartParser parser = new MultipartParser(boundary, c);
+            parse(parser, body, step);
+            Assert.assertTrue(parser.isComplete());
+            v(c, file);
+            Assert.assertTrue(java.util.Arrays.equals(file, c.getPart("file").getContent()));
+        }
+    }
+
+    @Test
+    public void testParseToFile() throws Exception {
+        byte[] file = file();
+        byte[] body = body(file);
+        File dir = Files.createTempDirectory("multipart").toFile();
+        PartCollector c = new PartCollector(dir, 1024);
+        try {
+            parse(new MultipartParser(boundary, c), body, 5);
+            v(c, file);
+            File f = c.getPart("file").getFile();
+            Assert.assertTrue(java.util.Arrays.equals(file, Files.readAllBytes(f.toPath())));
+        } finally {
+            c.deleteFiles();
+            dir.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testHeaderOverLimit() throws Exception {
+        byte[] body = body(file());
+        parse(new MultipartParser(boundary, new PartCollector(), 32), body, body.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMemoryOverLimit() throws Exception {
+        byte[] body = body(file());
+        parse(new MultipartParser(boundary, new PartCollector(null, 100)), body, body.length);
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 The Baseio Project
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.others.jmh;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.firenio.baseio.concurrent.ScmpArrayQueue;
+
+/**
+ * compare the NioEventLoop's events queue, 3 producers and 1 consumer, both
+ * queues are bounded by the same capacity, so the offers are rejected alike
+ * when the consumer falls behind
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventQueueBenchmark {
+
+    static final int               CAPACITY = 1024 * 4;
+    static final Runnable          TASK     = new Task();
+
+    final Runnable[]               batch    = new Runnable[256];
+    final BlockingQueue<Runnable>  lbq      = new LinkedBlockingQueue<>(CAPACITY);
+    final ScmpArrayQueue<Runnable> scmp     = new ScmpArrayQueue<>(CAPACITY);
+
+    @Benchmark
+    @Group("linked")
+    @GroupThreads(3)
+    public boolean linkedOffer() {
+        return lbq.offer(TASK);
+    }
+
+    @Benchmark
+    @Group("linked")
+    @GroupThreads(1)
+    public Runnable linkedPoll() {
+        return lbq.poll();
+    }
+
+    @Benchmark
+    @Group("array")
+    @GroupThreads(3)
+    public boolean arrayOffer() {
+        return scmp.offer(TASK);
+    }
+
+    @Benchmark
+    @Group("array")
+    @GroupThreads(1)
+    public Runnable arrayPoll() {
+        return scmp.poll();
+    }
+
+    @Benchmark
+    @Group("arrayBatch")
+    @GroupThreads(3)
+    public boolean arrayBatchOffer() {
+        return scmp.offer(TASK);
+    }
+
+    @Benchmark
+    @Group("arrayBatch")
+    @GroupThreads(1)
+    public void arrayBatchDrain(Blackhole bh) {
+        int size = scmp.drain(batch);
+        for (int i = 0; i < size; i++) {
+            bh.consume(batch[i]);
+            batch[i] = null;
+        }
+    }
+
+    static class Task implements Runnable {
+
+        @Override
+        public void run() {}
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder().include(EventQueueBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+
+}